@@ -79,6 +79,53 @@ public @interface ServiceDefinition {
      */
     Class<?> batchType() default Void.class;
 
+    /**
+     * Specifies if the loader keeps the result of its last lookup.<br>
+     * If enabled, filters and sorters are applied once and the result is reused
+     * until the next reload. The static load methods also share a single loader
+     * instance. Dynamic filters are still evaluated on each call.
+     *
+     * @return true if the result is cached, false otherwise
+     */
+    boolean cached() default false;
+
+    /**
+     * Specifies if the providers declared with {@link ServiceProvider} in the same compilation
+     * are instantiated directly by the loader.<br>
+     * If enabled, these providers are created with a constructor, a static method or a static field
+     * instead of being looked up by the backend. They come first and are merged with the providers
+     * of the backend; a provider found by both is only returned once. This option is ignored on Java 8.
+     *
+     * @return true if providers of the same compilation are instantiated directly, false otherwise
+     */
+    boolean direct() default false;
+
+    /**
+     * Specifies if the loader reports its loading events to a listener.<br>
+     * If enabled, the builder of the loader accepts a listener that is notified of backend creations,
+     * provider instantiations, filter rejections, sorts, selections and reloads.
+     *
+     * @return true if loading events are reported, false otherwise
+     */
+    boolean observable() default false;
+
+    /**
+     * Specifies if the loader can instantiate and filter providers concurrently.<br>
+     * If enabled, the builder of the loader accepts an executor that runs these tasks.
+     *
+     * @return true if providers can be loaded concurrently, false otherwise
+     */
+    boolean concurrent() default false;
+
+    /**
+     * Specifies if the loader can reload its content in the background.<br>
+     * If enabled, the builder of the loader accepts a staleness bound after which
+     * the content is reloaded asynchronously.
+     *
+     * @return true if the content can be refreshed in the background, false otherwise
+     */
+    boolean refreshable() default false;
+
     /**
      * Name to suppress single-fallback warning using @{@link SuppressWarnings}
      */
@@ -51,4 +51,16 @@ public @interface ServiceFilter {
      * @return an ordering
      */
     int position() default Integer.MAX_VALUE;
+
+    /**
+     * Specifies that the filter result may change between calls.
+     * <p>
+     * A cached loader evaluates filters once per provider and keeps the result until reload.
+     * A dynamic filter is evaluated on each call instead.
+     * This has no effect on loaders that are not cached.
+     *
+     * @return true if the filter must be evaluated on each call, false otherwise
+     * @see ServiceDefinition#cached()
+     */
+    boolean dynamic() default false;
 }
@@ -0,0 +1,17 @@
+package nbbrd.service.benchmarks;
+
+import nbbrd.service.Quantifier;
+import nbbrd.service.ServiceDefinition;
+
+import java.util.List;
+
+@ServiceDefinition(quantifier = Quantifier.MULTIPLE, batchType = Batched.Batch.class)
+public interface Batched {
+
+    int getIndex();
+
+    interface Batch {
+
+        List<Batched> getProviders();
+    }
+}
@@ -0,0 +1,18 @@
+package nbbrd.service.benchmarks;
+
+import nbbrd.service.Quantifier;
+import nbbrd.service.ServiceDefinition;
+import nbbrd.service.ServiceFilter;
+
+@ServiceDefinition(quantifier = Quantifier.MULTIPLE)
+public interface Filtered {
+
+    @ServiceFilter(position = 1)
+    boolean isAvailable();
+
+    @ServiceFilter(position = 2)
+    boolean isEnabled();
+
+    @ServiceFilter(position = 3, negate = true)
+    boolean isDeprecated();
+}
@@ -0,0 +1,12 @@
+package nbbrd.service.benchmarks;
+
+import nbbrd.service.Quantifier;
+import nbbrd.service.ServiceDefinition;
+import nbbrd.service.ServiceId;
+
+@ServiceDefinition(quantifier = Quantifier.MULTIPLE)
+public interface Identified {
+
+    @ServiceId
+    String getName();
+}
@@ -0,0 +1,42 @@
+package nbbrd.service.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures generated loaders against providers registered in {@code META-INF/services}.
+ * <p>
+ * Run with {@code -prof gc} to report allocation rates.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoadBenchmark {
+
+    private RegisteredLoader loader;
+
+    @Setup
+    public void setup() {
+        loader = RegisteredLoader.builder().build();
+    }
+
+    @Benchmark
+    public List<Registered> load() {
+        return RegisteredLoader.load();
+    }
+
+    @Benchmark
+    public List<Registered> buildAndGet() {
+        return RegisteredLoader.builder().build().get();
+    }
+
+    @Benchmark
+    public List<Registered> get() {
+        return loader.get();
+    }
+}
@@ -0,0 +1,78 @@
+package nbbrd.service.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures generated loaders against synthetic providers served by a custom backend.
+ * <p>
+ * Run with {@code -prof gc} to report allocation rates.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoaderBenchmark {
+
+    @Param({"1", "10", "100", "1000"})
+    public int size;
+
+    private List<Synthetic> providers;
+    private List<Batched.Batch> batches;
+    private String lastName;
+
+    private PlainLoader plainLoader;
+    private IdentifiedLoader identifiedLoader;
+    private FilteredLoader filteredLoader;
+    private SortedLoader sortedLoader;
+    private BatchedLoader batchedLoader;
+
+    @Setup
+    public void setup() {
+        providers = Synthetic.listOf(size);
+        batches = Synthetic.batchesOf(providers, 10);
+        lastName = providers.get(size - 1).getName();
+
+        plainLoader = PlainLoader.builder().backend(type -> providers, list -> list).build();
+        identifiedLoader = IdentifiedLoader.builder().backend(type -> providers, list -> list).build();
+        filteredLoader = FilteredLoader.builder().backend(type -> providers, list -> list).build();
+        sortedLoader = SortedLoader.builder().backend(type -> providers, list -> list).build();
+        batchedLoader = BatchedLoader.builder().backend(type -> type == Batched.Batch.class ? batches : Collections.emptyList(), list -> list).build();
+    }
+
+    @Benchmark
+    public List<Plain> buildAndGet() {
+        return PlainLoader.builder().backend(type -> providers, list -> list).build().get();
+    }
+
+    @Benchmark
+    public List<Plain> get() {
+        return plainLoader.get();
+    }
+
+    @Benchmark
+    public Optional<Identified> getById() {
+        return identifiedLoader.getById(lastName);
+    }
+
+    @Benchmark
+    public List<Filtered> getFiltered() {
+        return filteredLoader.get();
+    }
+
+    @Benchmark
+    public List<Sorted> getSorted() {
+        return sortedLoader.get();
+    }
+
+    @Benchmark
+    public List<Batched> getBatched() {
+        return batchedLoader.get();
+    }
+}
@@ -0,0 +1,10 @@
+package nbbrd.service.benchmarks;
+
+import nbbrd.service.Quantifier;
+import nbbrd.service.ServiceDefinition;
+
+@ServiceDefinition(quantifier = Quantifier.MULTIPLE)
+public interface Plain {
+
+    int getIndex();
+}
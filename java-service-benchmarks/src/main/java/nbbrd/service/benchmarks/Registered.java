@@ -0,0 +1,24 @@
+package nbbrd.service.benchmarks;
+
+import nbbrd.service.Quantifier;
+import nbbrd.service.ServiceDefinition;
+import nbbrd.service.ServiceProvider;
+
+/**
+ * Service backed by real ServiceLoader registrations.
+ */
+@ServiceDefinition(quantifier = Quantifier.MULTIPLE)
+public interface Registered {
+
+    @ServiceProvider(Registered.class)
+    final class First implements Registered {
+    }
+
+    @ServiceProvider(Registered.class)
+    final class Second implements Registered {
+    }
+
+    @ServiceProvider(Registered.class)
+    final class Third implements Registered {
+    }
+}
@@ -0,0 +1,15 @@
+package nbbrd.service.benchmarks;
+
+import nbbrd.service.Quantifier;
+import nbbrd.service.ServiceDefinition;
+import nbbrd.service.ServiceSorter;
+
+@ServiceDefinition(quantifier = Quantifier.MULTIPLE)
+public interface Sorted {
+
+    @ServiceSorter(position = 1, reverse = true)
+    int getRank();
+
+    @ServiceSorter(position = 2)
+    String getName();
+}
@@ -0,0 +1,83 @@
+package nbbrd.service.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Synthetic provider that implements all the benchmarked services.
+ */
+public final class Synthetic implements Plain, Identified, Filtered, Sorted, Batched {
+
+    private final int index;
+    private final String name;
+    private final int rank;
+    private final boolean available;
+    private final boolean enabled;
+    private final boolean deprecated;
+
+    private Synthetic(int index, String name, int rank, boolean available, boolean enabled, boolean deprecated) {
+        this.index = index;
+        this.name = name;
+        this.rank = rank;
+        this.available = available;
+        this.enabled = enabled;
+        this.deprecated = deprecated;
+    }
+
+    @Override
+    public int getIndex() {
+        return index;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public int getRank() {
+        return rank;
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return available;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public boolean isDeprecated() {
+        return deprecated;
+    }
+
+    public static List<Synthetic> listOf(int size) {
+        List<Synthetic> result = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            result.add(new Synthetic(
+                    i,
+                    String.format(Locale.ROOT, "P%04d", i),
+                    // deterministic but unordered ranks with duplicates
+                    (i * 7919) % (size / 2 + 1),
+                    i % 3 != 0,
+                    i % 5 != 0,
+                    i % 7 == 0
+            ));
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    public static List<Batched.Batch> batchesOf(List<? extends Batched> providers, int batchSize) {
+        List<Batched.Batch> result = new ArrayList<>();
+        for (int i = 0; i < providers.size(); i += batchSize) {
+            List<Batched> batch = Collections.unmodifiableList(new ArrayList<>(providers.subList(i, Math.min(i + batchSize, providers.size()))));
+            result.add(() -> batch);
+        }
+        return Collections.unmodifiableList(result);
+    }
+}
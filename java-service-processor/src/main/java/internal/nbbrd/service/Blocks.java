@@ -2,6 +2,7 @@ package internal.nbbrd.service;
 
 import com.squareup.javapoet.CodeBlock;
 import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.MethodSpec;
 import com.squareup.javapoet.TypeName;
 
 import java.util.stream.Stream;
@@ -21,8 +22,20 @@ public final class Blocks {
         return CodeBlock.of("$T.stream($N.spliterator(), false)", StreamSupport.class, iterable);
     }
 
-    public static CodeBlock iterableToStream(FieldSpec iterable, TypeName type) {
-        return CodeBlock.of("$T.stream($N.spliterator(), false).filter($T.class::isInstance).map($T.class::cast)", StreamSupport.class, iterable, type, type);
+    public static CodeBlock collectionToStream(CodeBlock collection, TypeName type) {
+        return CodeBlock.of("$L.map($T.class::cast)", collectionToCheckedStream(collection, type), type);
+    }
+
+    public static CodeBlock collectionToCheckedStream(CodeBlock collection, TypeName type) {
+        return CodeBlock.of("$L.stream().filter($T.class::isInstance)", collection, type);
+    }
+
+    public static CodeBlock handlesToStream(CodeBlock collection, TypeName type, MethodSpec typeChecker, CodeBlock instantiator) {
+        return CodeBlock.of("$L.map(o -> $T.class.cast($L(o)))", handlesToCheckedStream(collection, type, typeChecker), type, instantiator);
+    }
+
+    public static CodeBlock handlesToCheckedStream(CodeBlock collection, TypeName type, MethodSpec typeChecker) {
+        return CodeBlock.of("$L.stream().filter(o -> $N(o, $T.class))", collection, typeChecker, type);
     }
 
     public static CodeBlock concatStreams(CodeBlock first, CodeBlock second) {
@@ -0,0 +1,72 @@
+package internal.nbbrd.service;
+
+import lombok.NonNull;
+
+import javax.annotation.processing.FilerException;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.Element;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Reads and writes the lists of classes involved in service loading.
+ * <p>
+ * Each file contains one binary class name per line and is located in {@code META-INF/service-classes/}.
+ * These files are aggregated at build time into a class list suitable for class data sharing.
+ *
+ * @author Philippe Charles
+ */
+@lombok.RequiredArgsConstructor
+public final class ClassListRegistry {
+
+    /**
+     * Enables the generation of class lists when set to {@code true}.
+     */
+    public static final String OPTION = "nbbrd.service.classList";
+
+    public static final String FOLDER = "META-INF/service-classes/";
+
+    public static boolean isEnabled(@NonNull ProcessingEnvironment env) {
+        return Boolean.parseBoolean(env.getOptions().get(OPTION));
+    }
+
+    public static @NonNull String getFileRelativeName(@NonNull CharSequence binaryName) {
+        return FOLDER + binaryName;
+    }
+
+    @NonNull
+    private final ProcessingEnvironment env;
+
+    public @NonNull SortedSet<String> read(@NonNull CharSequence binaryName) throws IOException {
+        FileObject src = env.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "", getFileRelativeName(binaryName));
+        SortedSet<String> result = new TreeSet<>();
+        try (BufferedReader reader = new BufferedReader(src.openReader(false))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.trim().isEmpty()) {
+                    result.add(line.trim());
+                }
+            }
+        } catch (FileNotFoundException | NoSuchFileException | FilerException ex) {
+            // ignore
+        }
+        return result;
+    }
+
+    public void write(@NonNull CharSequence binaryName, @NonNull SortedSet<String> classNames, @NonNull Element... originatingElements) throws IOException {
+        FileObject dst = env.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", getFileRelativeName(binaryName), originatingElements);
+        try (BufferedWriter writer = new BufferedWriter(dst.openWriter())) {
+            for (String className : classNames) {
+                writer.write(className);
+                writer.newLine();
+            }
+        }
+    }
+}
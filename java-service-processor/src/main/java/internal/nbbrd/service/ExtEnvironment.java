@@ -36,6 +36,15 @@ public final class ExtEnvironment implements ProcessingEnvironment {
     @lombok.experimental.Delegate
     private final ProcessingEnvironment delegate;
 
+    /**
+     * Gets the wrapped environment, as required by compiler-specific APIs.
+     *
+     * @return a non-null environment
+     */
+    public ProcessingEnvironment unwrap() {
+        return delegate;
+    }
+
     @Nullable
     public TypeElement asTypeElement(@NonNull String canonicalName) {
         return delegate.getElementUtils().getTypeElement(canonicalName);
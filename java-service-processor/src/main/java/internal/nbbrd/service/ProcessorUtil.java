@@ -20,6 +20,7 @@ import com.squareup.javapoet.JavaFile;
 import lombok.NonNull;
 
 import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.Element;
 import javax.lang.model.type.MirroredTypeException;
 import javax.lang.model.type.TypeMirror;
 import javax.tools.Diagnostic;
@@ -34,7 +35,8 @@ import java.util.function.Supplier;
 public class ProcessorUtil {
 
     public void write(@NonNull ProcessingEnvironment env, @NonNull JavaFile jFile) {
-        try (Writer w = env.getFiler().createSourceFile(jFile.packageName + "." + jFile.typeSpec.name).openWriter()) {
+        Element[] originatingElements = jFile.typeSpec.originatingElements.toArray(new Element[0]);
+        try (Writer w = env.getFiler().createSourceFile(jFile.packageName + "." + jFile.typeSpec.name, originatingElements).openWriter()) {
             jFile.writeTo(w);
         } catch (IOException ex) {
             env.getMessager().printMessage(Diagnostic.Kind.ERROR, "Could not generate file: " + ex.getMessage());
@@ -0,0 +1,55 @@
+package internal.nbbrd.service;
+
+import lombok.NonNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * Metadata file that maps provider binary names to their compile-time constant IDs.
+ * <p>
+ * The file uses the {@link Properties} format so that generated loaders can read it without any dependency.
+ *
+ * @author Philippe Charles
+ */
+public final class ProviderIdFile {
+
+    private ProviderIdFile() {
+        throw new UnsupportedOperationException("This is a utility class and cannot be instantiated");
+    }
+
+    public static final String FOLDER = "META-INF/service-ids/";
+
+    public static @NonNull String getFileRelativeName(@NonNull CharSequence serviceBinaryName) {
+        return FOLDER + serviceBinaryName;
+    }
+
+    public static @NonNull Map<String, String> read(@NonNull InputStream stream) throws IOException {
+        Properties properties = new Properties();
+        properties.load(stream);
+        Map<String, String> result = new TreeMap<>();
+        properties.stringPropertyNames().forEach(key -> result.put(key, properties.getProperty(key)));
+        return result;
+    }
+
+    public static void write(@NonNull Map<String, String> idsByProvider, @NonNull OutputStream stream) throws IOException {
+        Properties properties = new Properties();
+        properties.putAll(idsByProvider);
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        properties.store(buffer, null);
+        // drop the timestamp and sort entries to keep the output reproducible
+        String content = Arrays.stream(new String(buffer.toByteArray(), StandardCharsets.ISO_8859_1).split("\\R"))
+                .filter(line -> !line.startsWith("#"))
+                .sorted()
+                .collect(Collectors.joining("\n", "", "\n"));
+        stream.write(content.getBytes(StandardCharsets.ISO_8859_1));
+    }
+}
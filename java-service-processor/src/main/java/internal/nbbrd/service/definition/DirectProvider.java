@@ -0,0 +1,29 @@
+package internal.nbbrd.service.definition;
+
+import internal.nbbrd.service.Instantiator;
+
+import javax.lang.model.type.TypeMirror;
+
+/**
+ * Describes a provider of the same compilation that a loader instantiates without its backend.
+ */
+@lombok.Value
+class DirectProvider {
+
+    /**
+     * Binary name of the class registered in the provider-configuration file.
+     */
+    @lombok.NonNull
+    String registeredName;
+
+    @lombok.NonNull
+    TypeMirror type;
+
+    @lombok.NonNull
+    Instantiator instantiator;
+
+    /**
+     * Indicates that the instance comes from a static field or method that is registered through a generated delegate.
+     */
+    boolean delegated;
+}
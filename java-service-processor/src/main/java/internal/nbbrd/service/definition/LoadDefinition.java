@@ -23,6 +23,7 @@ import nbbrd.service.Quantifier;
 
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.util.List;
 import java.util.Optional;
 
 /**
@@ -48,6 +49,17 @@ class LoadDefinition {
     @lombok.NonNull
     Optional<BatchDefinition> batch;
 
+    boolean cached;
+
+    boolean observable;
+
+    boolean concurrent;
+
+    boolean refreshable;
+
+    @lombok.Singular
+    List<DirectProvider> directProviders;
+
     public @NonNull ClassName resolveLoaderName() {
         return resolveName(loaderName, serviceType, "Loader");
     }
@@ -36,6 +36,8 @@ class LoadFilter implements HasMethod {
     //@NonNegative
     int position;
 
+    boolean dynamic;
+
     @lombok.NonNull
     Optional<TypeElement> serviceType;
 }
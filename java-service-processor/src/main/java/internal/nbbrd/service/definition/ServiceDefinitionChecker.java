@@ -23,6 +23,7 @@ import nbbrd.service.Quantifier;
 import nbbrd.service.ServiceDefinition;
 
 import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.SourceVersion;
 import javax.lang.model.element.ElementKind;
 import javax.lang.model.element.ExecutableElement;
 import javax.lang.model.element.Modifier;
@@ -197,9 +198,16 @@ final class ServiceDefinitionChecker {
         if (!checkBatch(definition, service)) {
             return false;
         }
+        checkDirect(definition, service);
         return true;
     }
 
+    private void checkDirect(LoadDefinition definition, TypeElement service) {
+        if (!definition.getDirectProviders().isEmpty() && env.getSourceVersion().compareTo(SourceVersion.RELEASE_8) <= 0) {
+            env.warn(service, String.format(Locale.ROOT, "Direct providers of service '%1$s' ignored because ServiceLoader instantiates them before they can be skipped on Java 8", service));
+        }
+    }
+
     private boolean checkFallback(Quantifier quantifier, Optional<TypeInstantiator> fallback, boolean noFallback, TypeElement service, Types types) {
         switch (quantifier) {
             case SINGLE:
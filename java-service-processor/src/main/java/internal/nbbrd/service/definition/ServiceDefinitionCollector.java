@@ -20,6 +20,7 @@ import com.squareup.javapoet.ClassName;
 import internal.nbbrd.service.ExtEnvironment;
 import internal.nbbrd.service.Instantiator;
 import internal.nbbrd.service.ProcessorUtil;
+import internal.nbbrd.service.provider.ProviderRef;
 import nbbrd.service.ServiceDefinition;
 import nbbrd.service.ServiceFilter;
 import nbbrd.service.ServiceId;
@@ -27,6 +28,8 @@ import nbbrd.service.ServiceSorter;
 
 import javax.annotation.processing.ProcessingEnvironment;
 import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
 import javax.lang.model.element.ExecutableElement;
 import javax.lang.model.element.Modifier;
 import javax.lang.model.element.TypeElement;
@@ -35,9 +38,14 @@ import javax.lang.model.type.PrimitiveType;
 import javax.lang.model.type.TypeKind;
 import javax.lang.model.type.TypeMirror;
 import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
 import javax.lang.model.util.Types;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.stream.Collectors;
 import java.util.function.Supplier;
 import java.util.stream.Stream;
 
@@ -69,7 +77,7 @@ final class ServiceDefinitionCollector {
                     roundEnv.getElementsAnnotatedWith(annotation)
                             .stream()
                             .map(TypeElement.class::cast)
-                            .map(this::definitionOf)
+                            .map(serviceType -> definitionOf(serviceType, roundEnv))
                             .forEach(result::definition);
                     break;
                 case "ServiceFilter":
@@ -98,7 +106,7 @@ final class ServiceDefinitionCollector {
         return result.build();
     }
 
-    private LoadDefinition definitionOf(TypeElement serviceType) {
+    private LoadDefinition definitionOf(TypeElement serviceType, RoundEnvironment roundEnv) {
         ServiceDefinition annotation = serviceType.getAnnotation(ServiceDefinition.class);
         Types types = env.getTypeUtils();
 
@@ -115,9 +123,78 @@ final class ServiceDefinitionCollector {
                 .fallback(fallback)
                 .loaderName(annotation.loaderName())
                 .batch(batch)
+                .cached(annotation.cached())
+                .observable(annotation.observable())
+                .concurrent(annotation.concurrent())
+                .refreshable(annotation.refreshable())
+                .directProviders(annotation.direct() ? directProvidersOf(serviceType, annotation, roundEnv) : Collections.emptyList())
                 .build();
     }
 
+    private List<DirectProvider> directProvidersOf(TypeElement serviceType, ServiceDefinition annotation, RoundEnvironment roundEnv) {
+        String loaderPackage = LoadDefinition.resolveName(annotation.loaderName(), ClassName.get(serviceType), "Loader").packageName();
+        boolean hasBatchType = nonNull(annotation::batchType, Void.class).isPresent();
+
+        // same order as the provider-configuration files
+        return ProviderRef.allOf(roundEnv)
+                .filter(ref -> ref.getService().equals(serviceType))
+                .sorted(Comparator.comparing(ref -> ref.getProvider().getQualifiedName().toString()))
+                .flatMap(ref -> directProvidersOf(ref, hasBatchType))
+                .filter(direct -> isAccessible(direct.getInstantiator().getElement(), loaderPackage))
+                .collect(Collectors.toList());
+    }
+
+    private Stream<DirectProvider> directProvidersOf(ProviderRef ref, boolean hasBatchType) {
+        Elements elements = env.getElementUtils();
+        Types types = env.getTypeUtils();
+        TypeElement provider = ref.getProvider();
+        TypeMirror providerType = types.erasure(provider.asType());
+
+        if (ref.getDelegateSource().isPresent()) {
+            Element source = ref.getDelegateSource().get();
+            Instantiator.Kind kind = source.getKind() == ElementKind.FIELD ? Instantiator.Kind.STATIC_FIELD : Instantiator.Kind.STATIC_METHOD;
+            return Stream.of(new DirectProvider(ProviderRef.getDelegateClassName(elements, provider, source), providerType, new Instantiator(kind, source), true));
+        }
+
+        if (provider.getKind() == ElementKind.ENUM) {
+            // enums of batch services are registered as batch providers and are left to the backend
+            return hasBatchType
+                    ? Stream.empty()
+                    : ElementFilter.fieldsIn(provider.getEnclosedElements())
+                    .stream()
+                    .filter(field -> field.getKind() == ElementKind.ENUM_CONSTANT)
+                    .map(constant -> new DirectProvider(ProviderRef.getDelegateClassName(elements, provider, constant), providerType, new Instantiator(Instantiator.Kind.ENUM_FIELD, constant), true));
+        }
+
+        List<Instantiator> instantiators = Instantiator.allOf(types, ref.getService(), provider);
+        Optional<Instantiator> factory = instantiators.stream()
+                .filter(o -> o.getKind() == Instantiator.Kind.STATIC_METHOD && o.getElement().getSimpleName().contentEquals("provider"))
+                .findFirst();
+
+        // ServiceLoader names the providers of the module path after the return type of their factory
+        // so the ones that return another type cannot be told apart and are left to the backend
+        if (factory.isPresent() && !types.isSameType(types.erasure(((ExecutableElement) factory.get().getElement()).getReturnType()), providerType)) {
+            return Stream.empty();
+        }
+
+        return Stream.concat(
+                        factory.map(Stream::of).orElseGet(Stream::empty),
+                        instantiators.stream().filter(o -> o.getKind() == Instantiator.Kind.CONSTRUCTOR))
+                .limit(1)
+                .map(instantiator -> new DirectProvider(elements.getBinaryName(provider).toString(), providerType, instantiator, false));
+    }
+
+    private boolean isAccessible(Element element, String loaderPackage) {
+        boolean samePackage = env.getElementUtils().getPackageOf(element).getQualifiedName().contentEquals(loaderPackage);
+        for (Element e = element; e.getKind() != ElementKind.PACKAGE; e = e.getEnclosingElement()) {
+            Set<Modifier> modifiers = e.getModifiers();
+            if (samePackage ? modifiers.contains(Modifier.PRIVATE) : !modifiers.contains(Modifier.PUBLIC)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private BatchDefinition buildBatchDefinition(TypeMirror batchType, TypeElement batchTypeElement, TypeElement serviceType, Types types) {
         return ElementFilter.methodsIn(batchTypeElement.getEnclosedElements())
                 .stream()
@@ -144,7 +221,7 @@ final class ServiceDefinitionCollector {
 
     private LoadFilter filterOf(ExecutableElement x) {
         ServiceFilter annotation = x.getAnnotation(ServiceFilter.class);
-        return new LoadFilter(x, annotation.negate(), annotation.position(),
+        return new LoadFilter(x, annotation.negate(), annotation.position(), annotation.dynamic(),
                 Optional.ofNullable(getServiceTypeOrNull(x))
         );
     }
@@ -19,12 +19,27 @@ package internal.nbbrd.service.definition;
 import com.squareup.javapoet.*;
 import internal.nbbrd.service.HasMethod;
 import internal.nbbrd.service.Instantiator;
+import internal.nbbrd.service.ProviderIdFile;
 import internal.nbbrd.service.TypeNames;
 import internal.nbbrd.service.Unreachable;
 import nbbrd.service.Quantifier;
 
+import javax.lang.model.SourceVersion;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.regex.Pattern;
 import java.util.stream.Collector;
 import java.util.stream.Collectors;
@@ -46,14 +61,26 @@ class ServiceDefinitionGenerator {
 
     private static final TypeVariableName BACKEND = TypeVariableName.get("BACKEND");
 
+    private static final ClassName PROVIDER_HANDLE = ClassName.get(ServiceLoader.class).nestedClass("Provider");
+
+    // jdk.jfr is referenced by name since it is not available on Java 8
+    private static final ClassName JFR_EVENT = ClassName.get("jdk.jfr", "Event");
+    private static final ClassName JFR_NAME = ClassName.get("jdk.jfr", "Name");
+    private static final ClassName JFR_LABEL = ClassName.get("jdk.jfr", "Label");
+    private static final ClassName JFR_DESCRIPTION = ClassName.get("jdk.jfr", "Description");
+    private static final ClassName JFR_CATEGORY = ClassName.get("jdk.jfr", "Category");
+    private static final ClassName JFR_TIMESPAN = ClassName.get("jdk.jfr", "Timespan");
+
     public static List<ServiceDefinitionGenerator> allOf(
             List<LoadDefinition> definitions,
             Map<ClassName, List<LoadFilter>> filtersByService,
             Map<ClassName, List<LoadSorter>> sortersByService,
-            Map<ClassName, List<LoadId>> idsByService) {
+            Map<ClassName, List<LoadId>> idsByService,
+            SourceVersion sourceVersion,
+            boolean flightRecorder) {
         return definitions
                 .stream()
-                .map(definition -> of(definition, filtersByService, sortersByService, idsByService))
+                .map(definition -> of(definition, filtersByService, sortersByService, idsByService, sourceVersion, flightRecorder))
                 .collect(Collectors.toList());
     }
 
@@ -61,11 +88,15 @@ class ServiceDefinitionGenerator {
             LoadDefinition definition,
             Map<ClassName, List<LoadFilter>> filtersByService,
             Map<ClassName, List<LoadSorter>> sortersByService,
-            Map<ClassName, List<LoadId>> idsByService) {
+            Map<ClassName, List<LoadId>> idsByService,
+            SourceVersion sourceVersion,
+            boolean flightRecorder) {
         return new ServiceDefinitionGenerator(definition,
                 filtersByService.getOrDefault(definition.getServiceType(), emptyList()),
                 sortersByService.getOrDefault(definition.getServiceType(), emptyList()),
-                idsByService.getOrDefault(definition.getServiceType(), emptyList())
+                idsByService.getOrDefault(definition.getServiceType(), emptyList()),
+                sourceVersion,
+                flightRecorder
         );
     }
 
@@ -81,10 +112,60 @@ class ServiceDefinitionGenerator {
     @lombok.NonNull
     List<LoadId> ids;
 
+    @lombok.NonNull
+    SourceVersion sourceVersion;
+
+    boolean flightRecorder;
+
     public boolean hasCustomLoaderName() {
         return !definition.getLoaderName().isEmpty();
     }
 
+    public boolean hasProviderHandles() {
+        // ServiceLoader.Provider was introduced in Java 9
+        return sourceVersion.compareTo(SourceVersion.RELEASE_8) > 0;
+    }
+
+    public boolean hasVirtualThreads() {
+        // Thread#startVirtualThread was introduced in Java 21; RELEASE_21 is not available on older JDKs
+        return sourceVersion.ordinal() >= 21;
+    }
+
+    public boolean hasDirectProviders() {
+        // ServiceLoader instantiates providers before they can be skipped on Java 8
+        return hasProviderHandles() && !definition.getDirectProviders().isEmpty();
+    }
+
+    public boolean hasFlightRecorder() {
+        return flightRecorder;
+    }
+
+    public boolean hasListener() {
+        // flight recorder events are emitted through the listener
+        return definition.isObservable() || hasFlightRecorder();
+    }
+
+    public boolean hasExecutor() {
+        return definition.isConcurrent();
+    }
+
+    public boolean hasRefresh() {
+        return definition.isRefreshable();
+    }
+
+    public boolean hasLookupById() {
+        return !ids.isEmpty() && definition.getQuantifier() == Quantifier.MULTIPLE;
+    }
+
+    public boolean hasKnownIds() {
+        // constant IDs can only be checked before instantiation through provider handles
+        return hasProviderHandles()
+                && !definition.isCached()
+                && definition.getQuantifier() == Quantifier.MULTIPLE
+                && !ids.isEmpty()
+                && ids.get(0).getFormatMethodName().isEmpty();
+    }
+
     public TypeSpec generateLoader(boolean nested) {
         ClassName loaderName = ClassName.bestGuess(definition.resolveLoaderName().simpleName());
         ClassName builderName = ClassName.bestGuess("Builder");
@@ -105,12 +186,37 @@ class ServiceDefinitionGenerator {
                 .builder(Runnable.class, "providerReloader", PRIVATE, FINAL)
                 .build();
 
+        FieldSpec executor = FieldSpec
+                .builder(Executor.class, EXECUTOR, PRIVATE, FINAL)
+                .build();
+
+        FieldSpec listener = FieldSpec
+                .builder(ClassName.bestGuess(LISTENER), LISTENER_FIELD, PRIVATE, FINAL)
+                .build();
+
         result.addField(providerSource);
         result.addField(providerReloader);
 
-        MethodSpec reloadMethod;
+        // the backends are only iterated under lock, readers get an immutable copy of their content
+        MethodSpec.Builder sourcesFactory = MethodSpec
+                .methodBuilder(SOURCES_FACTORY)
+                .addModifiers(PRIVATE)
+                .returns(ClassName.bestGuess(SOURCES));
+        if (hasRefresh()) {
+            sourcesFactory.addStatement("$L.set($T.nanoTime() + $L)", REFRESH_DEADLINE, System.class, REFRESH_NANOS);
+        }
+
+        CodeBlock.Builder reloadCode = CodeBlock.builder();
+        if (hasListener()) {
+            reloadCode.addStatement("long start = $T.nanoTime()", System.class);
+        }
+        CodeBlock.Builder backendReloadCode = CodeBlock.builder();
+        CodeBlock.Builder previousReloadCode = CodeBlock.builder();
+        MethodSpec.Builder reloadMethod;
         MethodSpec streamMethod;
-        MethodSpec constructor;
+        MethodSpec.Builder constructor;
+        List<CodeBlock> concurrentSources;
+        CodeBlock byIdSource;
 
         if (batchTypeOrNull != null) {
             BatchDefinition batchDefinition = definition.getBatch().orElseThrow(Unreachable::new);
@@ -127,30 +233,46 @@ class ServiceDefinitionGenerator {
                     .methodBuilder("reload")
                     .addJavadoc(CodeBlock
                             .builder()
-                            .add("Reloads the content by clearing the cache and fetching available providers.\n")
+                            .add("Reloads the content by fetching available providers and rebuilding the cache.\n")
                             .add("<p>This method reloads both individual providers and batch providers.\n")
                             .add("It should be called when the set of available providers may have changed.\n")
+                            .add(getReloadConsistencyJavadoc())
                             .build())
                     .addModifiers(PUBLIC)
-                    .returns(VOID)
+                    .returns(VOID);
+
+            backendReloadCode
                     .addStatement("$N.run()", providerReloader)
-                    .addStatement("$N.run()", batchReloader)
-                    .build();
+                    .addStatement("$N.run()", batchReloader);
+
+            previousReloadCode
+                    .addStatement("previous.providers.$L($N)", MEMO_RELOADER, providerReloader)
+                    .addStatement("previous.batches.$L($N)", MEMO_RELOADER, batchReloader);
+
+            CodeBlock batchStreamCode = CodeBlock.of("$L($L, o -> $L(current, o))", BATCH_FLATTENER, getSourceToStreamCode(CURRENT_BATCHES, batchTypeOrNull), BATCH_CACHED_EXPANDER);
 
             streamMethod = MethodSpec
-                    .methodBuilder("stream")
+                    .methodBuilder(GATHER)
                     .addModifiers(PRIVATE)
                     .returns(TypeNames.typeOf(Stream.class, providerType))
+                    .addParameter(ClassName.bestGuess(SOURCES), "current")
                     .addStatement(
                             CodeBlock
                                     .builder()
                                     .add("return ")
                                      .add(concatStreams(
-                                            iterableToStream(providerSource, providerType),
-                                            flatMapStream(iterableToStream(batchSource, batchTypeOrNull), getBatchMapper(batchDefinition))
+                                            getSourceToStreamCode(CURRENT_PROVIDERS, providerType),
+                                            batchStreamCode
                                     )).build())
                     .build();
 
+            byIdSource = concatStreams(getSourceToStreamByIdCode(CURRENT_PROVIDERS, providerType), batchStreamCode);
+
+            concurrentSources = Arrays.asList(
+                    getConcurrentSourceCode(CURRENT_PROVIDERS, providerType, CodeBlock.of("")),
+                    getConcurrentSourceCode(CURRENT_BATCHES, batchTypeOrNull, CodeBlock.of(".flatMap(o -> $L(current, o))", BATCH_CACHED_EXPANDER))
+            );
+
             constructor = MethodSpec
                     .constructorBuilder()
                     .addModifiers(PRIVATE)
@@ -161,73 +283,312 @@ class ServiceDefinitionGenerator {
                     .addStatement("this.$N = $N", providerSource, providerSource)
                     .addStatement("this.$N = $N", providerReloader, providerReloader)
                     .addStatement("this.$N = $N", batchSource, batchSource)
-                    .addStatement("this.$N = $N", batchReloader, batchReloader)
-                    .build();
+                    .addStatement("this.$N = $N", batchReloader, batchReloader);
 
             result.addField(batchSource);
             result.addField(batchReloader);
+            result.addMethod(newBatchExpanderMethod(batchTypeOrNull, batchDefinition, listener));
+            result.addMethod(newCachedBatchExpanderMethod(batchTypeOrNull));
+            result.addMethod(newBatchFlattenerMethod(batchTypeOrNull));
+            sourcesFactory.addStatement("return new $L(new $L($N), new $L($N))", SOURCES, MEMO, providerSource, MEMO, batchSource);
         } else {
             reloadMethod = MethodSpec
                     .methodBuilder("reload")
                     .addJavadoc(CodeBlock
                             .builder()
-                            .add("Reloads the content by clearing the cache and fetching available providers.\n")
+                            .add("Reloads the content by fetching available providers and rebuilding the cache.\n")
                             .add("<p>It should be called when the set of available providers may have changed.\n")
+                            .add(getReloadConsistencyJavadoc())
                             .build())
                     .addModifiers(PUBLIC)
-                    .returns(VOID)
-                    .addStatement("$N.run()", providerReloader)
-                    .build();
+                    .returns(VOID);
+
+            backendReloadCode
+                    .addStatement("$N.run()", providerReloader);
+
+            previousReloadCode
+                    .addStatement("previous.providers.$L($N)", MEMO_RELOADER, providerReloader);
 
             streamMethod = MethodSpec
-                    .methodBuilder("stream")
+                    .methodBuilder(GATHER)
                     .addModifiers(PRIVATE)
                     .returns(TypeNames.typeOf(Stream.class, providerType))
+                    .addParameter(ClassName.bestGuess(SOURCES), "current")
                     .addStatement(
                             CodeBlock
                                     .builder()
                                     .add("return ")
-                                    .add(iterableToStream(providerSource, providerType))
+                                    .add(getSourceToStreamCode(CURRENT_PROVIDERS, providerType))
                                     .build())
                     .build();
 
+            byIdSource = getSourceToStreamByIdCode(CURRENT_PROVIDERS, providerType);
+
+            concurrentSources = Collections.singletonList(
+                    getConcurrentSourceCode(CURRENT_PROVIDERS, providerType, CodeBlock.of(""))
+            );
+
+            sourcesFactory.addStatement("return new $L(new $L($N))", SOURCES, MEMO, providerSource);
+
             constructor = MethodSpec
                     .constructorBuilder()
                     .addModifiers(PRIVATE)
                     .addParameter(providerSource.type, providerSource.name)
                     .addParameter(providerReloader.type, providerReloader.name)
                     .addStatement("this.$N = $N", providerSource, providerSource)
-                    .addStatement("this.$N = $N", providerReloader, providerReloader)
-                    .build();
+                    .addStatement("this.$N = $N", providerReloader, providerReloader);
         }
 
-        result.addMethod(reloadMethod);
-        result.addMethod(streamMethod);
-        result.addMethod(constructor);
+        // the options of the builder are only passed if the definition enables them
+        if (hasExecutor()) {
+            constructor
+                    .addParameter(executor.type, executor.name)
+                    .addStatement("this.$N = $N", executor, executor);
+            result.addField(executor);
+        }
+        if (hasListener()) {
+            constructor
+                    .addParameter(listener.type, listener.name)
+                    .addStatement("this.$N = $N", listener, listener);
+            result.addField(listener);
+        }
+        if (hasRefresh()) {
+            constructor
+                    .addParameter(long.class, REFRESH_NANOS)
+                    .addStatement("this.$L = $L", REFRESH_NANOS, REFRESH_NANOS);
+            result.addField(long.class, REFRESH_NANOS, PRIVATE, FINAL);
+            result.addField(FieldSpec
+                    .builder(AtomicLong.class, REFRESH_DEADLINE, PRIVATE, FINAL)
+                    .initializer("new $T()", AtomicLong.class)
+                    .build());
+        }
+        result.addField(FieldSpec
+                .builder(long.class, RELOAD_COUNT, PRIVATE, VOLATILE)
+                .build());
+        result.addField(long.class, LAST_RELOAD, PRIVATE);
+        result.addField(FieldSpec
+                .builder(ClassName.bestGuess(SOURCES), SOURCES_FIELD, PRIVATE, VOLATILE)
+                .build());
+
+        TypeName snapshotType = hasDynamicFilters() ? TypeNames.typeOf(List.class, providerType) : quantifierType;
+        FieldSpec snapshotFieldOrNull = getSnapshotFieldOrNull(snapshotType);
+        FieldSpec indexFieldOrNull = getIndexFieldOrNull();
+
+        ClassName sourcesType = ClassName.bestGuess(SOURCES);
+        // only the providers that are already fetched are compared so that nothing is instantiated for the listener
+        // backends such as ServiceLoader cannot be iterated across a reload so the current content stops at what is fetched
+        reloadCode
+                .addStatement("$T previous = $L", sourcesType, SOURCES_FIELD);
+        if (hasListener()) {
+            reloadCode
+                    .addStatement("$T<$T> before = $N != null && previous != null ? previous.$L(true) : $T.emptySet()", Set.class, String.class, listener, SOURCES_NAMES, Collections.class);
+        }
+        reloadCode
+                .beginControlFlow("if (previous != null)")
+                .add(previousReloadCode.build())
+                .nextControlFlow("else")
+                .add(backendReloadCode.build())
+                .endControlFlow()
+                .addStatement("$T next = $N()", sourcesType, SOURCES_FACTORY);
+        if (hasProviderHandles()) {
+            // instances of the provider classes that are still available are kept
+            reloadCode
+                    .beginControlFlow("if (previous != null)")
+                    .addStatement("next.$L(previous)", SOURCES_REUSER)
+                    .endControlFlow();
+        }
+
+        // cached content is computed before being published so that readers never see an empty cache
+        if (snapshotFieldOrNull != null) {
+            reloadCode
+                    .addStatement("next.$N = $L(next)", snapshotFieldOrNull, SNAPSHOT_FACTORY);
+        }
+        if (indexFieldOrNull != null) {
+            reloadCode
+                    .addStatement("next.$N = $L(next)", indexFieldOrNull, INDEX_FACTORY);
+        }
+        reloadCode.addStatement("$L = next", SOURCES_FIELD);
+
+        if (hasListener()) {
+            reloadCode
+                    .beginControlFlow("if ($N != null)", listener)
+                    .addStatement("$T<$T> after = next.$L(false)", Set.class, String.class, SOURCES_NAMES)
+                    .addStatement("$N.onReloaded($N(after, before), $N(before, after), $T.nanoTime() - start)", listener, NAME_DIFFER, NAME_DIFFER, System.class)
+                    .endControlFlow();
+        }
+
+        // a request is satisfied by any successful reload that starts after it, so that concurrent requests share a single fetch
+        reloadMethod
+                .addStatement("long requested = $L", RELOAD_COUNT)
+                .beginControlFlow("synchronized (this)")
+                .beginControlFlow("if ($L > requested)", LAST_RELOAD)
+                .addStatement("return")
+                .endControlFlow()
+                .addStatement("long current = ++$L", RELOAD_COUNT)
+                .addCode(reloadCode.build())
+                .addStatement("$L = current", LAST_RELOAD)
+                .endControlFlow();
 
         FieldSpec idPatternFieldOrNull = getIdPatternFieldOrNull();
         FieldSpec filterFieldOrNull = getFilterFieldOrNull(idPatternFieldOrNull);
-        FieldSpec sorterFieldOrNull = getSorterFieldOrNull();
+        FieldSpec dynamicFilterFieldOrNull = getDynamicFilterFieldOrNull();
+        TypeSpec sortKeyTypeOrNull = getSortKeyTypeOrNull();
+        MethodSpec sortMethodOrNull = getSortMethodOrNull(sortKeyTypeOrNull, listener);
+
+        if (filterFieldOrNull != null) {
+            constructor.addStatement(getFilterInitCode(filterFieldOrNull, listener, idPatternFieldOrNull, getStaticFilters()));
+        }
+        if (dynamicFilterFieldOrNull != null) {
+            constructor.addStatement(getFilterInitCode(dynamicFilterFieldOrNull, listener, null, getDynamicFilters()));
+        }
+
+        // without executor nor filter, gathering is enough
+        MethodSpec gatherFilteredMethod = hasExecutor() || filterFieldOrNull != null
+                ? newGatherFilteredMethod(streamMethod, concurrentSources, executor, filterFieldOrNull)
+                : streamMethod;
+
+        MethodSpec sourcesFactoryMethod = sourcesFactory.build();
+        MethodSpec loadSourcesMethod = newLoadSourcesMethod(sourcesFactoryMethod);
+
+        result.addMethod(reloadMethod.build());
+        if (hasRefresh()) {
+            result.addMethod(newRefresherMethod());
+            if (hasListener()) {
+                result.addMethod(BACKGROUND_RELOADER);
+            }
+        }
+        result.addMethod(newGetSourcesMethod(loadSourcesMethod));
+        result.addMethod(loadSourcesMethod);
+        result.addMethod(sourcesFactoryMethod);
+        result.addMethod(streamMethod);
+        if (gatherFilteredMethod != streamMethod) {
+            result.addMethod(gatherFilteredMethod);
+        }
+        if (hasExecutor()) {
+            result.addMethod(CONCURRENT_SUBMITTER);
+            result.addMethod(CONCURRENT_JOINER);
+        }
+        if (hasProviderHandles()) {
+            result.addMethod(TYPE_CHECKER);
+            result.addMethod(newProviderNamerMethod());
+        }
+        if (hasListener()) {
+            result.addMethod(NAME_DIFFER);
+            if (filterFieldOrNull != null || dynamicFilterFieldOrNull != null) {
+                result.addMethod(newFilterObserverMethod());
+            }
+        }
+        if (sortMethodOrNull != null) {
+            result.addMethod(sortMethodOrNull);
+        }
+        result.addMethod(constructor.build());
 
         if (idPatternFieldOrNull != null) result.addField(idPatternFieldOrNull);
         if (filterFieldOrNull != null) result.addField(filterFieldOrNull);
-        if (sorterFieldOrNull != null) result.addField(sorterFieldOrNull);
+        if (dynamicFilterFieldOrNull != null) result.addField(dynamicFilterFieldOrNull);
 
-        MethodSpec getMethod = MethodSpec
-                .methodBuilder("get")
-                .addJavadoc(getGetDescription())
-                .addModifiers(PUBLIC)
-                .returns(quantifierType)
-                .addExceptions(getQuantifierException())
-                .addStatement(CodeBlock
-                        .builder()
-                        .add("return ")
-                        .add(getPreprocessingCode("stream", filterFieldOrNull, sorterFieldOrNull))
-                        .add(getQuantifierCode())
-                        .build())
+        // cached content is computed from the sources it is published with
+        CodeBlock gatherFilteredCode = definition.isCached()
+                ? CodeBlock.of("$N(current)", gatherFilteredMethod)
+                : CodeBlock.of("$N($L())", gatherFilteredMethod, SOURCES_GETTER);
+
+        CodeBlock lookupCode = definition.getQuantifier() == Quantifier.MULTIPLE
+                ? CodeBlock
+                .builder()
+                .add(getSortedCode(gatherFilteredCode, sortMethodOrNull))
+                .add(getQuantifierCode(null))
+                .build()
+                : CodeBlock
+                .builder()
+                .add(gatherFilteredCode)
+                .add(getQuantifierCode(sortKeyTypeOrNull))
                 .build();
 
-        result.addMethod(getMethod);
+        MethodSpec getMethod;
+        MethodSpec getSnapshotMethodOrNull = null;
+        MethodSpec loadSnapshotMethodOrNull = null;
+
+        if (dynamicFilterFieldOrNull != null) {
+            // the snapshot keeps the providers that passed the static filters, in sorted order
+            MethodSpec newSnapshotMethod = MethodSpec
+                    .methodBuilder(SNAPSHOT_FACTORY)
+                    .addModifiers(PRIVATE)
+                    .returns(snapshotType)
+                    .addParameter(sourcesType, "current")
+                    .addStatement("return $L\n.collect($T.collectingAndThen($T.toList(), $T::unmodifiableList))",
+                            getSortedCode(gatherFilteredCode, sortMethodOrNull), Collectors.class, Collectors.class, Collections.class)
+                    .build();
+
+            MethodSpec loadSnapshotMethod = newLoadSnapshotMethod(snapshotFieldOrNull, newSnapshotMethod);
+
+            getSnapshotMethodOrNull = MethodSpec
+                    .methodBuilder("getSnapshot")
+                    .addModifiers(PRIVATE)
+                    .returns(snapshotType)
+                    .addStatement(CURRENT_SOURCES_DECLARATION)
+                    .addStatement("$T result = current.$N", snapshotType, snapshotFieldOrNull)
+                    .addStatement("return result != null ? result : $N(current)", loadSnapshotMethod)
+                    .build();
+
+            getMethod = MethodSpec
+                    .methodBuilder("get")
+                    .addJavadoc(getGetDescription())
+                    .addModifiers(PUBLIC)
+                    .returns(quantifierType)
+                    .addExceptions(getQuantifierException())
+                    .addCode(getSelectionCode(listener, quantifierType, CodeBlock.of("$N().stream()\n.filter($N)$L", getSnapshotMethodOrNull, dynamicFilterFieldOrNull, getQuantifierCode(null))))
+                    .build();
+
+            result.addMethod(getMethod);
+            result.addMethod(getSnapshotMethodOrNull);
+            result.addMethod(loadSnapshotMethod);
+            result.addMethod(newSnapshotMethod);
+        } else if (snapshotFieldOrNull != null) {
+            MethodSpec newSnapshotMethod = MethodSpec
+                    .methodBuilder(SNAPSHOT_FACTORY)
+                    .addModifiers(PRIVATE)
+                    .returns(quantifierType)
+                    .addExceptions(getQuantifierException())
+                    .addParameter(sourcesType, "current")
+                    .addCode(getSelectionCode(listener, quantifierType, lookupCode))
+                    .build();
+
+            MethodSpec loadSnapshotMethod = newLoadSnapshotMethod(snapshotFieldOrNull, newSnapshotMethod);
+
+            getMethod = MethodSpec
+                    .methodBuilder("get")
+                    .addJavadoc(getGetDescription())
+                    .addModifiers(PUBLIC)
+                    .returns(quantifierType)
+                    .addExceptions(getQuantifierException())
+                    .addStatement(CURRENT_SOURCES_DECLARATION)
+                    .addStatement("$T result = current.$N", quantifierType, snapshotFieldOrNull)
+                    .addStatement("return result != null ? result : $N(current)", loadSnapshotMethod)
+                    .build();
+
+            result.addMethod(getMethod);
+            result.addMethod(loadSnapshotMethod);
+            result.addMethod(newSnapshotMethod);
+            loadSnapshotMethodOrNull = loadSnapshotMethod;
+        } else {
+            getMethod = MethodSpec
+                    .methodBuilder("get")
+                    .addJavadoc(getGetDescription())
+                    .addModifiers(PUBLIC)
+                    .returns(quantifierType)
+                    .addExceptions(getQuantifierException())
+                    .addCode(getSelectionCode(listener, quantifierType, lookupCode))
+                    .build();
+
+            result.addMethod(getMethod);
+        }
+
+        if (definition.getQuantifier() == Quantifier.MULTIPLE) {
+            MethodSpec publicStreamMethod = newStreamMethod(getMethod, gatherFilteredCode, sortMethodOrNull);
+            result.addMethod(newGetTopMethod(quantifierType, getMethod, gatherFilteredCode, sortKeyTypeOrNull));
+            result.addMethod(publicStreamMethod);
+            result.addMethod(newIteratorMethod(publicStreamMethod));
+        }
 
         MethodSpec builderMethod = MethodSpec
                 .methodBuilder("builder")
@@ -243,12 +604,64 @@ class ServiceDefinitionGenerator {
                 .build();
 
         result.addMethod(newLoadMethod(quantifierType, getMethod));
-        if (!ids.isEmpty() && definition.getQuantifier() == Quantifier.MULTIPLE) {
-            result.addMethod(newGetByIdMethod(filterFieldOrNull));
+        if (hasLookupById()) {
+            if (indexFieldOrNull != null) {
+                MethodSpec newIndexMethod = newNewIndexMethod(indexFieldOrNull, loadSnapshotMethodOrNull);
+                MethodSpec loadIndexMethod = newLoadIndexMethod(indexFieldOrNull, newIndexMethod);
+                MethodSpec getIndexMethod = newGetIndexMethod(indexFieldOrNull, loadIndexMethod);
+                result.addMethod(newGetByIdMethod(getIndexMethod));
+                result.addMethod(newAsMapMethod(getIndexMethod));
+                result.addMethod(getIndexMethod);
+                result.addMethod(loadIndexMethod);
+                result.addMethod(newIndexMethod);
+            } else if (getSnapshotMethodOrNull != null) {
+                result.addMethod(newGetByIdMethod(CodeBlock.of("$N().stream()", getSnapshotMethodOrNull), dynamicFilterFieldOrNull, null));
+            } else if (hasKnownIds()) {
+                MethodSpec gatherByIdMethod = newGatherByIdMethod(byIdSource);
+                result.addMethod(newGetByIdMethod(CodeBlock.of("$N(id)", gatherByIdMethod), filterFieldOrNull, sortKeyTypeOrNull));
+                result.addMethod(gatherByIdMethod);
+                result.addMethod(newKnownIdCheckerMethod());
+                result.addMethod(newKnownIdReaderMethod());
+                result.addField(newKnownIdsField());
+            } else {
+                result.addMethod(newGetByIdMethod(CodeBlock.of("$L($L())", GATHER, SOURCES_GETTER), filterFieldOrNull, sortKeyTypeOrNull));
+            }
             result.addMethod(newLoadByIdMethod());
         }
         result.addMethod(builderMethod);
+        TypeSpec listenerTypeOrNull = hasListener()
+                ? newListenerType(quantifierType, batchTypeOrNull != null, filterFieldOrNull != null || dynamicFilterFieldOrNull != null, sortMethodOrNull != null, indexFieldOrNull != null)
+                : null;
+        if (listenerTypeOrNull != null) {
+            result.addType(listenerTypeOrNull);
+        }
+        result.addType(newSourcesType(batchTypeOrNull != null, snapshotFieldOrNull, indexFieldOrNull));
+        result.addType(newMemoType());
+        if (hasRefresh()) {
+            result.addType(newRefresherType(loaderName));
+        }
+        if (indexFieldOrNull != null) {
+            result.addType(newIndexType());
+        }
+        if (hasProviderHandles() && hasListener()) {
+            result.addType(newObservedProviderType());
+        }
+        if (hasFlightRecorder()) {
+            result.addType(newFlightRecorderType(listenerTypeOrNull));
+        }
+        if (hasDirectProviders()) {
+            result.addField(newDirectProvidersField());
+            result.addField(newDirectNamesField());
+            result.addMethod(newDirectMergerMethod());
+            result.addType(newDirectProviderType());
+        }
         result.addType(generateBuilder());
+        if (definition.isCached()) {
+            result.addType(generateShared(loaderName));
+        }
+        if (sortKeyTypeOrNull != null) {
+            result.addType(sortKeyTypeOrNull);
+        }
 
         return nested ? result.addModifiers(STATIC).build() : result.build();
     }
@@ -265,7 +678,9 @@ class ServiceDefinitionGenerator {
 
         FieldSpec streamerField = FieldSpec
                 .builder(functionOf(OBJECT, iterableOf(WILDCARD)), "streamer", PRIVATE)
-                .initializer("backend -> (($T) backend)", ServiceLoader.class)
+                .initializer(hasProviderHandles()
+                        ? CodeBlock.of("backend -> () -> (($T<?>) backend).stream().map(Object.class::cast).iterator()", ServiceLoader.class)
+                        : CodeBlock.of("backend -> (($T) backend)", ServiceLoader.class))
                 .build();
 
         FieldSpec reloaderField = FieldSpec
@@ -279,7 +694,7 @@ class ServiceDefinitionGenerator {
                         .builder()
                         .add("Configures a custom backend for loading and reloading providers.\n")
                         .add("@param factory a function that creates a backend instance from a service class, not null\n")
-                        .add("@param streamer a function that streams providers from the backend, not null\n")
+                        .add(getStreamerJavadoc())
                         .add("@param reloader a consumer that triggers a reload on the backend, not null\n")
                         .add("@return this builder instance\n")
                         .build())
@@ -301,7 +716,7 @@ class ServiceDefinitionGenerator {
                         .builder()
                         .add("Configures a custom backend for loading providers (without reload support).\n")
                         .add("@param factory a function that creates a backend instance from a service class, not null\n")
-                        .add("@param streamer a function that streams providers from the backend, not null\n")
+                        .add(getStreamerJavadoc())
                         .add("@return this builder instance\n")
                         .build())
                 .addModifiers(PUBLIC)
@@ -315,6 +730,107 @@ class ServiceDefinitionGenerator {
                 .addStatement("return this")
                 .build();
 
+        FieldSpec executorField = FieldSpec
+                .builder(Executor.class, EXECUTOR, PRIVATE)
+                .initializer("null")
+                .build();
+
+        MethodSpec executorMethod = MethodSpec
+                .methodBuilder(EXECUTOR)
+                .addJavadoc(CodeBlock
+                        .builder()
+                        .add("Configures an executor that instantiates and filters providers concurrently.\n")
+                        .add("<p>Results are merged in the order of the backend, before sorting.\n")
+                        .add(hasProviderHandles()
+                                ? CodeBlock.of("")
+                                : CodeBlock.of("Note that only filters and batch expansions are evaluated concurrently when the backend instantiates providers while iterating, such as $T.\n", ServiceLoader.class))
+                        .add("@param executor an executor, null for sequential loading\n")
+                        .add("@return this builder instance\n")
+                        .build())
+                .addModifiers(PUBLIC)
+                .returns(builderName)
+                .addParameter(Executor.class, EXECUTOR)
+                .addStatement("this.$N = $N", executorField, EXECUTOR)
+                .addStatement("return this")
+                .build();
+
+        MethodSpec virtualThreadsMethod = MethodSpec
+                .methodBuilder("virtualThreads")
+                .addJavadoc(CodeBlock
+                        .builder()
+                        .add("Configures virtual threads to instantiate and filter providers concurrently.\n")
+                        .add("<p>This is equivalent to {@code $N(Thread::startVirtualThread)}.\n", executorMethod)
+                        .add("@return this builder instance\n")
+                        .build())
+                .addModifiers(PUBLIC)
+                .returns(builderName)
+                .addStatement("return $N($T::startVirtualThread)", executorMethod, Thread.class)
+                .build();
+
+        FieldSpec listenerField = FieldSpec
+                .builder(ClassName.bestGuess(LISTENER), LISTENER_FIELD, PRIVATE)
+                .initializer("null")
+                .build();
+
+        MethodSpec listenerMethod = MethodSpec
+                .methodBuilder(LISTENER_FIELD)
+                .addJavadoc(CodeBlock
+                        .builder()
+                        .add("Configures a listener that receives the loading events, such as provider instantiations and filter rejections.\n")
+                        .add("<p>Nothing is measured if no listener is configured.\n")
+                        .add("@param listener a listener, null to disable events\n")
+                        .add("@return this builder instance\n")
+                        .build())
+                .addModifiers(PUBLIC)
+                .returns(builderName)
+                .addParameter(ClassName.bestGuess(LISTENER), LISTENER_FIELD)
+                .addStatement("this.$N = $N", listenerField, LISTENER_FIELD)
+                .addStatement("return this")
+                .build();
+
+        FieldSpec refreshAfterField = FieldSpec
+                .builder(Duration.class, "refreshAfter", PRIVATE)
+                .initializer("null")
+                .build();
+
+        MethodSpec refreshAfterMethod = MethodSpec
+                .methodBuilder("refreshAfter")
+                .addJavadoc(CodeBlock
+                        .builder()
+                        .add("Configures a staleness bound after which the content is reloaded in the background.\n")
+                        .add("<p>The first call after this duration triggers an asynchronous reload while the current content is still returned.\n")
+                        .add("This reload is coalesced with the other ones and its result is published once it is ready.\n")
+                        .add(hasListener()
+                                ? CodeBlock.of("If it fails, the current content is kept, the listener is notified and the next attempt occurs after the same duration.\n")
+                                : CodeBlock.of("If it fails, the current content is kept and the next attempt occurs after the same duration.\n"))
+                        .add(hasExecutor()
+                                ? CodeBlock.of("<p>The reload runs on the configured executor, if any, or on a daemon thread shared by the loaders of this type otherwise.\n")
+                                : CodeBlock.of("<p>The reload runs on a daemon thread shared by the loaders of this type.\n"))
+                        .add("@param refreshAfter a positive duration, null to disable background reloads\n")
+                        .add("@return this builder instance\n")
+                        .build())
+                .addModifiers(PUBLIC)
+                .returns(builderName)
+                .addParameter(Duration.class, "refreshAfter")
+                .addStatement("this.$N = refreshAfter", refreshAfterField)
+                .addStatement("return this")
+                .build();
+
+        MethodSpec backendCreator = MethodSpec
+                .methodBuilder("createBackend")
+                .addModifiers(PRIVATE)
+                .returns(OBJECT)
+                .addParameter(WILDCARD_CLASS, "type")
+                .addParameter(ClassName.bestGuess(LISTENER), LISTENER_FIELD)
+                .beginControlFlow("if ($L == null)", LISTENER_FIELD)
+                .addStatement("return $N.apply(type)", factoryField)
+                .endControlFlow()
+                .addStatement("long start = $T.nanoTime()", System.class)
+                .addStatement("$T result = $N.apply(type)", OBJECT, factoryField)
+                .addStatement("$L.onBackendCreated(type, $T.nanoTime() - start)", LISTENER_FIELD, System.class)
+                .addStatement("return result")
+                .build();
+
         MethodSpec.Builder buildMethod = MethodSpec
                 .methodBuilder("build")
                 .addJavadoc(CodeBlock
@@ -325,39 +841,323 @@ class ServiceDefinitionGenerator {
                 .addModifiers(PUBLIC)
                 .returns(loaderName);
 
+        if (hasFlightRecorder()) {
+            // the local variable shadows the field in the following statements
+            buildMethod.addStatement("$T $L = $L.wrap(this.$N)", ClassName.bestGuess(LISTENER), LISTENER_FIELD, FLIGHT_RECORDER, listenerField);
+        }
+
+        // the options of the builder are only passed if the definition enables them
+        List<CodeBlock> options = new ArrayList<>();
+        if (hasExecutor()) options.add(CodeBlock.of("$N", executorField));
+        if (hasListener()) options.add(CodeBlock.of("$N", listenerField));
+        if (hasRefresh()) options.add(CodeBlock.of("$N != null ? $N.toNanos() : 0", refreshAfterField, refreshAfterField));
+
+        CodeBlock.Builder newLoaderCode = CodeBlock
+                .builder()
+                .add("return new $T(", loaderName).add(NEW_LINE);
+        buildMethod.addStatement("$T providerBackend = $L", OBJECT, getBackendCreationCode(backendCreator, factoryField, definition.getServiceType()));
+        newLoaderCode.add("$L, () -> $N.accept(providerBackend)", getObservedSourceCode(getProviderSourceCode(streamerField), listenerField), reloaderField);
         if (batchTypeOrNull != null) {
-            buildMethod.addStatement("$T providerBackend = factory.apply($T.class)", OBJECT, definition.getServiceType());
-            buildMethod.addStatement("$T batchBackend = factory.apply($T.class)", OBJECT, batchTypeOrNull);
-            buildMethod.addStatement(
-                    CodeBlock
-                            .builder()
-                            .add("return new $T(", loaderName).add(NEW_LINE)
-                            .add("$N.apply(providerBackend), () -> $N.accept(providerBackend),", streamerField, reloaderField).add(NEW_LINE)
-                            .add("$N.apply(batchBackend), () -> $N.accept(batchBackend)", streamerField, reloaderField).add(NEW_LINE)
-                            .add(")")
-                            .build()
-            );
-        } else {
-            buildMethod.addStatement("$T providerBackend = factory.apply($T.class)", OBJECT, definition.getServiceType());
-            buildMethod.addStatement(
-                    CodeBlock
-                            .builder()
-                            .add("return new $T(", loaderName).add(NEW_LINE)
-                            .add("$N.apply(providerBackend), () -> $N.accept(providerBackend)", streamerField, reloaderField).add(NEW_LINE)
-                            .add(")")
-                            .build()
-            );
+            buildMethod.addStatement("$T batchBackend = $L", OBJECT, getBackendCreationCode(backendCreator, factoryField, batchTypeOrNull));
+            newLoaderCode.add(",").add(NEW_LINE)
+                    .add("$L, () -> $N.accept(batchBackend)", getObservedSourceCode(CodeBlock.of("$N.apply(batchBackend)", streamerField), listenerField), reloaderField);
+        }
+        if (!options.isEmpty()) {
+            newLoaderCode.add(",").add(NEW_LINE).add(CodeBlock.join(options, ", "));
         }
+        buildMethod.addStatement(newLoaderCode.add(NEW_LINE).add(")").build());
 
-        return TypeSpec
+        TypeSpec.Builder result = TypeSpec
                 .classBuilder(builderName)
                 .addModifiers(PUBLIC, STATIC, FINAL)
                 .addField(factoryField)
                 .addField(streamerField)
-                .addField(reloaderField)
-                .addMethod(backendMethod1)
-                .addMethod(backendMethod2)
-                .addMethod(buildMethod.build())
+                .addField(reloaderField);
+        if (hasExecutor()) result.addField(executorField);
+        if (hasListener()) result.addField(listenerField);
+        if (hasRefresh()) result.addField(refreshAfterField);
+        result.addMethod(backendMethod1)
+                .addMethod(backendMethod2);
+        if (hasExecutor()) result.addMethod(executorMethod);
+        // virtual threads require Java 21+ so the option is not generated for older releases
+        if (hasExecutor() && hasVirtualThreads()) result.addMethod(virtualThreadsMethod);
+        if (hasListener()) result.addMethod(listenerMethod);
+        if (hasRefresh()) result.addMethod(refreshAfterMethod);
+        result.addMethod(buildMethod.build());
+        if (hasListener()) result.addMethod(backendCreator).addMethod(newInstantiationObserverMethod());
+        return result.build();
+    }
+
+    private CodeBlock getBackendCreationCode(MethodSpec backendCreator, FieldSpec factoryField, TypeName type) {
+        return hasListener()
+                ? CodeBlock.of("$N($T.class, $L)", backendCreator, type, LISTENER_FIELD)
+                : CodeBlock.of("$N.apply($T.class)", factoryField, type);
+    }
+
+    private CodeBlock getObservedSourceCode(CodeBlock source, FieldSpec listenerField) {
+        return hasListener()
+                ? CodeBlock.of("$L($L, $N)", INSTANTIATION_OBSERVER, source, listenerField)
+                : source;
+    }
+
+    private MethodSpec newInstantiationObserverMethod() {
+        ClassName listenerType = ClassName.bestGuess(LISTENER);
+
+        // instantiation happens either when iterating the backend or when getting a provider handle
+        MethodSpec.Builder next = MethodSpec
+                .methodBuilder("next")
+                .addAnnotation(Override.class)
+                .addModifiers(PUBLIC)
+                .returns(OBJECT)
+                .addStatement("long start = $T.nanoTime()", System.class)
+                .addStatement("$T result = iterator.next()", OBJECT);
+        if (hasProviderHandles()) {
+            next.beginControlFlow("if (result instanceof $T)", PROVIDER_HANDLE)
+                    .addStatement("return new $L(($T<?>) result, $N)", OBSERVED_PROVIDER, PROVIDER_HANDLE, LISTENER_FIELD)
+                    .endControlFlow();
+        }
+        next.addStatement("$N.onProviderInstantiated(result.getClass().getName(), $T.nanoTime() - start)", LISTENER_FIELD, System.class)
+                .addStatement("return result");
+
+        TypeSpec iterator = TypeSpec
+                .anonymousClassBuilder("")
+                .addSuperinterface(TypeNames.typeOf(Iterator.class, OBJECT))
+                .addMethod(MethodSpec
+                        .methodBuilder("hasNext")
+                        .addAnnotation(Override.class)
+                        .addModifiers(PUBLIC)
+                        .returns(boolean.class)
+                        .addStatement("return iterator.hasNext()")
+                        .build())
+                .addMethod(next.build())
+                .build();
+
+        return MethodSpec
+                .methodBuilder(INSTANTIATION_OBSERVER)
+                .addModifiers(PRIVATE, STATIC)
+                .returns(iterableOf(WILDCARD))
+                .addParameter(iterableOf(WILDCARD), "source")
+                .addParameter(listenerType, LISTENER_FIELD)
+                .beginControlFlow("if ($N == null)", LISTENER_FIELD)
+                .addStatement("return source")
+                .endControlFlow()
+                .addCode(CodeBlock
+                        .builder()
+                        .add("return () -> {\n").indent()
+                        .addStatement("$T<?> iterator = source.iterator()", Iterator.class)
+                        .addStatement("return $L", iterator)
+                        .unindent().add("};\n")
+                        .build())
+                .build();
+    }
+
+    private CodeBlock getProviderSourceCode(FieldSpec streamerField) {
+        return hasDirectProviders()
+                ? CodeBlock.of("$L($N.apply(providerBackend))", DIRECT_MERGER, streamerField)
+                : CodeBlock.of("$N.apply(providerBackend)", streamerField);
+    }
+
+    private FieldSpec newDirectProvidersField() {
+        ClassName serviceType = definition.getServiceType();
+        TypeName elementType = ClassName.bestGuess(DIRECT_PROVIDER);
+
+        CodeBlock.Builder elements = CodeBlock.builder();
+        for (DirectProvider direct : definition.getDirectProviders()) {
+            if (elements.isEmpty()) {
+                elements.add(NEW_LINE);
+            } else {
+                elements.add(",").add(NEW_LINE);
+            }
+            elements.add(CodeBlock.of("new $L($T.class, $S, $L)", DIRECT_PROVIDER, direct.isDelegated() ? serviceType : TypeName.get(direct.getType()), direct.getRegisteredName(), getDirectFactoryCode(direct)));
+        }
+
+        return FieldSpec
+                .builder(TypeNames.typeOf(List.class, elementType), DIRECT_PROVIDERS, PRIVATE, STATIC, FINAL)
+                .initializer("$T.asList($>$>$L$<$<)", Arrays.class, elements.build())
+                .build();
+    }
+
+    private CodeBlock getDirectFactoryCode(DirectProvider direct) {
+        Instantiator instantiator = direct.getInstantiator();
+        switch (instantiator.getKind()) {
+            case CONSTRUCTOR:
+                return CodeBlock.of("$T::new", direct.getType());
+            case STATIC_METHOD:
+                return CodeBlock.of("$T::$L", direct.getType(), instantiator.getElement().getSimpleName());
+            case ENUM_FIELD:
+            case STATIC_FIELD:
+                return CodeBlock.of("() -> $T.$L", direct.getType(), instantiator.getElement().getSimpleName());
+            default:
+                throw new Unreachable();
+        }
+    }
+
+    private FieldSpec newDirectNamesField() {
+        String names = definition.getDirectProviders()
+                .stream()
+                .map(direct -> CodeBlock.of("$S", direct.getRegisteredName()).toString())
+                .collect(Collectors.joining(", "));
+
+        return FieldSpec
+                .builder(TypeNames.typeOf(Set.class, ClassName.get(String.class)), DIRECT_NAMES, PRIVATE, STATIC, FINAL)
+                .initializer("new $T<>($T.asList($L))", HashSet.class, Arrays.class, names)
+                .build();
+    }
+
+    private MethodSpec newDirectMergerMethod() {
+        // providers of the backend that are already instantiated directly are skipped by class name before instantiation
+        // the type of a handle is the provider class since the factories that return another type are not direct
+        CodeBlock directStream = CodeBlock.of("$L.stream()", DIRECT_PROVIDERS);
+        CodeBlock typeName = CodeBlock.of("(o instanceof $T ? (($T<?>) o).type() : o.getClass()).getName()", PROVIDER_HANDLE, PROVIDER_HANDLE);
+
+        return MethodSpec
+                .methodBuilder(DIRECT_MERGER)
+                .addModifiers(PRIVATE, STATIC)
+                .returns(iterableOf(WILDCARD))
+                .addParameter(iterableOf(WILDCARD), "backend")
+                .addStatement("return () -> $T.<$T>concat($L, $T.stream(backend.spliterator(), false).filter(o -> !$L.contains($L))).iterator()",
+                        Stream.class, OBJECT, directStream, StreamSupport.class, DIRECT_NAMES, typeName)
+                .build();
+    }
+
+    private TypeSpec newDirectProviderType() {
+        ClassName serviceType = definition.getServiceType();
+        TypeName classType = TypeNames.typeOf(Class.class, WildcardTypeName.subtypeOf(serviceType));
+        TypeName factoryType = TypeNames.typeOf(Supplier.class, WildcardTypeName.subtypeOf(serviceType));
+
+        return TypeSpec
+                .classBuilder(DIRECT_PROVIDER)
+                .addModifiers(PRIVATE, STATIC, FINAL)
+                .addSuperinterface(ParameterizedTypeName.get(PROVIDER_HANDLE, serviceType))
+                .addField(classType, "type", PRIVATE, FINAL)
+                .addField(String.class, "name", PRIVATE, FINAL)
+                .addField(factoryType, "factory", PRIVATE, FINAL)
+                .addMethod(MethodSpec
+                        .constructorBuilder()
+                        .addParameter(classType, "type")
+                        .addParameter(String.class, "name")
+                        .addParameter(factoryType, "factory")
+                        .addStatement("this.type = type")
+                        .addStatement("this.name = name")
+                        .addStatement("this.factory = factory")
+                        .build())
+                .addMethod(MethodSpec
+                        .methodBuilder("type")
+                        .addAnnotation(Override.class)
+                        .addModifiers(PUBLIC)
+                        .returns(classType)
+                        .addStatement("return type")
+                        .build())
+                .addMethod(MethodSpec
+                        .methodBuilder("get")
+                        .addAnnotation(Override.class)
+                        .addModifiers(PUBLIC)
+                        .returns(serviceType)
+                        .addStatement("return factory.get()")
+                        .build())
+                .build();
+    }
+
+    private TypeSpec generateShared(ClassName loaderName) {
+        return TypeSpec
+                .classBuilder(SHARED)
+                .addModifiers(PRIVATE, STATIC, FINAL)
+                .addField(FieldSpec
+                        .builder(loaderName, "INSTANCE", PRIVATE, STATIC, FINAL)
+                        .initializer("builder().build()")
+                        .build())
+                .build();
+    }
+
+    private CodeBlock getStreamerJavadoc() {
+        return hasProviderHandles()
+                ? CodeBlock.of("@param streamer a function that streams providers or $T handles from the backend, not null\n", PROVIDER_HANDLE)
+                : CodeBlock.of("@param streamer a function that streams providers from the backend, not null\n");
+    }
+
+    private CodeBlock getSourceToStreamCode(CodeBlock source, TypeName type) {
+        return hasProviderHandles()
+                ? handlesToStream(source, type, TYPE_CHECKER, CURRENT_INSTANTIATOR)
+                : collectionToStream(source, type);
+    }
+
+    private CodeBlock getSourceToStreamByIdCode(CodeBlock source, TypeName type) {
+        return CodeBlock.of("$L.filter(o -> $L(o, id)).map(o -> $T.class.cast($L(o)))", handlesToCheckedStream(source, type, TYPE_CHECKER), KNOWN_ID_CHECKER, type, CURRENT_INSTANTIATOR);
+    }
+
+    private MethodSpec newGatherByIdMethod(CodeBlock byIdSource) {
+        return MethodSpec
+                .methodBuilder("gatherById")
+                .addModifiers(PRIVATE)
+                .returns(TypeNames.typeOf(Stream.class, definition.getServiceType()))
+                .addParameter(CharSequence.class, "id")
+                .addStatement(CURRENT_SOURCES_DECLARATION)
+                .addStatement("return $L", byIdSource)
+                .build();
+    }
+
+    private MethodSpec newKnownIdCheckerMethod() {
+        // providers whose constant ID differs are skipped without being instantiated
+        return MethodSpec
+                .methodBuilder(KNOWN_ID_CHECKER)
+                .addModifiers(PRIVATE, STATIC)
+                .returns(boolean.class)
+                .addParameter(OBJECT, "o")
+                .addParameter(CharSequence.class, "id")
+                .beginControlFlow("if (o instanceof $T)", PROVIDER_HANDLE)
+                .addStatement("$T knownId = $L.get((($T<?>) o).type())", String.class, KNOWN_IDS, PROVIDER_HANDLE)
+                .addStatement("return knownId == null || knownId.equals(id)")
+                .endControlFlow()
+                .addStatement("return true")
+                .build();
+    }
+
+    private MethodSpec newKnownIdReaderMethod() {
+        return MethodSpec
+                .methodBuilder(KNOWN_ID_READER)
+                .addModifiers(PRIVATE, STATIC)
+                .returns(String.class)
+                .addParameter(WILDCARD_CLASS, "type")
+                .addStatement("$T classLoader = type.getClassLoader()", ClassLoader.class)
+                .beginControlFlow("if (classLoader == null)")
+                .addStatement("return null")
+                .endControlFlow()
+                .beginControlFlow("try")
+                .addStatement("$T<$T> resources = classLoader.getResources($S + $T.class.getName())", Enumeration.class, URL.class, ProviderIdFile.FOLDER, definition.getServiceType())
+                .beginControlFlow("while (resources.hasMoreElements())")
+                .beginControlFlow("try ($T stream = resources.nextElement().openStream())", InputStream.class)
+                .addStatement("$T properties = new $T()", Properties.class, Properties.class)
+                .addStatement("properties.load(stream)")
+                .addStatement("$T result = properties.getProperty(type.getName())", String.class)
+                .beginControlFlow("if (result != null)")
+                .addStatement("return result")
+                .endControlFlow()
+                .endControlFlow()
+                .endControlFlow()
+                .nextControlFlow("catch ($T ex)", IOException.class)
+                .addComment("unreadable metadata only disables the optimization")
+                .endControlFlow()
+                .addStatement("return null")
+                .build();
+    }
+
+    private FieldSpec newKnownIdsField() {
+        TypeSpec classValue = TypeSpec
+                .anonymousClassBuilder("")
+                .addSuperinterface(TypeNames.typeOf(ClassValue.class, ClassName.get(String.class)))
+                .addMethod(MethodSpec
+                        .methodBuilder("computeValue")
+                        .addAnnotation(Override.class)
+                        .addModifiers(PROTECTED)
+                        .returns(String.class)
+                        .addParameter(WILDCARD_CLASS, "type")
+                        .addStatement("return $L(type)", KNOWN_ID_READER)
+                        .build())
+                .build();
+
+        return FieldSpec
+                .builder(TypeNames.typeOf(ClassValue.class, ClassName.get(String.class)), KNOWN_IDS, PRIVATE, STATIC, FINAL)
+                .initializer("$L", classValue)
                 .build();
     }
 
@@ -372,6 +1172,7 @@ class ServiceDefinitionGenerator {
                 .add("<li>Preprocessing: $L</li>\n", getPreprocessingJavadoc())
                 .add("<li>Name: $L</li>\n", definition.getLoaderName().isEmpty() ? "null" : definition.getLoaderName())
                 .add("<li>Batch type: $L</li>\n", definition.getBatch().map(b -> b.getType().toString()).orElse("null"))
+                .add("<li>Cached: $L</li>\n", definition.isCached())
                 .add("</ul>\n")
                 .build();
     }
@@ -384,17 +1185,890 @@ class ServiceDefinitionGenerator {
         return "null";
     }
 
-    private CodeBlock getPreprocessingCode(
-            String gatherMethod,
-            FieldSpec filterFieldOrNull,
-            FieldSpec sorterFieldOrNull
-    ) {
-        CodeBlock.Builder result = CodeBlock.builder();
-        result.add("$L()", gatherMethod);
-        if (filterFieldOrNull != null) result.add(NEW_LINE).add(".filter($L)", filterFieldOrNull.name);
-        if (sorterFieldOrNull != null) result.add(NEW_LINE).add(".sorted($L)", sorterFieldOrNull.name);
-        return result.build();
-    }
+    private MethodSpec newGatherFilteredMethod(MethodSpec gatherMethod, List<CodeBlock> concurrentSources, FieldSpec executor, FieldSpec filterFieldOrNull) {
+        ClassName serviceType = definition.getServiceType();
+        TypeName futuresType = TypeNames.typeOf(List.class, TypeNames.typeOf(CompletableFuture.class, TypeNames.typeOf(List.class, serviceType)));
+
+        CodeBlock filterCode = filterFieldOrNull != null
+                ? CodeBlock.of("$N", filterFieldOrNull)
+                : CodeBlock.of("o -> true");
+
+        MethodSpec.Builder result = MethodSpec
+                .methodBuilder("gatherFiltered")
+                .addModifiers(PRIVATE)
+                .returns(TypeNames.typeOf(Stream.class, serviceType))
+                .addParameter(ClassName.bestGuess(SOURCES), "current");
+
+        if (hasExecutor()) {
+            result.beginControlFlow("if ($N != null)", executor);
+
+            // all the tasks are submitted before joining any of them
+            for (int i = 0; i < concurrentSources.size(); i++) {
+                CodeBlock submitCode = CodeBlock.of("$N($L, $L, $N)", CONCURRENT_SUBMITTER, concurrentSources.get(i), filterCode, executor);
+                if (i == 0) {
+                    result.addStatement("$T futures = $L", futuresType, submitCode);
+                } else {
+                    result.addStatement("futures.addAll($L)", submitCode);
+                }
+            }
+
+            result.addStatement("return $N(futures)", CONCURRENT_JOINER)
+                    .endControlFlow();
+        }
+
+        CodeBlock.Builder sequentialCode = CodeBlock.builder();
+        sequentialCode.add("return $N(current)", gatherMethod);
+        if (filterFieldOrNull != null) sequentialCode.add(NEW_LINE).add(".filter($N)", filterFieldOrNull);
+
+        return result
+                .addStatement(sequentialCode.build())
+                .build();
+    }
+
+    private CodeBlock getConcurrentSourceCode(CodeBlock source, TypeName type, CodeBlock expansion) {
+        return hasProviderHandles()
+                ? CodeBlock.of("$L, item -> $T.of($T.class.cast($L(item)))$L", handlesToCheckedStream(source, type, TYPE_CHECKER), Stream.class, type, CURRENT_INSTANTIATOR, expansion)
+                : CodeBlock.of("$L, item -> $T.of($T.class.cast(item))$L", collectionToCheckedStream(source, type), Stream.class, type, expansion);
+    }
+
+    private MethodSpec getSortMethodOrNull(TypeSpec sortKeyTypeOrNull, FieldSpec listener) {
+        if (sortKeyTypeOrNull == null || (definition.getQuantifier() != Quantifier.MULTIPLE && !hasDynamicFilters())) {
+            return null;
+        }
+
+        ClassName serviceType = definition.getServiceType();
+        TypeName listType = TypeNames.typeOf(List.class, serviceType);
+
+        // decorate-sort-undecorate: sort keys are computed once per provider
+        CodeBlock sortingCode = CodeBlock.of("\n.map($N::new)\n.sorted()\n.map(o -> o.$L)", sortKeyTypeOrNull, SORT_KEY_PROVIDER);
+
+        MethodSpec.Builder result = MethodSpec
+                .methodBuilder(SORTER)
+                .addModifiers(PRIVATE)
+                .returns(TypeNames.typeOf(Stream.class, serviceType))
+                .addParameter(TypeNames.typeOf(Stream.class, serviceType), "providers");
+
+        if (!hasListener()) {
+            return result
+                    .addStatement("return providers$L", sortingCode)
+                    .build();
+        }
+
+        return result
+                .beginControlFlow("if ($N == null)", listener)
+                .addStatement("return providers$L", sortingCode)
+                .endControlFlow()
+                .addComment("providers are gathered first so that only sorting is measured")
+                .addStatement("$T list = providers.collect($T.toList())", listType, Collectors.class)
+                .addStatement("long start = $T.nanoTime()", System.class)
+                .addStatement("$T result = list.stream()$L\n.collect($T.toList())", listType, sortingCode, Collectors.class)
+                .addStatement("$N.onSorted(result.size(), $T.nanoTime() - start)", listener, System.class)
+                .addStatement("return result.stream()")
+                .build();
+    }
+
+    private static CodeBlock getSortedCode(CodeBlock providers, MethodSpec sortMethodOrNull) {
+        return sortMethodOrNull != null
+                ? CodeBlock.of("$N($L)", sortMethodOrNull, providers)
+                : providers;
+    }
+
+    private CodeBlock getSelectionCode(FieldSpec listener, TypeName quantifierType, CodeBlock selection) {
+        if (!hasListener()) {
+            return CodeBlock.builder().addStatement("return $L", selection).build();
+        }
+        return CodeBlock
+                .builder()
+                .addStatement("$T result = $L", quantifierType, selection)
+                .beginControlFlow("if ($N != null)", listener)
+                .addStatement("$N.onSelected(result)", listener)
+                .endControlFlow()
+                .addStatement("return result")
+                .build();
+    }
+
+    private CodeBlock getFilterInitCode(FieldSpec filterField, FieldSpec listener, FieldSpec idPatternFieldOrNull, List<LoadFilter> selection) {
+        // filters are observed only if a listener is configured
+        return hasListener()
+                ? CodeBlock.of("this.$N = $N != null\n? $L\n: $L", filterField, listener,
+                getFiltersCode(idPatternFieldOrNull, selection, true), getFiltersCode(idPatternFieldOrNull, selection, false))
+                : CodeBlock.of("this.$N = $L", filterField, getFiltersCode(idPatternFieldOrNull, selection, false));
+    }
+
+    private MethodSpec newFilterObserverMethod() {
+        ClassName serviceType = definition.getServiceType();
+        TypeName predicateType = TypeNames.typeOf(Predicate.class, serviceType);
+
+        return MethodSpec
+                .methodBuilder(FILTER_OBSERVER)
+                .addModifiers(PRIVATE, STATIC)
+                .returns(predicateType)
+                .addParameter(predicateType, "filter")
+                .addParameter(String.class, "name")
+                .addParameter(ClassName.bestGuess(LISTENER), LISTENER_FIELD)
+                .addCode(CodeBlock
+                        .builder()
+                        .add("return o -> {\n").indent()
+                        .beginControlFlow("if (filter.test(o))")
+                        .addStatement("return true")
+                        .endControlFlow()
+                        .addStatement("$N.onFilterRejected(o, name)", LISTENER_FIELD)
+                        .addStatement("return false")
+                        .unindent().add("};\n")
+                        .build())
+                .build();
+    }
+
+    private MethodSpec newBatchExpanderMethod(ClassName batchType, BatchDefinition batchDefinition, FieldSpec listener) {
+        ClassName serviceType = definition.getServiceType();
+        TypeName streamType = TypeNames.typeOf(Stream.class, serviceType);
+        CodeBlock expansionCode = getBatchExpansionCode(batchDefinition);
+
+        MethodSpec.Builder result = MethodSpec
+                .methodBuilder(BATCH_EXPANDER)
+                .addModifiers(PRIVATE)
+                .returns(streamType)
+                .addParameter(batchType, "o");
+
+        if (!hasListener()) {
+            return result
+                    .addStatement("return $L", expansionCode)
+                    .build();
+        }
+
+        return result
+                .beginControlFlow("if ($N == null)", listener)
+                .addStatement("return $L", expansionCode)
+                .endControlFlow()
+                .addStatement("long start = $T.nanoTime()", System.class)
+                .addStatement("$T result = $L", streamType, expansionCode)
+                .addStatement("$N.onBatchExpanded(o.getClass().getName(), $T.nanoTime() - start)", listener, System.class)
+                .addStatement("return result")
+                .build();
+    }
+
+    private MethodSpec newCachedBatchExpanderMethod(ClassName batchType) {
+        ClassName serviceType = definition.getServiceType();
+
+        // the memo is created under the lock of the map but the batch method is only called on first access
+        return MethodSpec
+                .methodBuilder(BATCH_CACHED_EXPANDER)
+                .addModifiers(PRIVATE)
+                .returns(TypeNames.typeOf(Stream.class, serviceType))
+                .addParameter(ClassName.bestGuess(SOURCES), "current")
+                .addParameter(batchType, "o")
+                .addStatement("return current.$L.computeIfAbsent(o, key -> new $L(($T) () -> $L(o).iterator())).stream().map($T.class::cast)", SOURCES_EXPANSIONS, MEMO, iterableOf(serviceType), BATCH_EXPANDER, serviceType)
+                .build();
+    }
+
+    private MethodSpec newBatchFlattenerMethod(ClassName batchType) {
+        ClassName serviceType = definition.getServiceType();
+        TypeName iteratorType = TypeNames.typeOf(Iterator.class, serviceType);
+
+        TypeSpec iterator = TypeSpec
+                .anonymousClassBuilder("")
+                .addSuperinterface(iteratorType)
+                .addField(FieldSpec
+                        .builder(iteratorType, "inner", PRIVATE)
+                        .initializer("$T.emptyIterator()", Collections.class)
+                        .build())
+                .addMethod(MethodSpec
+                        .methodBuilder("hasNext")
+                        .addAnnotation(Override.class)
+                        .addModifiers(PUBLIC)
+                        .returns(boolean.class)
+                        .beginControlFlow("while (!inner.hasNext())")
+                        .beginControlFlow("if (!outer.hasNext())")
+                        .addStatement("return false")
+                        .endControlFlow()
+                        .addStatement("inner = expander.apply(outer.next()).iterator()")
+                        .endControlFlow()
+                        .addStatement("return true")
+                        .build())
+                .addMethod(MethodSpec
+                        .methodBuilder("next")
+                        .addAnnotation(Override.class)
+                        .addModifiers(PUBLIC)
+                        .returns(serviceType)
+                        .beginControlFlow("if (!hasNext())")
+                        .addStatement("throw new $T()", NoSuchElementException.class)
+                        .endControlFlow()
+                        .addStatement("return inner.next()")
+                        .build())
+                .build();
+
+        // batches are pulled one element at a time so that short-circuiting operations stop as soon as possible;
+        // Stream#flatMap cannot be used here since its iterator and spliterator buffer the whole inner stream
+        return MethodSpec
+                .methodBuilder(BATCH_FLATTENER)
+                .addModifiers(PRIVATE, STATIC)
+                .returns(TypeNames.typeOf(Stream.class, serviceType))
+                .addParameter(TypeNames.typeOf(Stream.class, batchType), "batches")
+                .addParameter(functionOf(batchType, TypeNames.typeOf(Stream.class, serviceType)), "expander")
+                .addStatement("$T<$T> outer = batches.iterator()", Iterator.class, batchType)
+                .addStatement("$T result = $L", iteratorType, iterator)
+                .addStatement("return $T.stream($T.spliteratorUnknownSize(result, $T.ORDERED), false)", StreamSupport.class, Spliterators.class, Spliterator.class)
+                .build();
+    }
+
+    private TypeSpec newListenerType(TypeName quantifierType, boolean batch, boolean filtered, boolean sorted, boolean indexed) {
+        ClassName serviceType = definition.getServiceType();
+
+        TypeSpec.Builder result = TypeSpec
+                .interfaceBuilder(LISTENER)
+                .addJavadoc(CodeBlock
+                        .builder()
+                        .add("Receives the events of a loader in order to find out where loading time goes.\n")
+                        .add("<p>All the methods do nothing by default.\n")
+                        .add(hasExecutor()
+                                ? CodeBlock.of("Note that they may be called concurrently if an executor is configured.\n")
+                                : CodeBlock.of(""))
+                        .build())
+                .addModifiers(PUBLIC)
+                .addMethod(newListenerMethod("onBackendCreated", CodeBlock
+                        .builder()
+                        .add("Called when a backend has been created.\n")
+                        .add("@param type the type of the loaded providers\n")
+                        .add("@param nanos the duration in nanoseconds\n")
+                        .build())
+                        .addParameter(WILDCARD_CLASS, "type")
+                        .addParameter(long.class, "nanos")
+                        .build())
+                .addMethod(newListenerMethod("onProviderInstantiated", CodeBlock
+                        .builder()
+                        .add("Called when a provider has been instantiated.\n")
+                        .add("<p>The duration includes class loading if it occurs at that time.\n")
+                        .add("@param className the name of the provider class\n")
+                        .add("@param nanos the duration in nanoseconds\n")
+                        .build())
+                        .addParameter(String.class, "className")
+                        .addParameter(long.class, "nanos")
+                        .build());
+
+        if (batch) {
+            result.addMethod(newListenerMethod("onBatchExpanded", CodeBlock
+                    .builder()
+                    .add("Called when a batch provider has returned its providers.\n")
+                    .add("@param className the name of the batch provider class\n")
+                    .add("@param nanos the duration in nanoseconds\n")
+                    .build())
+                    .addParameter(String.class, "className")
+                    .addParameter(long.class, "nanos")
+                    .build());
+        }
+
+        if (filtered) {
+            result.addMethod(newListenerMethod("onFilterRejected", CodeBlock
+                    .builder()
+                    .add("Called when a provider has been rejected by a filter.\n")
+                    .add("@param provider the rejected provider\n")
+                    .add("@param filterName the name of the filter method, or {@code ID_PATTERN} for the ID pattern\n")
+                    .build())
+                    .addParameter(serviceType, "provider")
+                    .addParameter(String.class, "filterName")
+                    .build());
+        }
+
+        if (sorted) {
+            result.addMethod(newListenerMethod("onSorted", CodeBlock
+                    .builder()
+                    .add("Called when providers have been sorted.\n")
+                    .add("@param count the number of sorted providers\n")
+                    .add("@param nanos the duration in nanoseconds\n")
+                    .build())
+                    .addParameter(int.class, "count")
+                    .addParameter(long.class, "nanos")
+                    .build());
+        }
+
+        result.addMethod(newListenerMethod("onSelected", CodeBlock
+                .builder()
+                .add("Called when the result of {@code get()} has been computed.\n")
+                .add("@param result the selected providers\n")
+                .build())
+                .addParameter(quantifierType, "result")
+                .build());
+
+        if (hasLookupById()) {
+            result.addMethod(newListenerMethod("onSelectedById", CodeBlock
+                    .builder()
+                    .add("Called when the result of {@code getById(id)} has been computed.\n")
+                    .add("@param id the requested ID\n")
+                    .add("@param result the selected provider\n")
+                    .add("@param nanos the duration in nanoseconds\n")
+                    .build())
+                    .addParameter(CharSequence.class, "id")
+                    .addParameter(TypeNames.typeOf(Optional.class, serviceType), "result")
+                    .addParameter(long.class, "nanos")
+                    .build());
+        }
+
+        if (indexed) {
+            result.addMethod(newListenerMethod("onDuplicateId", CodeBlock
+                    .builder()
+                    .add("Called when several providers share the same ID while building the index.\n")
+                    .add("@param id the shared ID\n")
+                    .add("@param kept the provider that is kept in the index\n")
+                    .add("@param ignored the provider that is ignored\n")
+                    .build())
+                    .addParameter(String.class, "id")
+                    .addParameter(serviceType, "kept")
+                    .addParameter(serviceType, "ignored")
+                    .build());
+        }
+
+        result.addMethod(newListenerMethod("onReloaded", CodeBlock
+                .builder()
+                .add("Called when the content has been reloaded.\n")
+                .add("<p>Providers are compared by class name, or by delegate name for fields and enum constants: the ones that are still available may be reused.\n")
+                .add("Only the providers that were fetched before the reload are compared so that none is instantiated for this event.\n")
+                .add("@param added the names of the provider classes that were not fetched before\n")
+                .add("@param removed the names of the provider classes that are no longer available\n")
+                .add("@param nanos the duration in nanoseconds\n")
+                .build())
+                .addParameter(TypeNames.typeOf(Set.class, ClassName.get(String.class)), "added")
+                .addParameter(TypeNames.typeOf(Set.class, ClassName.get(String.class)), "removed")
+                .addParameter(long.class, "nanos")
+                .build());
+
+        if (hasRefresh()) {
+            result.addMethod(newListenerMethod("onReloadFailed", CodeBlock
+                    .builder()
+                    .add("Called when a background reload has failed.\n")
+                    .add("<p>The current content is kept and the next attempt occurs after the refresh duration.\n")
+                    .add("@param error the cause of the failure\n")
+                    .build())
+                    .addParameter(Throwable.class, "error")
+                    .build());
+        }
+
+        return result.build();
+    }
+
+    private static MethodSpec.Builder newListenerMethod(String name, CodeBlock javadoc) {
+        return MethodSpec
+                .methodBuilder(name)
+                .addJavadoc(javadoc)
+                .addModifiers(PUBLIC, DEFAULT);
+    }
+
+    private TypeSpec newFlightRecorderType(TypeSpec listenerType) {
+        ClassName listenerName = ClassName.bestGuess(LISTENER);
+        ClassName recorderName = ClassName.bestGuess(FLIGHT_RECORDER);
+
+        TypeSpec.Builder result = TypeSpec
+                .classBuilder(recorderName)
+                .addJavadoc(CodeBlock
+                        .builder()
+                        .add("Emits Java Flight Recorder events and forwards them to an optional listener.\n")
+                        .add("<p>Nothing is emitted if the {@code jdk.jfr} module is missing or not readable by this loader.\n")
+                        .build())
+                .addModifiers(PRIVATE, STATIC, FINAL)
+                .addSuperinterface(listenerName)
+                .addField(FieldSpec
+                        .builder(boolean.class, "AVAILABLE", PRIVATE, STATIC, FINAL)
+                        .initializer("$T.boot().findModule($S).filter($T.class.getModule()::canRead).isPresent()", ClassName.get("java.lang", "ModuleLayer"), "jdk.jfr", recorderName)
+                        .build())
+                .addField(listenerName, "delegate", PRIVATE, FINAL)
+                .addMethod(MethodSpec
+                        .constructorBuilder()
+                        .addModifiers(PRIVATE)
+                        .addParameter(listenerName, "delegate")
+                        .addStatement("this.delegate = delegate")
+                        .build())
+                .addMethod(MethodSpec
+                        .methodBuilder("wrap")
+                        .addModifiers(STATIC)
+                        .returns(listenerName)
+                        .addParameter(listenerName, "delegate")
+                        .addStatement("return AVAILABLE ? new $T(delegate) : delegate", recorderName)
+                        .build());
+
+        for (MethodSpec method : listenerType.methodSpecs) {
+            MethodSpec.Builder override = MethodSpec
+                    .methodBuilder(method.name)
+                    .addAnnotation(Override.class)
+                    .addModifiers(PUBLIC)
+                    .addParameters(method.parameters);
+            TypeSpec eventOrNull = newFlightEventTypeOrNull(method.name);
+            if (eventOrNull != null) {
+                result.addType(eventOrNull);
+                override.addStatement("$N event = new $N()", eventOrNull, eventOrNull)
+                        .beginControlFlow("if (event.shouldCommit())")
+                        .addStatement("event.serviceType = $T.class", definition.getServiceType())
+                        .addCode(getFlightEventValuesCode(method.name))
+                        .addStatement("event.commit()")
+                        .endControlFlow();
+            }
+            override.beginControlFlow("if (delegate != null)")
+                    .addStatement("delegate.$L($L)", method.name, method.parameters.stream().map(parameter -> parameter.name).collect(Collectors.joining(", ")))
+                    .endControlFlow();
+            result.addMethod(override.build());
+        }
+
+        return result.build();
+    }
+
+    private static TypeSpec newFlightEventTypeOrNull(String listenerMethod) {
+        switch (listenerMethod) {
+            case "onBackendCreated":
+                return newFlightEventType("BackendCreation", "Backend Creation", "Creation of the backend of a loader, such as ServiceLoader#load",
+                        newFlightEventField(WILDCARD_CLASS, "providerType", "Provider Type"),
+                        newElapsedTimeField());
+            case "onProviderInstantiated":
+                return newFlightEventType("ProviderInstantiation", "Provider Instantiation", "Instantiation of a provider, including class loading",
+                        newFlightEventField(ClassName.get(String.class), "providerClass", "Provider Class"),
+                        newElapsedTimeField());
+            case "onBatchExpanded":
+                return newFlightEventType("BatchExpansion", "Batch Expansion", "Call to the batch method of a batch provider",
+                        newFlightEventField(ClassName.get(String.class), "batchClass", "Batch Class"),
+                        newElapsedTimeField());
+            case "onFilterRejected":
+                return newFlightEventType("ProviderRejection", "Provider Rejection", "Rejection of a provider by a filter",
+                        newFlightEventField(ClassName.get(String.class), "providerClass", "Provider Class"),
+                        newFlightEventField(ClassName.get(String.class), "filter", "Filter"));
+            case "onSorted":
+                return newFlightEventType("ProviderSort", "Provider Sort", "Sorting of the providers of a loader",
+                        newFlightEventField(TypeName.INT, "count", "Count"),
+                        newElapsedTimeField());
+            case "onSelectedById":
+                return newFlightEventType("ProviderLookup", "Provider Lookup", "Lookup of a provider by ID",
+                        newFlightEventField(ClassName.get(String.class), "id", "ID"),
+                        newFlightEventField(ClassName.get(String.class), "providerClass", "Provider Class"),
+                        newElapsedTimeField());
+            case "onReloaded":
+                return newFlightEventType("Reload", "Reload", "Reload of the providers of a loader",
+                        newFlightEventField(TypeName.INT, "addedCount", "Added Count"),
+                        newFlightEventField(TypeName.INT, "removedCount", "Removed Count"),
+                        newElapsedTimeField());
+            default:
+                return null;
+        }
+    }
+
+    private static CodeBlock getFlightEventValuesCode(String listenerMethod) {
+        CodeBlock.Builder result = CodeBlock.builder();
+        switch (listenerMethod) {
+            case "onBackendCreated":
+                result.addStatement("event.providerType = type");
+                break;
+            case "onProviderInstantiated":
+                result.addStatement("event.providerClass = className");
+                break;
+            case "onBatchExpanded":
+                result.addStatement("event.batchClass = className");
+                break;
+            case "onFilterRejected":
+                result.addStatement("event.providerClass = provider.getClass().getName()");
+                result.addStatement("event.filter = filterName");
+                break;
+            case "onSorted":
+                result.addStatement("event.count = count");
+                break;
+            case "onSelectedById":
+                result.addStatement("event.id = id.toString()");
+                result.addStatement("event.providerClass = result.map(o -> o.getClass().getName()).orElse(null)");
+                break;
+            case "onReloaded":
+                result.addStatement("event.addedCount = added.size()");
+                result.addStatement("event.removedCount = removed.size()");
+                break;
+        }
+        if (!listenerMethod.equals("onFilterRejected")) {
+            result.addStatement("event.elapsed = nanos");
+        }
+        return result.build();
+    }
+
+    private static TypeSpec newFlightEventType(String simpleName, String label, String description, FieldSpec... fields) {
+        return TypeSpec
+                .classBuilder(simpleName)
+                .addAnnotation(AnnotationSpec.builder(JFR_NAME).addMember("value", "$S", "nbbrd.service." + simpleName).build())
+                .addAnnotation(AnnotationSpec.builder(JFR_LABEL).addMember("value", "$S", label).build())
+                .addAnnotation(AnnotationSpec.builder(JFR_DESCRIPTION).addMember("value", "$S", description).build())
+                .addAnnotation(AnnotationSpec.builder(JFR_CATEGORY).addMember("value", "$S", "Service Loading").build())
+                .addModifiers(STATIC, FINAL)
+                .superclass(JFR_EVENT)
+                .addField(newFlightEventField(WILDCARD_CLASS, "serviceType", "Service Type"))
+                .addFields(Arrays.asList(fields))
+                .build();
+    }
+
+    private static FieldSpec newFlightEventField(TypeName type, String name, String label) {
+        return FieldSpec
+                .builder(type, name)
+                .addAnnotation(AnnotationSpec.builder(JFR_LABEL).addMember("value", "$S", label).build())
+                .build();
+    }
+
+    private static FieldSpec newElapsedTimeField() {
+        // the built-in duration field of events can only be measured with begin() and end()
+        return newFlightEventField(TypeName.LONG, "elapsed", "Elapsed Time")
+                .toBuilder()
+                .addAnnotation(AnnotationSpec.builder(JFR_TIMESPAN).addMember("value", "$T.NANOSECONDS", JFR_TIMESPAN).build())
+                .build();
+    }
+
+    private TypeSpec newSourcesType(boolean batch, FieldSpec snapshotFieldOrNull, FieldSpec indexFieldOrNull) {
+        TypeName namesType = TypeNames.typeOf(Set.class, ClassName.get(String.class));
+        ClassName memoType = ClassName.bestGuess(MEMO);
+
+        MethodSpec.Builder constructor = MethodSpec
+                .constructorBuilder()
+                .addModifiers(PRIVATE)
+                .addParameter(memoType, "providers")
+                .addStatement("this.providers = providers");
+        // only the listener compares the providers that are already fetched
+        MethodSpec.Builder getNames = MethodSpec
+                .methodBuilder(SOURCES_NAMES)
+                .addModifiers(PRIVATE)
+                .returns(namesType)
+                .addStatement("$T result = new $T<>()", namesType, LinkedHashSet.class);
+        if (hasListener()) {
+            getNames.addParameter(boolean.class, "fetched");
+        }
+        getNames.addStatement("$L.forEach(o -> result.add($L))", getMemoNamesCode("providers"), getSourceNameCode());
+        if (batch) {
+            constructor
+                    .addParameter(memoType, "batches")
+                    .addStatement("this.batches = batches");
+            getNames
+                    .addStatement("$L.forEach(o -> result.add($L))", getMemoNamesCode("batches"), getSourceNameCode());
+        }
+        getNames.addStatement("return result");
+
+        TypeSpec.Builder result = TypeSpec
+                .classBuilder(SOURCES)
+                .addJavadoc("Content of the backends, published as a whole along with the values derived from it.\n")
+                .addModifiers(PRIVATE, STATIC, FINAL)
+                .addField(memoType, "providers", PRIVATE, FINAL);
+        if (batch) {
+            // each batch provider is expanded once per content, on demand and concurrently if needed
+            // batch providers are told apart by identity since they may override equals
+            result.addField(memoType, "batches", PRIVATE, FINAL)
+                    .addField(FieldSpec
+                            .builder(ParameterizedTypeName.get(ClassName.get(Map.class), OBJECT, memoType), SOURCES_EXPANSIONS, PRIVATE, FINAL)
+                            .initializer("$T.synchronizedMap(new $T<>())", Collections.class, IdentityHashMap.class)
+                            .build());
+        }
+        if (snapshotFieldOrNull != null) result.addField(snapshotFieldOrNull);
+        if (indexFieldOrNull != null) result.addField(indexFieldOrNull);
+        result.addMethod(constructor.build());
+        // names are compared on reload to report the changes and to reuse instances
+        if (hasListener() || hasProviderHandles()) {
+            result.addMethod(getNames.build());
+        }
+
+        if (hasProviderHandles()) {
+            TypeName instancesType = ParameterizedTypeName.get(ClassName.get(Map.class), ClassName.get(String.class), OBJECT);
+            TypeName handleType = ParameterizedTypeName.get(PROVIDER_HANDLE, WILDCARD);
+
+            // providers are instantiated once per name, without holding a lock so that they can use the loader
+            result.addField(FieldSpec
+                            .builder(instancesType, "instances", PRIVATE, FINAL)
+                            .initializer("new $T<>()", ConcurrentHashMap.class)
+                            .build())
+                    .addMethod(MethodSpec
+                            .methodBuilder(SOURCES_INSTANTIATOR)
+                            .addModifiers(PRIVATE)
+                            .returns(OBJECT)
+                            .addParameter(OBJECT, "o")
+                            .beginControlFlow("if (!(o instanceof $T))", PROVIDER_HANDLE)
+                            .addStatement("return o")
+                            .endControlFlow()
+                            .addStatement("$T name = $L(o)", String.class, PROVIDER_NAMER)
+                            .addStatement("$T result = instances.get(name)", OBJECT)
+                            .beginControlFlow("if (result == null)")
+                            .addStatement("$T created = (($T) o).get()", OBJECT, handleType)
+                            .addStatement("result = instances.putIfAbsent(name, created)")
+                            .beginControlFlow("if (result == null)")
+                            .addStatement("result = created")
+                            .endControlFlow()
+                            .endControlFlow()
+                            .addStatement("return result")
+                            .build())
+                    .addMethod(MethodSpec
+                            .methodBuilder(SOURCES_REUSER)
+                            .addModifiers(PRIVATE)
+                            .addParameter(ClassName.bestGuess(SOURCES), "previous")
+                            .beginControlFlow("for ($T name : $L($L))", String.class, SOURCES_NAMES, hasListener() ? "false" : "")
+                            .addStatement("$T instance = previous.instances.get(name)", OBJECT)
+                            .beginControlFlow("if (instance != null)")
+                            .addStatement("instances.put(name, instance)")
+                            .endControlFlow()
+                            .endControlFlow()
+                            .build());
+        }
+
+        return result.build();
+    }
+
+    private MethodSpec newRefresherMethod() {
+        // the deadline is moved before reloading so that a failing reload is retried after the same delay
+        MethodSpec.Builder result = MethodSpec
+                .methodBuilder(REFRESHER)
+                .addModifiers(PRIVATE)
+                .beginControlFlow("if ($L > 0 && $L != null)", REFRESH_NANOS, SOURCES_FIELD)
+                .addStatement("long now = $T.nanoTime()", System.class)
+                .addStatement("long deadline = $L.get()", REFRESH_DEADLINE)
+                .beginControlFlow("if (now - deadline >= 0 && $L.compareAndSet(deadline, now + $L))", REFRESH_DEADLINE, REFRESH_NANOS)
+                .addStatement("$T task = this::$L", Runnable.class, hasListener() ? BACKGROUND_RELOADER.name : "reload");
+        if (hasExecutor()) {
+            result.beginControlFlow("if ($L != null)", EXECUTOR)
+                    .addStatement("$L.execute(task)", EXECUTOR)
+                    .nextControlFlow("else")
+                    .addStatement("$L.EXECUTOR.execute(task)", REFRESH_EXECUTOR)
+                    .endControlFlow();
+        } else {
+            result.addStatement("$L.EXECUTOR.execute(task)", REFRESH_EXECUTOR);
+        }
+        return result
+                .endControlFlow()
+                .endControlFlow()
+                .build();
+    }
+
+    private CodeBlock getMemoNamesCode(String memo) {
+        return hasListener()
+                ? CodeBlock.of("(fetched ? $L.$L() : $L.stream())", memo, MEMO_FETCHED, memo)
+                : CodeBlock.of("$L.stream()", memo);
+    }
+
+    private TypeSpec newRefresherType(ClassName loaderName) {
+        ClassName refresherType = ClassName.bestGuess(REFRESH_EXECUTOR);
+
+        // a single thread is shared by the loaders of a type and stops when idle
+        return TypeSpec
+                .classBuilder(refresherType)
+                .addJavadoc("Default executor of background reloads, created on first use.\n")
+                .addModifiers(PRIVATE, STATIC, FINAL)
+                .addField(FieldSpec
+                        .builder(ThreadPoolExecutor.class, "EXECUTOR", PRIVATE, STATIC, FINAL)
+                        .initializer("new $T(1, 1, 1, $T.MINUTES, new $T<>(), task -> {\n$>"
+                                        + "$T result = new $T(task, $S);\n"
+                                        + "result.setDaemon(true);\n"
+                                        + "return result;\n"
+                                        + "$<})",
+                                ThreadPoolExecutor.class, TimeUnit.class, LinkedBlockingQueue.class,
+                                Thread.class, Thread.class, definition.resolveLoaderName().reflectionName() + "-refresh")
+                        .build())
+                .addStaticBlock(CodeBlock.of("EXECUTOR.allowCoreThreadTimeOut(true);\n"))
+                .build();
+    }
+
+    private TypeSpec newMemoType() {
+        ClassName memoType = ClassName.bestGuess(MEMO);
+        TypeName objectsType = TypeNames.typeOf(List.class, OBJECT);
+
+        TypeSpec spliterator = TypeSpec
+                .anonymousClassBuilder("$T.MAX_VALUE, $T.ORDERED", Long.class, Spliterator.class)
+                .superclass(ParameterizedTypeName.get(ClassName.get(Spliterators.AbstractSpliterator.class), OBJECT))
+                .addField(int.class, "index", PRIVATE)
+                .addMethod(MethodSpec
+                        .methodBuilder("tryAdvance")
+                        .addAnnotation(Override.class)
+                        .addModifiers(PUBLIC)
+                        .returns(boolean.class)
+                        .addParameter(consumerOf(WildcardTypeName.supertypeOf(OBJECT)), "action")
+                        .addStatement("$T item = get(index)", OBJECT)
+                        .beginControlFlow("if (item == END)")
+                        .addStatement("return false")
+                        .endControlFlow()
+                        .addStatement("index++")
+                        .addStatement("action.accept(item)")
+                        .addStatement("return true")
+                        .build())
+                .build();
+
+        // items are fetched under lock but consumed outside of it so that readers can call back the loader
+        // the source is only iterated on first access so that creating a memo is cheap
+        TypeSpec.Builder result = TypeSpec
+                .classBuilder(memoType)
+                .addJavadoc("Content of a backend, fetched on demand and shared by the readers of the same sources.\n")
+                .addModifiers(PRIVATE, STATIC, FINAL)
+                .addField(FieldSpec
+                        .builder(OBJECT, "END", PRIVATE, STATIC, FINAL)
+                        .initializer("new $T()", OBJECT)
+                        .build())
+                .addField(iterableOf(WILDCARD), "source", PRIVATE, FINAL)
+                .addField(TypeNames.typeOf(Iterator.class, WILDCARD), "iterator", PRIVATE)
+                .addField(FieldSpec
+                        .builder(objectsType, "items", PRIVATE, FINAL)
+                        .initializer("new $T<>()", ArrayList.class)
+                        .build())
+                .addField(boolean.class, "complete", PRIVATE, VOLATILE)
+                .addMethod(MethodSpec
+                        .constructorBuilder()
+                        .addModifiers(PRIVATE)
+                        .addParameter(iterableOf(WILDCARD), "source")
+                        .addStatement("this.source = source")
+                        .build())
+                .addMethod(MethodSpec
+                        .methodBuilder("stream")
+                        .addModifiers(PRIVATE)
+                        .returns(TypeNames.typeOf(Stream.class, OBJECT))
+                        .beginControlFlow("if (complete)")
+                        .addStatement("return items.stream()")
+                        .endControlFlow()
+                        .addStatement("return $T.stream($L, false)", StreamSupport.class, spliterator)
+                        .build())
+                .addMethod(MethodSpec
+                        .methodBuilder("get")
+                        .addModifiers(PRIVATE, SYNCHRONIZED)
+                        .returns(OBJECT)
+                        .addParameter(int.class, "index")
+                        .beginControlFlow("while (items.size() <= index)")
+                        .beginControlFlow("if (complete || !getIterator().hasNext())")
+                        .addStatement("complete = true")
+                        .addStatement("return END")
+                        .endControlFlow()
+                        .addStatement("items.add(getIterator().next())")
+                        .endControlFlow()
+                        .addStatement("return items.get(index)")
+                        .build())
+                .addMethod(MethodSpec
+                        .methodBuilder("getIterator")
+                        .addModifiers(PRIVATE)
+                        .returns(TypeNames.typeOf(Iterator.class, WILDCARD))
+                        .beginControlFlow("if (iterator == null)")
+                        .addStatement("iterator = source.iterator()")
+                        .endControlFlow()
+                        .addStatement("return iterator")
+                        .build());
+        if (hasListener()) {
+            result.addMethod(MethodSpec
+                    .methodBuilder(MEMO_FETCHED)
+                    .addModifiers(PRIVATE, SYNCHRONIZED)
+                    .returns(TypeNames.typeOf(Stream.class, OBJECT))
+                    .addStatement("return new $T<>(items).stream()", ArrayList.class)
+                    .build());
+        }
+        // the backend is reloaded under lock so that no reader is iterating it meanwhile
+        // the items that are not fetched yet are dropped instead of being instantiated ahead of time
+        return result
+                .addMethod(MethodSpec
+                        .methodBuilder(MEMO_RELOADER)
+                        .addModifiers(PRIVATE, SYNCHRONIZED)
+                        .addParameter(Runnable.class, "reloader")
+                        .addStatement("reloader.run()")
+                        .beginControlFlow("if (iterator != null)")
+                        .addStatement("iterator = null")
+                        .addStatement("complete = true")
+                        .endControlFlow()
+                        .build())
+                .build();
+    }
+
+    private CodeBlock getSourceNameCode() {
+        return hasProviderHandles()
+                ? CodeBlock.of("$L(o)", PROVIDER_NAMER)
+                : CodeBlock.of("o.getClass().getName()");
+    }
+
+    private MethodSpec newProviderNamerMethod() {
+        // direct providers of fields and enum constants share the same type so they are named after their delegate
+        MethodSpec.Builder result = MethodSpec
+                .methodBuilder(PROVIDER_NAMER)
+                .addModifiers(PRIVATE, STATIC)
+                .returns(String.class)
+                .addParameter(OBJECT, "o");
+        // observed handles only exist if a listener is configured
+        String provider = "o";
+        if (hasListener()) {
+            result.addStatement("$T provider = o instanceof $L ? (($L) o).delegate : o", OBJECT, OBSERVED_PROVIDER, OBSERVED_PROVIDER);
+            provider = "provider";
+        }
+        if (hasDirectProviders()) {
+            result.beginControlFlow("if ($L instanceof $L)", provider, DIRECT_PROVIDER)
+                    .addStatement("return (($L) $L).name", DIRECT_PROVIDER, provider)
+                    .endControlFlow();
+        }
+        return result
+                .addStatement("return ($L instanceof $T ? (($T<?>) $L).type() : $L.getClass()).getName()", provider, PROVIDER_HANDLE, PROVIDER_HANDLE, provider, provider)
+                .build();
+    }
+
+    private MethodSpec newGetSourcesMethod(MethodSpec loadSourcesMethod) {
+        ClassName sourcesType = ClassName.bestGuess(SOURCES);
+
+        MethodSpec.Builder result = MethodSpec
+                .methodBuilder(SOURCES_GETTER)
+                .addModifiers(PRIVATE)
+                .returns(sourcesType);
+        if (hasRefresh()) {
+            result.addStatement("$L()", REFRESHER);
+        }
+        return result
+                .addStatement("$T result = $L", sourcesType, SOURCES_FIELD)
+                .addStatement("return result != null ? result : $N()", loadSourcesMethod)
+                .build();
+    }
+
+    private MethodSpec newLoadSourcesMethod(MethodSpec sourcesFactoryMethod) {
+        return MethodSpec
+                .methodBuilder("loadSources")
+                .addModifiers(PRIVATE, SYNCHRONIZED)
+                .returns(ClassName.bestGuess(SOURCES))
+                .beginControlFlow("if ($L == null)", SOURCES_FIELD)
+                .addStatement("$L = $N()", SOURCES_FIELD, sourcesFactoryMethod)
+                .endControlFlow()
+                .addStatement("return $L", SOURCES_FIELD)
+                .build();
+    }
+
+    private CodeBlock getReloadConsistencyJavadoc() {
+        return CodeBlock
+                .builder()
+                .add("<p>The new content is built while the current one remains available to other threads, and is then published atomically.\n")
+                .add("If the new content cannot be built, the current one is kept and the exception is propagated.\n")
+                .add("Note that a reader that is still iterating the current content only gets the providers fetched before the reload.\n")
+                .add("<p>Concurrent calls are coalesced: a call that waits for a successful reload started after it returns without fetching providers once more.\n")
+                .build();
+    }
+
+    private TypeSpec newObservedProviderType() {
+        TypeName handleType = ParameterizedTypeName.get(PROVIDER_HANDLE, WILDCARD);
+        ClassName listenerType = ClassName.bestGuess(LISTENER);
+
+        return TypeSpec
+                .classBuilder(OBSERVED_PROVIDER)
+                .addModifiers(PRIVATE, STATIC, FINAL)
+                .addSuperinterface(ParameterizedTypeName.get(PROVIDER_HANDLE, OBJECT))
+                .addField(handleType, "delegate", PRIVATE, FINAL)
+                .addField(listenerType, LISTENER_FIELD, PRIVATE, FINAL)
+                .addMethod(MethodSpec
+                        .constructorBuilder()
+                        .addParameter(handleType, "delegate")
+                        .addParameter(listenerType, LISTENER_FIELD)
+                        .addStatement("this.delegate = delegate")
+                        .addStatement("this.$N = $N", LISTENER_FIELD, LISTENER_FIELD)
+                        .build())
+                .addMethod(MethodSpec
+                        .methodBuilder("type")
+                        .addAnnotation(Override.class)
+                        .addModifiers(PUBLIC)
+                        .returns(WILDCARD_CLASS)
+                        .addStatement("return delegate.type()")
+                        .build())
+                .addMethod(MethodSpec
+                        .methodBuilder("get")
+                        .addAnnotation(Override.class)
+                        .addModifiers(PUBLIC)
+                        .returns(OBJECT)
+                        .addStatement("long start = $T.nanoTime()", System.class)
+                        .addStatement("$T result = delegate.get()", OBJECT)
+                        .addStatement("$N.onProviderInstantiated($L(delegate), $T.nanoTime() - start)", LISTENER_FIELD, PROVIDER_NAMER, System.class)
+                        .addStatement("return result")
+                        .build())
+                .build();
+    }
+
+    private CodeBlock getFirstCode(TypeSpec sortKeyTypeOrNull) {
+        // selection instead of sorting: a min-reduction keeps the first of equal elements
+        return sortKeyTypeOrNull != null
+                ? CodeBlock.of("\n.map($N::new)\n.min($T.naturalOrder())\n.map(o -> o.$L)", sortKeyTypeOrNull, Comparator.class, SORT_KEY_PROVIDER)
+                : CodeBlock.of("\n.findFirst()");
+    }
 
     private CodeBlock getIdPredicateCode(FieldSpec field) {
         LoadId id = ids.get(0);
@@ -404,12 +2078,12 @@ class ServiceDefinitionGenerator {
         return CodeBlock.of("o -> $N.matcher(" + idCall + ").matches()", field, id.getMethod().getSimpleName());
     }
 
-    private CodeBlock getFiltersCode(FieldSpec idPatternFieldOrNull) {
+    private CodeBlock getFiltersCode(FieldSpec idPatternFieldOrNull, List<LoadFilter> selection, boolean observed) {
         List<CodeBlock> blocks = new ArrayList<>();
-        if (idPatternFieldOrNull != null) blocks.add(getIdPredicateCode(idPatternFieldOrNull));
-        filters.stream()
+        if (idPatternFieldOrNull != null) blocks.add(observeFilter(getIdPredicateCode(idPatternFieldOrNull), idPatternFieldOrNull.name, observed));
+        selection.stream()
                 .sorted(Comparator.comparingInt(LoadFilter::getPosition))
-                .map(this::getFilterCode)
+                .map(filter -> observeFilter(getFilterCode(filter), filter.getMethodName(), observed))
                 .forEach(blocks::add);
 
         Iterator<CodeBlock> iterator = blocks.iterator();
@@ -421,13 +2095,17 @@ class ServiceDefinitionGenerator {
         }
 
         CodeBlock.Builder result = CodeBlock.builder();
-        result.add(casting(TypeNames.typeOf(Predicate.class, definition.getServiceType()), first));
+        result.add(observed ? first : casting(TypeNames.typeOf(Predicate.class, definition.getServiceType()), first));
         while (iterator.hasNext()) {
             result.add(".and($L)", iterator.next());
         }
         return result.build();
     }
 
+    private static CodeBlock observeFilter(CodeBlock filter, String name, boolean observed) {
+        return observed ? CodeBlock.of("$L($L, $S, $L)", FILTER_OBSERVER, filter, name, LISTENER_FIELD) : filter;
+    }
+
     private CodeBlock getFilterCode(LoadFilter filter) {
         CodeBlock result = CodeBlock.of("$T::$L", filter.getServiceType().orElseThrow(Unreachable::new), filter.getMethodName());
         return filter.isNegate()
@@ -435,56 +2113,97 @@ class ServiceDefinitionGenerator {
                 : result;
     }
 
-    private CodeBlock getSortersCode() {
-        Iterator<CodeBlock> iter = sorters.stream()
+    private TypeSpec getSortKeyTypeOrNull() {
+        if (sorters.isEmpty()) {
+            return null;
+        }
+
+        ClassName serviceType = definition.getServiceType();
+        ClassName sortKeyName = ClassName.bestGuess(SORT_KEY);
+
+        List<LoadSorter> sortedSorters = sorters.stream()
                 .sorted(Comparator.comparingInt(LoadSorter::getPosition))
-                .map(this::getSorterCode)
-                .iterator();
+                .collect(Collectors.toList());
+
+        TypeSpec.Builder result = TypeSpec
+                .classBuilder(sortKeyName)
+                .addModifiers(PRIVATE, STATIC, FINAL)
+                .addSuperinterface(TypeNames.typeOf(Comparable.class, sortKeyName))
+                .addField(serviceType, SORT_KEY_PROVIDER, PRIVATE, FINAL)
+                .addField(int.class, SORT_KEY_INDEX, PRIVATE, FINAL);
+
+        MethodSpec constructor1 = MethodSpec
+                .constructorBuilder()
+                .addParameter(serviceType, SORT_KEY_PROVIDER)
+                .addStatement("this($L, 0)", SORT_KEY_PROVIDER)
+                .build();
 
-        CodeBlock first = iter.next();
+        MethodSpec.Builder constructor2 = MethodSpec
+                .constructorBuilder()
+                .addParameter(serviceType, SORT_KEY_PROVIDER)
+                .addParameter(int.class, SORT_KEY_INDEX)
+                .addStatement("this.$L = $L", SORT_KEY_PROVIDER, SORT_KEY_PROVIDER)
+                .addStatement("this.$L = $L", SORT_KEY_INDEX, SORT_KEY_INDEX);
 
-        if (!iter.hasNext()) {
-            return first;
+        MethodSpec.Builder compareTo = MethodSpec
+                .methodBuilder("compareTo")
+                .addAnnotation(Override.class)
+                .addModifiers(PUBLIC)
+                .returns(int.class)
+                .addParameter(sortKeyName, "that");
+
+        for (int i = 0; i < sortedSorters.size(); i++) {
+            LoadSorter sorter = sortedSorters.get(i);
+            String key = "key" + i;
+            result.addField(TypeName.get(sorter.getMethod().getReturnType()), key, PRIVATE, FINAL);
+            constructor2.addStatement("this.$L = $L.$L()", key, SORT_KEY_PROVIDER, sorter.getMethodName());
+            CodeBlock comparison = sorter.isReverse()
+                    ? getKeyComparisonCode(sorter, "that." + key, key)
+                    : getKeyComparisonCode(sorter, key, "that." + key);
+            compareTo
+                    .addStatement(i == 0 ? "int result = $L" : "result = $L", comparison)
+                    .beginControlFlow("if (result != 0)")
+                    .addStatement("return result")
+                    .endControlFlow();
         }
 
-        CodeBlock.Builder result = CodeBlock.builder();
-        result.add(casting(TypeNames.typeOf(Comparator.class, definition.getServiceType()), first));
-        while (iter.hasNext()) {
-            result.add(".thenComparing($L)", iter.next());
-        }
-        return result.build();
-    }
+        // the index keeps the original order of equal elements
+        compareTo.addStatement("return $T.compare($L, that.$L)", Integer.class, SORT_KEY_INDEX, SORT_KEY_INDEX);
 
-    private CodeBlock getSorterCode(LoadSorter sorter) {
-        CodeBlock result = CodeBlock.of("$T.$L($T::$L)", Comparator.class, getComparatorMethod(sorter), sorter.getServiceType().orElseThrow(Unreachable::new), sorter.getMethodName());
-        return sorter.isReverse()
-                ? CodeBlock.of("$T.reverseOrder($L)", Collections.class, result)
-                : result;
+        return result
+                .addMethod(constructor1)
+                .addMethod(constructor2.build())
+                .addMethod(compareTo.build())
+                .build();
     }
 
-    private String getComparatorMethod(LoadSorter sorter) {
+    private CodeBlock getKeyComparisonCode(LoadSorter sorter, String left, String right) {
         switch (sorter.getKeyType().orElseThrow(Unreachable::new)) {
             case COMPARABLE:
-                return "comparing";
+                // other primitives such as float or boolean are comparable once boxed but cannot be dereferenced
+                TypeName keyType = TypeName.get(sorter.getMethod().getReturnType());
+                return keyType.isPrimitive()
+                        ? CodeBlock.of("$T.compare($L, $L)", keyType.box(), left, right)
+                        : CodeBlock.of("$L.compareTo($L)", left, right);
             case DOUBLE:
-                return "comparingDouble";
+                return CodeBlock.of("$T.compare($L, $L)", Double.class, left, right);
             case INT:
-                return "comparingInt";
+                return CodeBlock.of("$T.compare($L, $L)", Integer.class, left, right);
             case LONG:
-                return "comparingLong";
+                return CodeBlock.of("$T.compare($L, $L)", Long.class, left, right);
             default:
                 throw new Unreachable();
         }
     }
 
-    private CodeBlock getQuantifierCode() {
+    private CodeBlock getQuantifierCode(TypeSpec sortKeyTypeOrNull) {
         switch (definition.getQuantifier()) {
             case OPTIONAL:
-                return CodeBlock.of("\n.findFirst()");
+                return getFirstCode(sortKeyTypeOrNull);
             case SINGLE:
                 return definition.getFallback().isPresent()
-                        ? CodeBlock.of("\n.findFirst()\n.orElseGet(() -> $L)", getInstantiatorCode(definition.getFallback().get()))
-                        : CodeBlock.of("\n.findFirst()\n.orElseThrow(() -> new $T(\"Missing mandatory provider of $T\"))", IllegalStateException.class, definition.getServiceType());
+                        ? CodeBlock.of("$L\n.orElseGet(() -> $L)", getFirstCode(sortKeyTypeOrNull), getInstantiatorCode(definition.getFallback().get()))
+                        : CodeBlock.of("$L\n.orElseThrow(() -> new $T(\"Missing mandatory provider of $T\"))", getFirstCode(sortKeyTypeOrNull), IllegalStateException.class, definition.getServiceType());
             case MULTIPLE:
                 return CodeBlock.of("\n.collect($T.collectingAndThen($T.toList(), $T::unmodifiableList))", Collectors.class, Collectors.class, Collections.class);
             default:
@@ -526,22 +2245,34 @@ class ServiceDefinitionGenerator {
                 : emptyList();
     }
 
+    private boolean hasDynamicFilters() {
+        return definition.isCached() && filters.stream().anyMatch(LoadFilter::isDynamic);
+    }
+
+    private List<LoadFilter> getStaticFilters() {
+        return hasDynamicFilters()
+                ? filters.stream().filter(filter -> !filter.isDynamic()).collect(Collectors.toList())
+                : filters;
+    }
+
+    private List<LoadFilter> getDynamicFilters() {
+        return filters.stream().filter(LoadFilter::isDynamic).collect(Collectors.toList());
+    }
+
     private FieldSpec getFilterFieldOrNull(FieldSpec idPatternFieldOrNull) {
-        return !filters.isEmpty() || idPatternFieldOrNull != null
+        return !getStaticFilters().isEmpty() || idPatternFieldOrNull != null
                 ? FieldSpec
                   .builder(TypeNames.typeOf(Predicate.class, definition.getServiceType()), "filter")
                   .addModifiers(PRIVATE, FINAL)
-                  .initializer("$L", getFiltersCode(idPatternFieldOrNull))
                   .build()
                 : null;
     }
 
-    private FieldSpec getSorterFieldOrNull() {
-        return !sorters.isEmpty()
+    private FieldSpec getDynamicFilterFieldOrNull() {
+        return hasDynamicFilters()
                 ? FieldSpec
-                  .builder(TypeNames.typeOf(Comparator.class, definition.getServiceType()), "sorter")
+                  .builder(TypeNames.typeOf(Predicate.class, definition.getServiceType()), "dynamicFilter")
                   .addModifiers(PRIVATE, FINAL)
-                  .initializer("$L", getSortersCode())
                   .build()
                 : null;
     }
@@ -578,39 +2309,309 @@ class ServiceDefinitionGenerator {
         }
     }
 
-    private MethodSpec newGetByIdMethod(FieldSpec filterFieldOrNull) {
-        ClassName serviceType = definition.getServiceType();
+    private String getIdExpression() {
         LoadId id = ids.get(0);
-        String idMethodName = id.getMethodName();
-        String idExpression = id.getFormatMethodName().isEmpty()
-                ? "o." + idMethodName + "()"
-                : "o." + idMethodName + "()." + id.getFormatMethodName() + "()";
+        return id.getFormatMethodName().isEmpty()
+                ? "o." + id.getMethodName() + "()"
+                : "o." + id.getMethodName() + "()." + id.getFormatMethodName() + "()";
+    }
 
-        CodeBlock.Builder body = CodeBlock.builder();
-        body.add("return stream()");
-        if (filterFieldOrNull != null) body.add(NEW_LINE).add(".filter($L)", filterFieldOrNull.name);
-        body.add(NEW_LINE).add(".filter(o -> $L.equals(id))", idExpression);
-        body.add(NEW_LINE).add(".findFirst()");
+    private MethodSpec newStreamMethod(MethodSpec getter, CodeBlock gatherFilteredCode, MethodSpec sortMethodOrNull) {
+        ClassName serviceType = definition.getServiceType();
+
+        CodeBlock.Builder javadoc = CodeBlock
+                .builder()
+                .add("Gets a lazy stream of $L instances.\n", toJavadocLink(serviceType));
+        if (definition.isCached()) {
+            javadoc.add("<p>Returns a stream over the cached result of {@link #$N()}.\n", getter);
+        } else {
+            javadoc.add("<p>Providers are instantiated and filtered on demand so that short-circuiting operations stop as soon as they have an answer.\n");
+            if (sortMethodOrNull != null) {
+                javadoc.add("Note that sorting requires all the providers to be instantiated before the first element is available.\n");
+            }
+            if (hasExecutor()) {
+                javadoc.add("Note that an executor, if any, instantiates all the providers before the first element is available.\n");
+            }
+        }
+        javadoc.add("@return a non-null stream of $L instances\n", toJavadocLink(serviceType));
+
+        return MethodSpec
+                .methodBuilder("stream")
+                .addJavadoc(javadoc.build())
+                .addModifiers(PUBLIC)
+                .returns(TypeNames.typeOf(Stream.class, serviceType))
+                .addStatement(definition.isCached()
+                        ? CodeBlock.of("return $N().stream()", getter)
+                        : CodeBlock.of("return $L", getSortedCode(gatherFilteredCode, sortMethodOrNull)))
+                .build();
+    }
+
+    private MethodSpec newIteratorMethod(MethodSpec streamMethod) {
+        ClassName serviceType = definition.getServiceType();
+
+        return MethodSpec
+                .methodBuilder("iterator")
+                .addJavadoc(CodeBlock
+                        .builder()
+                        .add("Gets a lazy iterator of $L instances.\n", toJavadocLink(serviceType))
+                        .add("<p>This is equivalent to {@code $N().iterator()}.\n", streamMethod)
+                        .add("@return a non-null iterator of $L instances\n", toJavadocLink(serviceType))
+                        .build())
+                .addModifiers(PUBLIC)
+                .returns(TypeNames.typeOf(Iterator.class, serviceType))
+                .addStatement("return $N().iterator()", streamMethod)
+                .build();
+    }
+
+    private MethodSpec newGetTopMethod(TypeName quantifierType, MethodSpec getter, CodeBlock gatherFilteredCode, TypeSpec sortKeyTypeOrNull) {
+        ClassName serviceType = definition.getServiceType();
+
+        MethodSpec.Builder result = MethodSpec
+                .methodBuilder("getTop")
+                .addJavadoc(CodeBlock
+                        .builder()
+                        .add("Gets a list of the first $L instances.\n", toJavadocLink(serviceType))
+                        .add("<p>Returns at most k available providers after applying filters and sorters.\n")
+                        .add("This is equivalent to the first k elements of {@link #$N()} but it does not sort all the providers.\n", getter)
+                        .add("@param k the maximum number of providers\n")
+                        .add("@return a non-null unmodifiable list of $L instances\n", toJavadocLink(serviceType))
+                        .add("@throws $T if k is negative\n", IllegalArgumentException.class)
+                        .build())
+                .addModifiers(PUBLIC)
+                .returns(quantifierType)
+                .addParameter(int.class, "k")
+                .beginControlFlow("if (k < 0)")
+                .addStatement("throw new $T(\"Negative k: \" + k)", IllegalArgumentException.class)
+                .endControlFlow();
+
+        if (definition.isCached()) {
+            return result
+                    .addStatement("$T result = $N()", quantifierType, getter)
+                    .addStatement("return result.size() <= k ? result : result.subList(0, k)")
+                    .build();
+        }
+
+        if (sortKeyTypeOrNull == null) {
+            return result
+                    .addStatement(CodeBlock
+                            .builder()
+                            .add("return $L", gatherFilteredCode)
+                            .add("\n.limit(k)")
+                            .add(getQuantifierCode(null))
+                            .build())
+                    .build();
+        }
+
+        // bounded max-heap that keeps the k smallest keys
+        ClassName sortKeyName = ClassName.bestGuess(sortKeyTypeOrNull.name);
+        return result
+                .addStatement("$T<$T> heap = new $T<>($T.reverseOrder())", PriorityQueue.class, sortKeyName, PriorityQueue.class, Collections.class)
+                .addStatement("$T<$T> iterator = $L.iterator()", Iterator.class, serviceType, gatherFilteredCode)
+                .beginControlFlow("for (int i = 0; iterator.hasNext(); i++)")
+                .addStatement("$T key = new $T(iterator.next(), i)", sortKeyName, sortKeyName)
+                .beginControlFlow("if (heap.size() < k)")
+                .addStatement("heap.add(key)")
+                .nextControlFlow("else if (k > 0 && key.compareTo(heap.peek()) < 0)")
+                .addStatement("heap.poll()")
+                .addStatement("heap.add(key)")
+                .endControlFlow()
+                .endControlFlow()
+                .addStatement("$T[] keys = heap.toArray(new $T[0])", sortKeyName, sortKeyName)
+                .addStatement("$T.sort(keys)", Arrays.class)
+                .addStatement("$T<$T> result = new $T<>(keys.length)", List.class, serviceType, ArrayList.class)
+                .beginControlFlow("for ($T key : keys)", sortKeyName)
+                .addStatement("result.add(key.$L)", SORT_KEY_PROVIDER)
+                .endControlFlow()
+                .addStatement("return $T.unmodifiableList(result)", Collections.class)
+                .build();
+    }
+
+    private MethodSpec newGetByIdMethod(CodeBlock source, FieldSpec filterFieldOrNull, TypeSpec sortKeyTypeOrNull) {
+        ClassName serviceType = definition.getServiceType();
+        String idExpression = getIdExpression();
+
+        // cheap ID check first to avoid running the whole filter chain on each provider
+        // duplicate IDs are resolved in sorted order as in the index of cached loaders
+        CodeBlock.Builder lookup = CodeBlock.builder();
+        lookup.add("$L", source);
+        lookup.add(NEW_LINE).add(".filter(o -> $L.equals(id))", idExpression);
+        if (filterFieldOrNull != null) lookup.add(NEW_LINE).add(".filter($L)", filterFieldOrNull.name);
+        lookup.add(getFirstCode(sortKeyTypeOrNull));
+
+        return MethodSpec
+                .methodBuilder("getById")
+                .addJavadoc(CodeBlock
+                        .builder()
+                        .add("Gets an optional $L instance by ID.\n", toJavadocLink(serviceType))
+                        .add("<p>Returns the first available provider whose ID equals the given value, after applying filters and sorters.\n")
+                        .add("The providers are scanned on each call; a cached loader looks them up in an index instead.\n")
+                        .add("@param id the ID to look up, not null\n")
+                        .add("@return a non-null optional $L instance\n", toJavadocLink(serviceType))
+                        .build())
+                .addModifiers(PUBLIC)
+                .returns(TypeNames.typeOf(Optional.class, serviceType))
+                .addParameter(CharSequence.class, "id")
+                .addCode(getObservedLookupByIdCode(lookup.build()))
+                .build();
+    }
+
+    private CodeBlock getObservedLookupByIdCode(CodeBlock lookup) {
+        if (!hasListener()) {
+            return CodeBlock.builder().addStatement("return $L", lookup).build();
+        }
+        return CodeBlock
+                .builder()
+                .beginControlFlow("if ($L == null)", LISTENER_FIELD)
+                .addStatement("return $L", lookup)
+                .endControlFlow()
+                .addStatement("long start = $T.nanoTime()", System.class)
+                .addStatement("$T result = $L", TypeNames.typeOf(Optional.class, definition.getServiceType()), lookup)
+                .addStatement("$L.onSelectedById(id, result, $T.nanoTime() - start)", LISTENER_FIELD, System.class)
+                .addStatement("return result")
+                .build();
+    }
+
+    private MethodSpec newGetByIdMethod(MethodSpec getIndexMethod) {
+        ClassName serviceType = definition.getServiceType();
 
         return MethodSpec
                 .methodBuilder("getById")
                 .addJavadoc(CodeBlock
                         .builder()
                         .add("Gets an optional $L instance by ID.\n", toJavadocLink(serviceType))
-                        .add("<p>Returns the first available provider whose ID equals the given value, after applying filters.\n")
+                        .add("<p>Returns the first available provider whose ID equals the given value, after applying filters and sorters.\n")
+                        .add("The lookup relies on an index that is built once and cleared on reload.\n")
                         .add("@param id the ID to look up, not null\n")
                         .add("@return a non-null optional $L instance\n", toJavadocLink(serviceType))
                         .build())
                 .addModifiers(PUBLIC)
                 .returns(TypeNames.typeOf(Optional.class, serviceType))
                 .addParameter(CharSequence.class, "id")
-                .addStatement(body.build())
+                .addCode(getObservedLookupByIdCode(CodeBlock.of("$N().$L(id)", getIndexMethod, INDEX_FINDER)))
+                .build();
+    }
+
+    private MethodSpec newAsMapMethod(MethodSpec getIndexMethod) {
+        ClassName serviceType = definition.getServiceType();
+
+        return MethodSpec
+                .methodBuilder("asMap")
+                .addJavadoc(CodeBlock
+                        .builder()
+                        .add("Gets a map of $L instances by ID.\n", toJavadocLink(serviceType))
+                        .add("<p>Returns all available providers after applying filters and sorters, keyed by ID.\n")
+                        .add(hasListener()
+                                ? CodeBlock.of("If several providers share the same ID, only the first one is kept and the listener is notified.\n")
+                                : CodeBlock.of("If several providers share the same ID, only the first one is kept.\n"))
+                        .add("@return a non-null unmodifiable map of $L instances\n", toJavadocLink(serviceType))
+                        .build())
+                .addModifiers(PUBLIC)
+                .returns(getIndexType())
+                .addStatement("return $N().$L", getIndexMethod, INDEX_PROVIDERS)
+                .build();
+    }
+
+    private MethodSpec newGetIndexMethod(FieldSpec indexField, MethodSpec loadIndexMethod) {
+        return MethodSpec
+                .methodBuilder("getIndex")
+                .addModifiers(PRIVATE)
+                .returns(indexField.type)
+                .addStatement(CURRENT_SOURCES_DECLARATION)
+                .addStatement("$T result = current.$N", indexField.type, indexField)
+                .addStatement("return result != null ? result : $N(current)", loadIndexMethod)
+                .build();
+    }
+
+    private MethodSpec newLoadIndexMethod(FieldSpec indexField, MethodSpec newIndexMethod) {
+        return MethodSpec
+                .methodBuilder("loadIndex")
+                .addModifiers(PRIVATE)
+                .returns(indexField.type)
+                .addParameter(ClassName.bestGuess(SOURCES), "current")
+                .beginControlFlow("synchronized (current)")
+                .beginControlFlow("if (current.$N == null)", indexField)
+                .addStatement("current.$N = $N(current)", indexField, newIndexMethod)
+                .endControlFlow()
+                .addStatement("return current.$N", indexField)
+                .endControlFlow()
+                .build();
+    }
+
+    private MethodSpec newNewIndexMethod(FieldSpec indexField, MethodSpec loadSnapshotMethod) {
+        ClassName serviceType = definition.getServiceType();
+        String idExpression = getIdExpression();
+
+        MethodSpec.Builder result = MethodSpec
+                .methodBuilder(INDEX_FACTORY)
+                .addModifiers(PRIVATE)
+                .returns(indexField.type)
+                .addParameter(ClassName.bestGuess(SOURCES), "current")
+                .addStatement("$T result = new $T<>()", getIndexType(), LinkedHashMap.class)
+                .beginControlFlow("for ($T o : $N(current))", serviceType, loadSnapshotMethod);
+        if (hasListener()) {
+            result.addStatement("$T id = $L", String.class, idExpression)
+                    .addStatement("$T kept = result.putIfAbsent(id, o)", serviceType)
+                    .beginControlFlow("if (kept != null && $L != null)", LISTENER_FIELD)
+                    .addStatement("$L.onDuplicateId(id, kept, o)", LISTENER_FIELD)
+                    .endControlFlow();
+        } else {
+            result.addStatement("result.putIfAbsent($L, o)", idExpression);
+        }
+        return result
+                .endControlFlow()
+                .addStatement("return new $T($T.unmodifiableMap(result))", indexField.type, Collections.class)
+                .build();
+    }
+
+    private TypeSpec newIndexType() {
+        ClassName serviceType = definition.getServiceType();
+        TypeName optionalType = TypeNames.typeOf(Optional.class, serviceType);
+        TypeName optionalsType = ParameterizedTypeName.get(ClassName.get(Map.class), ClassName.get(String.class), optionalType);
+
+        return TypeSpec
+                .classBuilder(INDEX)
+                .addJavadoc("Immutable providers by ID, with their optionals prepared so that lookups do not allocate.\n")
+                .addModifiers(PRIVATE, STATIC, FINAL)
+                .addField(getIndexType(), INDEX_PROVIDERS, PRIVATE, FINAL)
+                .addField(optionalsType, INDEX_OPTIONALS, PRIVATE, FINAL)
+                .addMethod(MethodSpec
+                        .constructorBuilder()
+                        .addModifiers(PRIVATE)
+                        .addParameter(getIndexType(), INDEX_PROVIDERS)
+                        .addStatement("this.$L = $L", INDEX_PROVIDERS, INDEX_PROVIDERS)
+                        .addStatement("this.$L = new $T<>()", INDEX_OPTIONALS, HashMap.class)
+                        .addStatement("$L.forEach((id, o) -> $L.put(id, $T.of(o)))", INDEX_PROVIDERS, INDEX_OPTIONALS, Optional.class)
+                        .build())
+                .addMethod(MethodSpec
+                        .methodBuilder(INDEX_FINDER)
+                        .addModifiers(PRIVATE)
+                        .returns(optionalType)
+                        .addParameter(CharSequence.class, "id")
+                        .addStatement("$T result = $L.get(id)", optionalType, INDEX_OPTIONALS)
+                        .addStatement("return result != null ? result : $T.empty()", Optional.class)
+                        .build())
+                .build();
+    }
+
+    private MethodSpec newLoadSnapshotMethod(FieldSpec snapshotField, MethodSpec newSnapshotMethod) {
+        return MethodSpec
+                .methodBuilder("loadSnapshot")
+                .addModifiers(PRIVATE)
+                .returns(snapshotField.type)
+                .addExceptions(newSnapshotMethod.exceptions)
+                .addParameter(ClassName.bestGuess(SOURCES), "current")
+                .beginControlFlow("synchronized (current)")
+                .beginControlFlow("if (current.$N == null)", snapshotField)
+                .addStatement("current.$N = $N(current)", snapshotField, newSnapshotMethod)
+                .endControlFlow()
+                .addStatement("return current.$N", snapshotField)
+                .endControlFlow()
                 .build();
     }
 
     private MethodSpec newLoadByIdMethod() {
         ClassName serviceType = definition.getServiceType();
-        CodeBlock mainStatement = CodeBlock.of("builder().build().getById(id)");
+        CodeBlock mainStatement = CodeBlock.of("$L.getById(id)", getLoadInstanceCode());
 
         return MethodSpec
                 .methodBuilder("loadById")
@@ -619,7 +2620,7 @@ class ServiceDefinitionGenerator {
                         .add("Gets an optional $L instance by ID.\n", toJavadocLink(serviceType))
                         .add("<p>Returns the first available provider whose ID equals the given value.\n")
                         .add("<br>This is equivalent to the following code: <code>$L</code>\n", mainStatement)
-                        .add("<br>Therefore, the returned value might be different at each call.\n")
+                        .add(getLoadConsequenceJavadoc())
                         .add("@param id the ID to look up, not null\n")
                         .add("@return a non-null optional $L instance\n", toJavadocLink(serviceType))
                         .build())
@@ -631,7 +2632,7 @@ class ServiceDefinitionGenerator {
     }
 
     private MethodSpec newLoadMethod(TypeName quantifierType, MethodSpec getter) {
-        CodeBlock mainStatement = CodeBlock.of("builder().build().$N()", getter);
+        CodeBlock mainStatement = CodeBlock.of("$L.$N()", getLoadInstanceCode(), getter);
 
         MethodSpec.Builder result = MethodSpec
                 .methodBuilder("load")
@@ -639,7 +2640,7 @@ class ServiceDefinitionGenerator {
                         .builder()
                         .add(getGetDescription())
                         .add("<br>This is equivalent to the following code: <code>$L</code>\n", mainStatement)
-                        .add("<br>Therefore, the returned value might be different at each call.\n")
+                        .add(getLoadConsequenceJavadoc())
                         .build())
                 .addModifiers(PUBLIC, STATIC)
                 .returns(quantifierType)
@@ -650,6 +2651,43 @@ class ServiceDefinitionGenerator {
         return result.build();
     }
 
+    private CodeBlock getLoadInstanceCode() {
+        return definition.isCached()
+                ? CodeBlock.of("$L.INSTANCE", SHARED)
+                : CodeBlock.of("builder().build()");
+    }
+
+    private CodeBlock getLoadConsequenceJavadoc() {
+        if (hasDynamicFilters()) {
+            return CodeBlock.of("<br>Therefore, the providers are computed once and shared between calls but dynamic filters are evaluated at each call.\n");
+        }
+        return definition.isCached()
+                ? CodeBlock.of("<br>Therefore, the returned value is computed once and shared between calls.\n")
+                : CodeBlock.of("<br>Therefore, the returned value might be different at each call.\n");
+    }
+
+    private FieldSpec getSnapshotFieldOrNull(TypeName snapshotType) {
+        return definition.isCached()
+                ? FieldSpec
+                  .builder(snapshotType, "snapshot")
+                  .addModifiers(PRIVATE, VOLATILE)
+                  .build()
+                : null;
+    }
+
+    private FieldSpec getIndexFieldOrNull() {
+        return definition.isCached() && !hasDynamicFilters() && !ids.isEmpty() && definition.getQuantifier() == Quantifier.MULTIPLE
+                ? FieldSpec
+                  .builder(ClassName.bestGuess(INDEX), "index")
+                  .addModifiers(PRIVATE, VOLATILE)
+                  .build()
+                : null;
+    }
+
+    private TypeName getIndexType() {
+        return ParameterizedTypeName.get(ClassName.get(Map.class), ClassName.get(String.class), definition.getServiceType());
+    }
+
     private FieldSpec getIdPatternFieldOrNull() {
         return ids.size() == 1 && !ids.get(0).getPattern().isEmpty()
                 ? FieldSpec
@@ -672,23 +2710,199 @@ class ServiceDefinitionGenerator {
         return Collectors.mapping(HasMethod::getMethodName, Collectors.joining("+", "[", "]"));
     }
 
-    private static CodeBlock getBatchMapper(BatchDefinition batchDefinition) {
+    private static CodeBlock getBatchExpansionCode(BatchDefinition batchDefinition) {
         String methodName = batchDefinition.getMethodName().orElseThrow(Unreachable::new);
         switch (batchDefinition.getMethodReturnKind().orElseThrow(Unreachable::new)) {
             case STREAM:
-                return CodeBlock.of("o -> o.$L()", methodName);
+                return CodeBlock.of("o.$L()", methodName);
             case COLLECTION:
-                return CodeBlock.of("o -> o.$L().stream()", methodName);
+                return CodeBlock.of("o.$L().stream()", methodName);
             case ITERABLE:
-                return CodeBlock.of("o -> $T.stream(o.$L().spliterator(), false)", StreamSupport.class, methodName);
+                return CodeBlock.of("$T.stream(o.$L().spliterator(), false)", StreamSupport.class, methodName);
             case ITERATOR:
-                return CodeBlock.of("o -> $T.stream($T.spliteratorUnknownSize(o.$L(), 0), false)", StreamSupport.class, Spliterators.class, methodName);
+                return CodeBlock.of("$T.stream($T.spliteratorUnknownSize(o.$L(), 0), false)", StreamSupport.class, Spliterators.class, methodName);
             case ARRAY:
-                return CodeBlock.of("o -> $T.stream(o.$L())", Arrays.class, methodName);
+                return CodeBlock.of("$T.stream(o.$L())", Arrays.class, methodName);
             default:
                 throw new Unreachable();
         }
     }
 
     private static final CodeBlock NEW_LINE = CodeBlock.of("\n");
+
+    private static final MethodSpec TYPE_CHECKER = MethodSpec
+            .methodBuilder("isInstance")
+            .addModifiers(PRIVATE, STATIC)
+            .returns(boolean.class)
+            .addParameter(OBJECT, "o")
+            .addParameter(WILDCARD_CLASS, "type")
+            .addStatement("return o instanceof $T ? type.isAssignableFrom((($T<?>) o).type()) : type.isInstance(o)", PROVIDER_HANDLE, PROVIDER_HANDLE)
+            .build();
+
+    private static final MethodSpec NAME_DIFFER = MethodSpec
+            .methodBuilder("getNamesNotIn")
+            .addModifiers(PRIVATE, STATIC)
+            .returns(TypeNames.typeOf(Set.class, ClassName.get(String.class)))
+            .addParameter(TypeNames.typeOf(Set.class, ClassName.get(String.class)), "names")
+            .addParameter(TypeNames.typeOf(Set.class, ClassName.get(String.class)), "others")
+            .addStatement("$T<$T> result = new $T<>()", Set.class, String.class, LinkedHashSet.class)
+            .beginControlFlow("for ($T name : names)", String.class)
+            .beginControlFlow("if (!others.contains(name))")
+            .addStatement("result.add(name)")
+            .endControlFlow()
+            .endControlFlow()
+            .addStatement("return $T.unmodifiableSet(result)", Collections.class)
+            .build();
+
+    private static final String EXECUTOR = "executor";
+
+    private static final TypeVariableName T = TypeVariableName.get("T");
+
+    private static final String SOURCES = "Sources";
+
+    private static final String SOURCES_FIELD = "sources";
+
+    private static final String SOURCES_GETTER = "getSources";
+
+    private static final String SOURCES_FACTORY = "newSources";
+
+    private static final String MEMO = "Memo";
+
+    private static final String MEMO_RELOADER = "reload";
+    private static final String MEMO_FETCHED = "fetched";
+
+    private static final String SOURCES_NAMES = "getNames";
+
+    private static final String PROVIDER_NAMER = "getProviderName";
+
+    private static final String SOURCES_REUSER = "reuse";
+
+    private static final String SOURCES_INSTANTIATOR = "getInstance";
+
+    private static final String SNAPSHOT_FACTORY = "newSnapshot";
+
+    private static final String INDEX_FACTORY = "newIndex";
+
+    private static final String INDEX = "Index";
+
+    private static final String INDEX_PROVIDERS = "providers";
+
+    private static final String INDEX_OPTIONALS = "optionals";
+
+    private static final String INDEX_FINDER = "find";
+
+    private static final CodeBlock CURRENT_SOURCES_DECLARATION = CodeBlock.of("$T current = $L()", ClassName.bestGuess(SOURCES), SOURCES_GETTER);
+
+    private static final CodeBlock CURRENT_PROVIDERS = CodeBlock.of("current.providers");
+
+    private static final CodeBlock CURRENT_BATCHES = CodeBlock.of("current.batches");
+
+    private static final CodeBlock CURRENT_INSTANTIATOR = CodeBlock.of("current.$L", SOURCES_INSTANTIATOR);
+
+    private static final String REFRESH_NANOS = "refreshNanos";
+
+    private static final String REFRESH_DEADLINE = "refreshDeadline";
+    private static final String REFRESH_EXECUTOR = "Refresher";
+
+    private static final String RELOAD_COUNT = "reloadCount";
+    private static final String LAST_RELOAD = "lastReload";
+
+    private static final String REFRESHER = "refreshIfStale";
+
+    // failures are reported to the listener, if any, since nobody waits for the result
+    private static final MethodSpec BACKGROUND_RELOADER = MethodSpec
+            .methodBuilder("backgroundReload")
+            .addModifiers(PRIVATE)
+            .beginControlFlow("try")
+            .addStatement("reload()")
+            .nextControlFlow("catch ($T | $T ex)", RuntimeException.class, Error.class)
+            .beginControlFlow("if (listener == null)")
+            .addStatement("throw ex")
+            .endControlFlow()
+            .addStatement("listener.onReloadFailed(ex)")
+            .endControlFlow()
+            .build();
+
+    private static final MethodSpec CONCURRENT_SUBMITTER = MethodSpec
+            .methodBuilder("submitConcurrently")
+            .addModifiers(PRIVATE, STATIC)
+            .addTypeVariable(T)
+            .returns(TypeNames.typeOf(List.class, TypeNames.typeOf(CompletableFuture.class, TypeNames.typeOf(List.class, T))))
+            .addParameter(TypeNames.typeOf(Stream.class, WILDCARD), "items")
+            .addParameter(functionOf(OBJECT, TypeNames.typeOf(Stream.class, T)), "expander")
+            .addParameter(TypeNames.typeOf(Predicate.class, WildcardTypeName.supertypeOf(T)), "filter")
+            .addParameter(Executor.class, EXECUTOR)
+            .addStatement("return items\n.map(o -> $T.supplyAsync(() -> expander.apply(o).filter(filter).collect($T.toList()), $N))\n.collect($T.toCollection($T::new))",
+                    CompletableFuture.class, Collectors.class, EXECUTOR, Collectors.class, ArrayList.class)
+            .build();
+
+    private static final MethodSpec CONCURRENT_JOINER = MethodSpec
+            .methodBuilder("joinConcurrently")
+            .addModifiers(PRIVATE, STATIC)
+            .addTypeVariable(T)
+            .returns(TypeNames.typeOf(Stream.class, T))
+            .addParameter(TypeNames.typeOf(List.class, TypeNames.typeOf(CompletableFuture.class, TypeNames.typeOf(List.class, T))), "futures")
+            .addStatement("$T<$T> result = new $T<>()", List.class, T, ArrayList.class)
+            .beginControlFlow("for ($T future : futures)", TypeNames.typeOf(CompletableFuture.class, TypeNames.typeOf(List.class, T)))
+            .beginControlFlow("try")
+            .addStatement("result.addAll(future.join())")
+            .nextControlFlow("catch ($T ex)", CompletionException.class)
+            .addStatement("$T cause = ex.getCause()", Throwable.class)
+            .beginControlFlow("if (cause instanceof $T)", RuntimeException.class)
+            .addStatement("throw ($T) cause", RuntimeException.class)
+            .endControlFlow()
+            .beginControlFlow("if (cause instanceof $T)", Error.class)
+            .addStatement("throw ($T) cause", Error.class)
+            .endControlFlow()
+            .addStatement("throw ex")
+            .endControlFlow()
+            .endControlFlow()
+            .addStatement("return result.stream()")
+            .build();
+
+    private static final String SHARED = "Shared";
+
+    private static final String LISTENER = "Listener";
+
+    private static final String LISTENER_FIELD = "listener";
+
+    private static final String FILTER_OBSERVER = "observeFilter";
+
+    private static final String BATCH_EXPANDER = "expandBatch";
+
+    private static final String BATCH_CACHED_EXPANDER = "getExpansion";
+
+    private static final String BATCH_FLATTENER = "flattenBatches";
+
+    private static final String SOURCES_EXPANSIONS = "expansions";
+
+    private static final String INSTANTIATION_OBSERVER = "observeInstantiation";
+
+    private static final String OBSERVED_PROVIDER = "ObservedProvider";
+
+    private static final String SORTER = "sort";
+
+    private static final String FLIGHT_RECORDER = "FlightRecorderListener";
+
+    private static final String DIRECT_PROVIDERS = "DIRECT_PROVIDERS";
+
+    private static final String DIRECT_NAMES = "DIRECT_NAMES";
+
+    private static final String DIRECT_MERGER = "withDirectProviders";
+
+    private static final String DIRECT_PROVIDER = "DirectProvider";
+
+    private static final String KNOWN_IDS = "KNOWN_IDS";
+
+    private static final String KNOWN_ID_CHECKER = "mayHaveId";
+
+    private static final String KNOWN_ID_READER = "readKnownId";
+
+    private static final String GATHER = "gather";
+
+    private static final String SORT_KEY = "SortKey";
+
+    private static final String SORT_KEY_PROVIDER = "provider";
+
+    private static final String SORT_KEY_INDEX = "index";
 }
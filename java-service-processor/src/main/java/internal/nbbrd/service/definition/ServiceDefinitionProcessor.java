@@ -19,6 +19,7 @@ package internal.nbbrd.service.definition;
 import com.squareup.javapoet.ClassName;
 import com.squareup.javapoet.JavaFile;
 import com.squareup.javapoet.TypeSpec;
+import internal.nbbrd.service.ClassListRegistry;
 import internal.nbbrd.service.ProcessorUtil;
 import internal.nbbrd.service.Unreachable;
 
@@ -26,12 +27,21 @@ import javax.annotation.processing.AbstractProcessor;
 import javax.annotation.processing.Processor;
 import javax.annotation.processing.RoundEnvironment;
 import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedOptions;
 import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
 import javax.lang.model.element.Modifier;
 import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.stream.Stream;
 
 import static java.util.stream.Collectors.*;
 
@@ -43,10 +53,22 @@ import static java.util.stream.Collectors.*;
         "nbbrd.service.ServiceDefinition",
         "nbbrd.service.ServiceFilter",
         "nbbrd.service.ServiceSorter",
-        "nbbrd.service.ServiceId"
+        "nbbrd.service.ServiceId",
+        // read by direct loaders; also makes Gradle pass unchanged providers to this aggregating processor
+        "nbbrd.service.ServiceProvider"
+})
+@SupportedOptions({
+        ServiceDefinitionProcessor.FLIGHT_RECORDER_OPTION,
+        ClassListRegistry.OPTION
 })
 public final class ServiceDefinitionProcessor extends AbstractProcessor {
 
+    /**
+     * Enables Java Flight Recorder events in generated loaders when set to {@code true}.
+     * Requires a release that provides the {@code jdk.jfr} module.
+     */
+    public static final String FLIGHT_RECORDER_OPTION = "nbbrd.service.flightRecorder";
+
     @Override
     public SourceVersion getSupportedSourceVersion() {
         return SourceVersion.latestSupported();
@@ -88,8 +110,21 @@ public final class ServiceDefinitionProcessor extends AbstractProcessor {
 
         checker.checkIds(idsByService);
 
-        definitionsByTopLevel.forEach((topLevel, definitions) -> generate(topLevel, ServiceDefinitionGenerator.allOf(definitions, filtersByService, sortersByService, idsByService)));
+        definitionsByTopLevel.forEach((topLevel, definitions) -> generate(topLevel, ServiceDefinitionGenerator.allOf(definitions, filtersByService, sortersByService, idsByService, processingEnv.getSourceVersion(), isFlightRecorderEnabled())));
+
+        // annotations are not claimed so that ServiceProvider is still processed by ServiceProviderProcessor
+        return false;
+    }
 
+    private boolean isFlightRecorderEnabled() {
+        if (!Boolean.parseBoolean(processingEnv.getOptions().get(FLIGHT_RECORDER_OPTION))) {
+            return false;
+        }
+        if (processingEnv.getSourceVersion().compareTo(SourceVersion.RELEASE_8) <= 0
+                || processingEnv.getElementUtils().getTypeElement("jdk.jfr.Event") == null) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, "Option '" + FLIGHT_RECORDER_OPTION + "' ignored because module 'jdk.jfr' is not available");
+            return false;
+        }
         return true;
     }
 
@@ -112,7 +147,7 @@ public final class ServiceDefinitionProcessor extends AbstractProcessor {
     private void generateNotNestedLoader(ServiceDefinitionGenerator generator) {
         String loaderPackage = generator.getDefinition().resolveLoaderName().packageName();
         TypeSpec loaderClass = generator.generateLoader(false);
-        writeFile(loaderPackage, loaderClass);
+        writeFile(loaderPackage, loaderClass, Collections.singletonList(generator));
     }
 
     private void generateNested(ClassName topLevel, List<ServiceDefinitionGenerator> generators) {
@@ -159,10 +194,42 @@ public final class ServiceDefinitionProcessor extends AbstractProcessor {
                 .addTypes(nestedLoaders)
                 .build();
 
-        writeFile(loaderName.packageName(), loaderClass);
+        writeFile(loaderName.packageName(), loaderClass, generators);
+    }
+
+    private void writeFile(String loaderPackage, TypeSpec loaderClass, List<ServiceDefinitionGenerator> generators) {
+        Element[] originatingElements = getOriginatingElements(generators);
+        TypeSpec.Builder loaderFile = loaderClass.toBuilder();
+        Stream.of(originatingElements).forEach(loaderFile::addOriginatingElement);
+        ProcessorUtil.write(processingEnv, JavaFile.builder(loaderPackage, loaderFile.build()).build());
+        if (ClassListRegistry.isEnabled(processingEnv)) {
+            writeClassList(ClassName.get(loaderPackage, loaderClass.name), loaderClass, generators, originatingElements);
+        }
+    }
+
+    // loaders are generated per top-level service type; direct providers are covered by the aggregating registration
+    private Element[] getOriginatingElements(List<ServiceDefinitionGenerator> generators) {
+        return generators.stream()
+                .map(generator -> generator.getDefinition().getServiceType().topLevelClassName().canonicalName())
+                .distinct()
+                .map(processingEnv.getElementUtils()::getTypeElement)
+                .filter(Objects::nonNull)
+                .toArray(Element[]::new);
+    }
+
+    private void writeClassList(ClassName loaderName, TypeSpec loaderClass, List<ServiceDefinitionGenerator> generators, Element[] originatingElements) {
+        SortedSet<String> classNames = new TreeSet<>();
+        generators.forEach(generator -> classNames.add(generator.getDefinition().getServiceType().reflectionName()));
+        collectClassNames(loaderName, loaderClass, classNames);
+        try {
+            new ClassListRegistry(processingEnv).write(loaderName.reflectionName(), classNames, originatingElements);
+        } catch (IOException ex) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, ex.getClass().getSimpleName() + ": " + ex.getMessage());
+        }
     }
 
-    private void writeFile(String loaderPackage, TypeSpec loaderClass) {
-        ProcessorUtil.write(processingEnv, JavaFile.builder(loaderPackage, loaderClass).build());
+    private static void collectClassNames(ClassName name, TypeSpec type, Set<String> result) {
+        result.add(name.reflectionName());
+        type.typeSpecs.forEach(nested -> collectClassNames(name.nestedClass(nested.name), nested, result));
     }
 }
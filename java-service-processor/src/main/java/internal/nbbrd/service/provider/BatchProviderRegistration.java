@@ -11,6 +11,9 @@ class BatchProviderRegistration {
     @lombok.NonNull
     TypeElement batchService;
 
+    @lombok.NonNull
+    TypeElement enumProvider;
+
     @lombok.NonNull
     String providerClassName;
 }
@@ -0,0 +1,133 @@
+package internal.nbbrd.service.provider;
+
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Tracks the lines of provider-configuration files written by this processor along with the types that originated them.
+ * <p>
+ * Incremental builds keep the files of previous compilations, so a line is pruned when its originating type
+ * no longer exists or when it has been recompiled without registering the line again.
+ * Lines that were not written by this processor are always kept.
+ */
+@lombok.RequiredArgsConstructor
+final class ClassPathOrigins {
+
+    @lombok.NonNull
+    private final Elements util;
+
+    /**
+     * Top-level types compiled in this compilation.
+     */
+    @lombok.NonNull
+    private final Set<String> compiledTypes;
+
+    @lombok.NonNull
+    private final SortedMap<String, SortedMap<String, String>> originsByService;
+
+    public Set<String> getServices() {
+        return new TreeSet<>(originsByService.keySet());
+    }
+
+    public SortedMap<String, SortedMap<String, String>> getOriginsByService() {
+        return originsByService;
+    }
+
+    /**
+     * Merges the lines of a previous compilation with the lines registered by this one.
+     *
+     * @param serviceBinaryName the binary name of the service
+     * @param oldLines          the lines of the existing file
+     * @param newOrigins        the originating types of the new lines, by provider binary name and in order
+     * @return the lines of the file
+     */
+    public List<ProviderConfigurationFileLine> merge(String serviceBinaryName, List<ProviderConfigurationFileLine> oldLines, Map<String, String> newOrigins) {
+        Map<String, String> oldOrigins = originsByService.getOrDefault(serviceBinaryName, Collections.emptySortedMap());
+        SortedMap<String, String> origins = new TreeMap<>();
+        List<ProviderConfigurationFileLine> result = new ArrayList<>();
+
+        for (ProviderConfigurationFileLine line : oldLines) {
+            String provider = line.getProviderBinaryName();
+            if (provider == null || !oldOrigins.containsKey(provider)) {
+                // comments and hand-written lines
+                result.add(line);
+            } else if (newOrigins.containsKey(provider) || !isStale(oldOrigins.get(provider))) {
+                result.add(line);
+                origins.put(provider, newOrigins.getOrDefault(provider, oldOrigins.get(provider)));
+            }
+        }
+
+        newOrigins.forEach((provider, origin) -> {
+            ProviderConfigurationFileLine line = ProviderConfigurationFileLine.ofProviderBinaryName(provider);
+            if (!result.contains(line)) {
+                result.add(line);
+                origins.put(provider, origin);
+            }
+        });
+
+        if (origins.isEmpty()) {
+            originsByService.remove(serviceBinaryName);
+        } else {
+            originsByService.put(serviceBinaryName, origins);
+        }
+        return result;
+    }
+
+    private boolean isStale(String originBinaryName) {
+        TypeElement origin = getTypeElementByBinaryName(originBinaryName);
+        return origin == null || compiledTypes.contains(getTopLevelName(origin));
+    }
+
+    /**
+     * Resolves a type from its binary name.
+     * <p>
+     * A '$' separates nested types but may also be part of a class name, so the top-level type is looked up
+     * for each possible split and its member types are then matched segment by segment.
+     *
+     * @param binaryName the binary name of the type
+     * @return the type if found, null otherwise
+     */
+    TypeElement getTypeElementByBinaryName(String binaryName) {
+        int start = binaryName.lastIndexOf('.') + 1;
+        for (int end = binaryName.indexOf('$', start); ; end = binaryName.indexOf('$', end + 1)) {
+            TypeElement topLevel = util.getTypeElement(end == -1 ? binaryName : binaryName.substring(0, end));
+            TypeElement result = topLevel != null ? findMemberType(topLevel, binaryName) : null;
+            if (result != null || end == -1) {
+                return result;
+            }
+        }
+    }
+
+    private TypeElement findMemberType(TypeElement type, String binaryName) {
+        String typeName = util.getBinaryName(type).toString();
+        if (typeName.equals(binaryName)) {
+            return type;
+        }
+        if (binaryName.startsWith(typeName + "$")) {
+            for (TypeElement member : ElementFilter.typesIn(type.getEnclosedElements())) {
+                TypeElement result = findMemberType(member, binaryName);
+                if (result != null) {
+                    return result;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String getTopLevelName(TypeElement type) {
+        TypeElement result = type;
+        while (result.getEnclosingElement() instanceof TypeElement) {
+            result = (TypeElement) result.getEnclosingElement();
+        }
+        return result.getQualifiedName().toString();
+    }
+}
@@ -16,8 +16,11 @@
  */
 package internal.nbbrd.service.provider;
 
+import internal.nbbrd.service.ProviderIdFile;
+
 import javax.annotation.processing.FilerException;
 import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.Element;
 import javax.lang.model.element.TypeElement;
 import javax.lang.model.util.Elements;
 import javax.tools.FileObject;
@@ -26,12 +29,17 @@ import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
 import java.nio.file.NoSuchFileException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.stream.Collectors;
 
 /**
@@ -40,20 +48,31 @@ import java.util.stream.Collectors;
 @lombok.RequiredArgsConstructor
 final class ClassPathRegistry implements ProviderRegistry {
 
+    /**
+     * Sidecar file that maps the lines written by this processor to the types that originated them.
+     * Lines that are not listed were written by hand and are never pruned.
+     * The file is a build state so it lies in the source output in order to stay out of jars.
+     */
+    public static final String ORIGINS_FILE = "META-INF/service-origins";
+
     @lombok.NonNull
     private final ProcessingEnvironment env;
 
     public List<ProviderConfigurationFileLine> readLinesByService(TypeElement service) throws IOException {
-        FileObject src = env.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "", getFileRelativeName(service));
+        return readLinesByService(env.getElementUtils().getBinaryName(service));
+    }
+
+    public List<ProviderConfigurationFileLine> readLinesByService(CharSequence serviceBinaryName) throws IOException {
+        FileObject src = env.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "", ProviderConfigurationFileLine.getFileRelativeName(serviceBinaryName));
         try (BufferedReader reader = new BufferedReader(src.openReader(false))) {
-            return readLinesByService(reader, service, src.toUri());
+            return readLinesByService(reader, serviceBinaryName, src.toUri());
         } catch (FileNotFoundException | NoSuchFileException | FilerException ex) {
             // ignore
             return Collections.emptyList();
         }
     }
 
-    private static List<ProviderConfigurationFileLine> readLinesByService(BufferedReader reader, TypeElement service, URI uri) throws IOException {
+    private static List<ProviderConfigurationFileLine> readLinesByService(BufferedReader reader, CharSequence serviceBinaryName, URI uri) throws IOException {
         List<ProviderConfigurationFileLine> result = new ArrayList<>();
         int lineNumber = 0;
         String line;
@@ -61,15 +80,19 @@ final class ClassPathRegistry implements ProviderRegistry {
             try {
                 result.add(ProviderConfigurationFileLine.parse(line));
             } catch (IllegalArgumentException ex) {
-                throw new IOException(service.getQualifiedName() + ": " + (uri + ":" + lineNumber + ": " + ex.getMessage()));
+                throw new IOException(serviceBinaryName + ": " + (uri + ":" + lineNumber + ": " + ex.getMessage()));
             }
             lineNumber++;
         }
         return result;
     }
 
-    public void writeLinesByService(List<ProviderConfigurationFileLine> lines, TypeElement service) throws IOException {
-        FileObject dst = env.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", getFileRelativeName(service));
+    public void writeLinesByService(List<ProviderConfigurationFileLine> lines, TypeElement service, Element... originatingElements) throws IOException {
+        writeLinesByService(lines, env.getElementUtils().getBinaryName(service), originatingElements);
+    }
+
+    public void writeLinesByService(List<ProviderConfigurationFileLine> lines, CharSequence serviceBinaryName, Element... originatingElements) throws IOException {
+        FileObject dst = env.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", ProviderConfigurationFileLine.getFileRelativeName(serviceBinaryName), originatingElements);
         try (BufferedWriter writer = new BufferedWriter(dst.openWriter())) {
             for (ProviderConfigurationFileLine line : lines) {
                 writer.write(line.toString());
@@ -78,6 +101,30 @@ final class ClassPathRegistry implements ProviderRegistry {
         }
     }
 
+    public SortedMap<String, SortedMap<String, String>> readOriginsByService() throws IOException {
+        FileObject src = env.getFiler().getResource(StandardLocation.SOURCE_OUTPUT, "", ORIGINS_FILE);
+        SortedMap<String, SortedMap<String, String>> result = new TreeMap<>();
+        try (InputStream stream = src.openInputStream()) {
+            // keys are formatted as <service>/<provider> since both are binary names
+            ProviderIdFile.read(stream).forEach((key, origin) -> {
+                int index = key.indexOf('/');
+                result.computeIfAbsent(key.substring(0, index), service -> new TreeMap<>()).put(key.substring(index + 1), origin);
+            });
+        } catch (FileNotFoundException | NoSuchFileException | FilerException ex) {
+            // ignore
+        }
+        return result;
+    }
+
+    public void writeOriginsByService(SortedMap<String, SortedMap<String, String>> originsByService, Element... originatingElements) throws IOException {
+        Map<String, String> content = new TreeMap<>();
+        originsByService.forEach((service, origins) -> origins.forEach((provider, origin) -> content.put(service + "/" + provider, origin)));
+        FileObject dst = env.getFiler().createResource(StandardLocation.SOURCE_OUTPUT, "", ORIGINS_FILE, originatingElements);
+        try (OutputStream stream = dst.openOutputStream()) {
+            ProviderIdFile.write(content, stream);
+        }
+    }
+
     public List<ProviderEntry> parseAll(TypeElement service, List<ProviderConfigurationFileLine> lines) {
         String serviceName = service.getQualifiedName().toString();
         return lines
@@ -101,8 +148,4 @@ final class ClassPathRegistry implements ProviderRegistry {
                 })
                 .collect(Collectors.toList());
     }
-
-    private String getFileRelativeName(TypeElement service) {
-        return ProviderConfigurationFileLine.getFileRelativeName(env.getElementUtils().getBinaryName(service));
-    }
 }
@@ -0,0 +1,146 @@
+package internal.nbbrd.service.provider;
+
+import com.sun.source.tree.ExpressionTree;
+import com.sun.source.tree.IdentifierTree;
+import com.sun.source.tree.LiteralTree;
+import com.sun.source.tree.MemberSelectTree;
+import com.sun.source.tree.MethodTree;
+import com.sun.source.tree.ParenthesizedTree;
+import com.sun.source.tree.ReturnTree;
+import com.sun.source.tree.StatementTree;
+import com.sun.source.util.Trees;
+import internal.nbbrd.service.ExtEnvironment;
+import nbbrd.service.ServiceId;
+
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Extracts the ID of a provider when its {@link ServiceId} method returns a compile-time constant,
+ * such as a string literal or a constant field.
+ * <p>
+ * The method body is read through the compiler tree API; nothing is extracted on compilers that do not support it
+ * or when the environment is wrapped, as in Gradle incremental builds. Loaders then instantiate providers to read their IDs.
+ */
+@lombok.RequiredArgsConstructor
+final class ConstantIdExtractor {
+
+    @lombok.NonNull
+    private final ExtEnvironment env;
+
+    private Optional<Trees> trees = null;
+
+    public Optional<String> extract(TypeElement service, TypeElement provider) {
+        return getIdMethod(service)
+                .flatMap(idMethod -> getOverridingMethod(provider, idMethod))
+                .flatMap(this::getReturnedExpression)
+                .flatMap(expression -> getConstantValue(provider, expression));
+    }
+
+    private Optional<ExecutableElement> getIdMethod(TypeElement service) {
+        TypeElement stringType = env.getElementUtils().getTypeElement(String.class.getName());
+        return ElementFilter.methodsIn(env.getElementUtils().getAllMembers(service))
+                .stream()
+                .filter(method -> method.getAnnotation(ServiceId.class) != null)
+                .filter(method -> method.getAnnotation(ServiceId.class).formatMethodName().isEmpty())
+                .filter(method -> env.getTypeUtils().isSameType(method.getReturnType(), stringType.asType()))
+                .findFirst();
+    }
+
+    private Optional<ExecutableElement> getOverridingMethod(TypeElement provider, ExecutableElement idMethod) {
+        // only the provider's own declaration is trusted; an inherited one may be overridden elsewhere
+        return ElementFilter.methodsIn(provider.getEnclosedElements())
+                .stream()
+                .filter(method -> method.getSimpleName().contentEquals(idMethod.getSimpleName()))
+                .filter(method -> method.getParameters().isEmpty())
+                .filter(method -> !method.getModifiers().contains(Modifier.STATIC))
+                .findFirst();
+    }
+
+    private Optional<ExpressionTree> getReturnedExpression(ExecutableElement method) {
+        Optional<MethodTree> tree = getTrees().map(o -> o.getTree(method));
+        if (!tree.isPresent() || tree.get().getBody() == null) {
+            return Optional.empty();
+        }
+        List<? extends StatementTree> statements = tree.get().getBody().getStatements();
+        return statements.size() == 1 && statements.get(0) instanceof ReturnTree
+                ? Optional.ofNullable(((ReturnTree) statements.get(0)).getExpression())
+                : Optional.empty();
+    }
+
+    private Optional<String> getConstantValue(TypeElement provider, ExpressionTree expression) {
+        if (expression instanceof ParenthesizedTree) {
+            return getConstantValue(provider, ((ParenthesizedTree) expression).getExpression());
+        }
+        if (expression instanceof LiteralTree) {
+            Object value = ((LiteralTree) expression).getValue();
+            return value instanceof String ? Optional.of((String) value) : Optional.empty();
+        }
+        if (expression instanceof IdentifierTree) {
+            return getConstantField(getEnclosingTypes(provider), ((IdentifierTree) expression).getName());
+        }
+        if (expression instanceof MemberSelectTree) {
+            MemberSelectTree select = (MemberSelectTree) expression;
+            return getQualifierType(provider, select.getExpression().toString())
+                    .flatMap(type -> getConstantField(Stream.of(type), select.getIdentifier()));
+        }
+        return Optional.empty();
+    }
+
+    private Optional<String> getConstantField(Stream<TypeElement> types, CharSequence name) {
+        return types
+                .map(type -> ElementFilter.fieldsIn(env.getElementUtils().getAllMembers(type))
+                        .stream()
+                        .filter(field -> field.getSimpleName().contentEquals(name))
+                        .findFirst())
+                .filter(Optional::isPresent)
+                .map(Optional::get)
+                .findFirst()
+                .map(VariableElement::getConstantValue)
+                .filter(String.class::isInstance)
+                .map(String.class::cast);
+    }
+
+    private Optional<TypeElement> getQualifierType(TypeElement provider, String qualifier) {
+        TypeElement qualifiedType = env.getElementUtils().getTypeElement(qualifier);
+        if (qualifiedType != null) {
+            return Optional.of(qualifiedType);
+        }
+        return getEnclosingTypes(provider)
+                .flatMap(type -> Stream.concat(Stream.of(type), ElementFilter.typesIn(env.getElementUtils().getAllMembers(type)).stream()))
+                .filter(type -> type.getSimpleName().contentEquals(qualifier))
+                .findFirst();
+    }
+
+    private static Stream<TypeElement> getEnclosingTypes(TypeElement provider) {
+        Stream.Builder<TypeElement> result = Stream.builder();
+        for (Element e = provider; e != null && e.getKind() != ElementKind.PACKAGE; e = e.getEnclosingElement()) {
+            if (e instanceof TypeElement) {
+                result.add((TypeElement) e);
+            }
+        }
+        return result.build();
+    }
+
+    private Optional<Trees> getTrees() {
+        if (trees == null) {
+            try {
+                trees = Optional.of(Trees.instance(env.unwrap()));
+            } catch (IllegalArgumentException | LinkageError ex) {
+                // not running on javac or wrapped by an incremental build tool
+                trees = Optional.empty();
+                env.getMessager().printMessage(Diagnostic.Kind.NOTE, "Constant provider IDs are not recorded since the compiler tree API is not available");
+            }
+        }
+        return trees;
+    }
+}
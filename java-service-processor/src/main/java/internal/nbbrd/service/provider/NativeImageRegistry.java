@@ -0,0 +1,156 @@
+package internal.nbbrd.service.provider;
+
+import javax.annotation.processing.FilerException;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.Element;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads and writes the GraalVM native-image configuration of the registered providers.
+ * <p>
+ * The files are located in {@code META-INF/native-image/<path>/} where they are picked up automatically by the
+ * {@code native-image} tool. The path is usually made of the group and artifact IDs of the project.
+ * Incremental builds keep the files of previous compilations, so they are read back in the format written here
+ * in order to be merged with the entries of the current compilation.
+ */
+@lombok.RequiredArgsConstructor
+final class NativeImageRegistry {
+
+    @lombok.NonNull
+    private final ProcessingEnvironment env;
+
+    @lombok.NonNull
+    private final String path;
+
+    private static final Pattern CLASS_LINE = Pattern.compile("^ {4}\"name\": (\".*\"),$");
+    private static final Pattern METHOD_LINE = Pattern.compile("^ {6}\\{ \"name\": (\".*\"), \"parameterTypes\": \\[] },?$");
+    private static final Pattern RESOURCE_LINE = Pattern.compile("^ {6}\\{ \"pattern\": (\".*\") },?$");
+
+    public SortedMap<String, List<String>> readReflectConfig() throws IOException {
+        return parseReflectConfig(readLines("reflect-config.json"));
+    }
+
+    public SortedSet<String> readResourceConfig() throws IOException {
+        return parseResourceConfig(readLines("resource-config.json"));
+    }
+
+    public void writeReflectConfig(SortedMap<String, ? extends List<String>> methodsByClassName, Element... originatingElements) throws IOException {
+        try (Writer writer = createWriter("reflect-config.json", originatingElements)) {
+            writer.write(formatReflectConfig(methodsByClassName));
+        }
+    }
+
+    public void writeResourceConfig(SortedSet<String> resources, Element... originatingElements) throws IOException {
+        try (Writer writer = createWriter("resource-config.json", originatingElements)) {
+            writer.write(formatResourceConfig(resources));
+        }
+    }
+
+    private List<String> readLines(String fileName) throws IOException {
+        FileObject src = env.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "", getFileRelativeName(path, fileName));
+        List<String> result = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(src.openReader(false))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                result.add(line);
+            }
+        } catch (FileNotFoundException | NoSuchFileException | FilerException ex) {
+            // ignore
+        }
+        return result;
+    }
+
+    private Writer createWriter(String fileName, Element[] originatingElements) throws IOException {
+        FileObject dst = env.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", getFileRelativeName(path, fileName), originatingElements);
+        return dst.openWriter();
+    }
+
+    static String getFileRelativeName(String path, String fileName) {
+        return "META-INF/native-image/" + path + "/" + fileName;
+    }
+
+    static String formatReflectConfig(SortedMap<String, ? extends List<String>> methodsByClassName) {
+        StringBuilder result = new StringBuilder("[");
+        Iterator<? extends Map.Entry<String, ? extends List<String>>> classes = methodsByClassName.entrySet().iterator();
+        while (classes.hasNext()) {
+            Map.Entry<String, ? extends List<String>> entry = classes.next();
+            result.append("\n  {\n    \"name\": ").append(quote(entry.getKey())).append(",\n    \"methods\": [");
+            Iterator<String> methods = entry.getValue().iterator();
+            while (methods.hasNext()) {
+                result.append("\n      { \"name\": ").append(quote(methods.next())).append(", \"parameterTypes\": [] }");
+                if (methods.hasNext()) result.append(",");
+            }
+            result.append(entry.getValue().isEmpty() ? "]" : "\n    ]").append("\n  }");
+            if (classes.hasNext()) result.append(",");
+        }
+        return result.append(methodsByClassName.isEmpty() ? "]\n" : "\n]\n").toString();
+    }
+
+    static String formatResourceConfig(SortedSet<String> resources) {
+        StringBuilder result = new StringBuilder("{\n  \"resources\": {\n    \"includes\": [");
+        Iterator<String> iterator = resources.iterator();
+        while (iterator.hasNext()) {
+            result.append("\n      { \"pattern\": ").append(quote("\\Q" + iterator.next() + "\\E")).append(" }");
+            if (iterator.hasNext()) result.append(",");
+        }
+        return result.append(resources.isEmpty() ? "]\n  }\n}\n" : "\n    ]\n  }\n}\n").toString();
+    }
+
+    static SortedMap<String, List<String>> parseReflectConfig(List<String> lines) {
+        SortedMap<String, List<String>> result = new TreeMap<>();
+        List<String> methods = null;
+        for (String line : lines) {
+            Matcher m = CLASS_LINE.matcher(line);
+            if (m.matches()) {
+                methods = new ArrayList<>();
+                result.put(unquote(m.group(1)), methods);
+            } else if (methods != null && (m = METHOD_LINE.matcher(line)).matches()) {
+                methods.add(unquote(m.group(1)));
+            }
+        }
+        return result;
+    }
+
+    static SortedSet<String> parseResourceConfig(List<String> lines) {
+        SortedSet<String> result = new TreeSet<>();
+        for (String line : lines) {
+            Matcher m = RESOURCE_LINE.matcher(line);
+            if (m.matches()) {
+                String pattern = unquote(m.group(1));
+                if (pattern.startsWith("\\Q") && pattern.endsWith("\\E")) {
+                    result.add(pattern.substring(2, pattern.length() - 2));
+                }
+            }
+        }
+        return result;
+    }
+
+    private static String quote(String text) {
+        return "\"" + text.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    private static String unquote(String text) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 1; i < text.length() - 1; i++) {
+            char c = text.charAt(i);
+            result.append(c == '\\' && i + 1 < text.length() - 1 ? text.charAt(++i) : c);
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,48 @@
+package internal.nbbrd.service.provider;
+
+import internal.nbbrd.service.ProviderIdFile;
+
+import javax.annotation.processing.FilerException;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.TypeElement;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.NoSuchFileException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Reads and writes the provider ID metadata files located next to the provider-configuration files.
+ */
+@lombok.RequiredArgsConstructor
+final class ProviderIdRegistry {
+
+    @lombok.NonNull
+    private final ProcessingEnvironment env;
+
+    public Map<String, String> readIdsByService(TypeElement service) throws IOException {
+        FileObject src = env.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "", getFileRelativeName(service));
+        try (InputStream stream = src.openInputStream()) {
+            return ProviderIdFile.read(stream);
+        } catch (FileNotFoundException | NoSuchFileException | FilerException ex) {
+            // ignore
+            return new TreeMap<>();
+        }
+    }
+
+    public void writeIdsByService(Map<String, String> idsByProvider, TypeElement service, Element... originatingElements) throws IOException {
+        FileObject dst = env.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", getFileRelativeName(service), originatingElements);
+        try (OutputStream stream = dst.openOutputStream()) {
+            ProviderIdFile.write(idsByProvider, stream);
+        }
+    }
+
+    private String getFileRelativeName(TypeElement service) {
+        return ProviderIdFile.getFileRelativeName(env.getElementUtils().getBinaryName(service));
+    }
+}
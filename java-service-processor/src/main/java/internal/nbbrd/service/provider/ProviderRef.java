@@ -18,19 +18,25 @@ package internal.nbbrd.service.provider;
 
 import internal.nbbrd.service.HasPositionHint;
 
+import lombok.NonNull;
+import nbbrd.service.ServiceProvider;
+
+import javax.annotation.processing.RoundEnvironment;
 import javax.lang.model.element.Element;
 import javax.lang.model.element.TypeElement;
+import javax.lang.model.util.Elements;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * @author Philippe Charles
  */
 @lombok.Value
-class ProviderRef implements HasPositionHint {
+public class ProviderRef implements HasPositionHint {
 
     @lombok.NonNull
     TypeElement service;
@@ -67,6 +73,20 @@ class ProviderRef implements HasPositionHint {
         return new ProviderEntry(service.getQualifiedName().toString(), providerName);
     }
 
+    public static @NonNull Stream<ProviderRef> allOf(@NonNull RoundEnvironment roundEnv) {
+        return Stream.of(ServiceProvider.class, ServiceProvider.List.class)
+                .map(roundEnv::getElementsAnnotatedWith)
+                .flatMap(Set::stream)
+                .distinct()
+                .flatMap(AnnotationRegistry::newRefs);
+    }
+
+    public static @NonNull String getDelegateClassName(@NonNull Elements util, @NonNull TypeElement provider, @NonNull Element source) {
+        String packageName = util.getPackageOf(provider).getQualifiedName().toString();
+        String simpleName = provider.getSimpleName() + "_" + source.getSimpleName() + "Delegate";
+        return packageName.isEmpty() ? simpleName : packageName + "." + simpleName;
+    }
+
     static Set<ProviderRef> getDuplicates(Collection<ProviderRef> refs) {
         return refs
                 .stream()
@@ -5,7 +5,9 @@ import internal.nbbrd.service.ProcessorTool;
 import javax.annotation.processing.ProcessingEnvironment;
 import javax.annotation.processing.RoundEnvironment;
 import javax.lang.model.element.TypeElement;
+import javax.lang.model.util.ElementFilter;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.function.Supplier;
@@ -18,12 +20,20 @@ final class ServiceProviderCollector extends ProcessorTool {
 
     private final List<ProviderRef> pendingRefs = new ArrayList<>();
 
+    private final Set<String> compiledTypes = new HashSet<>();
+
     public void collect(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
         pendingRefs.addAll(new AnnotationRegistry(annotations, roundEnv).readAll());
+        ElementFilter.typesIn(roundEnv.getRootElements()).forEach(type -> compiledTypes.add(type.getQualifiedName().toString()));
     }
 
     public void clear() {
         pendingRefs.clear();
+        compiledTypes.clear();
+    }
+
+    public Set<String> getCompiledTypes() {
+        return new HashSet<>(compiledTypes);
     }
 
     public List<ProviderRef> build() {
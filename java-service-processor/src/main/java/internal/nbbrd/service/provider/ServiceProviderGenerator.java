@@ -1,8 +1,11 @@
 package internal.nbbrd.service.provider;
 
 import com.squareup.javapoet.*;
+import internal.nbbrd.service.ClassListRegistry;
 import internal.nbbrd.service.ProcessorTool;
+import internal.nbbrd.service.Instantiator;
 import internal.nbbrd.service.ProcessorUtil;
+import internal.nbbrd.service.ProviderIdFile;
 import nbbrd.service.ServiceDefinition;
 
 import javax.annotation.processing.ProcessingEnvironment;
@@ -10,6 +13,7 @@ import javax.lang.model.element.*;
 import javax.lang.model.type.TypeKind;
 import javax.lang.model.type.TypeMirror;
 import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
 import javax.lang.model.util.Types;
 import java.io.IOException;
 import java.util.*;
@@ -26,7 +30,7 @@ final class ServiceProviderGenerator extends ProcessorTool {
         super(envSupplier);
     }
 
-    public void generate(List<ProviderRef> annotationRefs) throws IOException {
+    public void generate(List<ProviderRef> annotationRefs, Set<String> compiledTypes) throws IOException {
         // Generate batch providers for enums and collect their batch service registrations
         List<BatchProviderRef> batchRefs = collectBatchProviderRefs(annotationRefs);
         List<BatchProviderRegistration> batchRegistrations = generateBatchProviders(batchRefs);
@@ -52,29 +56,196 @@ final class ServiceProviderGenerator extends ProcessorTool {
 
         // Register in SPI files
         ClassPathRegistry classPath = new ClassPathRegistry(getEnv());
-        registerClassPath(refsToRegister, classPath);
-        registerBatchProviders(batchRegistrations, classPath);
+        SortedMap<String, SortedMap<String, String>> oldOrigins = classPath.readOriginsByService();
+        ClassPathOrigins origins = new ClassPathOrigins(getEnv().getElementUtils(), compiledTypes, copyOf(oldOrigins));
+        Map<TypeElement, List<ProviderConfigurationFileLine>> linesByService = new LinkedHashMap<>();
+        registerClassPath(refsToRegister, classPath, origins, linesByService);
+        registerBatchProviders(batchRegistrations, classPath, origins, linesByService);
+        pruneClassPath(linesByService, classPath, origins);
+        if (!origins.getOriginsByService().equals(oldOrigins)) {
+            classPath.writeOriginsByService(origins.getOriginsByService(), Stream.concat(
+                            refsToRegister.stream().map(ProviderRef::getProvider),
+                            batchRefs.stream().map(BatchProviderRef::getEnumProvider))
+                    .distinct()
+                    .toArray(Element[]::new));
+        }
+
+        // Register compile-time constant IDs next to SPI files
+        List<TypeElement> servicesWithIds = registerProviderIds(refsToRegister, new ProviderIdRegistry(getEnv()));
+
+        // Describe registered classes and resources for native images
+        String nativeImagePath = getEnv().getOptions().get(ServiceProviderProcessor.NATIVE_IMAGE_OPTION);
+        if (nativeImagePath != null && !nativeImagePath.isEmpty()) {
+            registerNativeImage(refsToRegister, batchRefs, linesByService, servicesWithIds, origins, new NativeImageRegistry(getEnv(), nativeImagePath));
+        }
+
+        // List registered classes for class data sharing
+        if (ClassListRegistry.isEnabled(getEnv())) {
+            registerClassList(refsToRegister, batchRefs, linesByService, new ClassListRegistry(getEnv()));
+        }
     }
 
-    private void registerClassPath(List<ProviderRef> annotationRefs, ClassPathRegistry classPath) throws IOException {
+    private void registerClassPath(List<ProviderRef> annotationRefs, ClassPathRegistry classPath, ClassPathOrigins origins, Map<TypeElement, List<ProviderConfigurationFileLine>> linesByService) throws IOException {
         for (Map.Entry<TypeElement, List<ProviderRef>> x : getRefByService(annotationRefs).entrySet()) {
-            registerClassPath(x.getKey(), x.getValue(), classPath);
+            linesByService.put(x.getKey(), registerClassPath(x.getKey(), x.getValue(), classPath, origins));
         }
     }
 
-    private void registerClassPath(TypeElement service, List<ProviderRef> refs, ClassPathRegistry classPath) throws IOException {
+    private List<ProviderConfigurationFileLine> registerClassPath(TypeElement service, List<ProviderRef> refs, ClassPathRegistry classPath, ClassPathOrigins origins) throws IOException {
         List<ProviderRef> providerRefs = generateDelegates(refs);
         providerRefs.sort(BY_PROVIDER_NAME);
 
+        Elements util = getEnv().getElementUtils();
         List<ProviderConfigurationFileLine> oldLines = classPath.readLinesByService(service);
         List<ProviderConfigurationFileLine> newLines = classPath.formatAll(service, providerRefs);
 
-        // Filter out duplicates - only add new lines that aren't already in oldLines
-        List<ProviderConfigurationFileLine> linesToAdd = newLines.stream()
-                .filter(newLine -> !oldLines.contains(newLine))
+        // delegates originate from the type that declares their field or method
+        Map<String, String> newOrigins = new LinkedHashMap<>();
+        for (int i = 0; i < newLines.size(); i++) {
+            newOrigins.put(newLines.get(i).getProviderBinaryName(), util.getBinaryName(providerRefs.get(i).getProvider()).toString());
+        }
+
+        List<ProviderConfigurationFileLine> result = origins.merge(util.getBinaryName(service).toString(), oldLines, newOrigins);
+        classPath.writeLinesByService(result, service, getOriginatingElements(refs));
+        return result;
+    }
+
+    private void pruneClassPath(Map<TypeElement, List<ProviderConfigurationFileLine>> linesByService, ClassPathRegistry classPath, ClassPathOrigins origins) throws IOException {
+        Elements util = getEnv().getElementUtils();
+        Set<String> registeredServices = linesByService.keySet().stream()
+                .map(service -> util.getBinaryName(service).toString())
+                .collect(Collectors.toSet());
+
+        // files of services that have no provider in this compilation may still reference deleted providers
+        for (String service : origins.getServices()) {
+            if (!registeredServices.contains(service)) {
+                List<ProviderConfigurationFileLine> oldLines = classPath.readLinesByService(service);
+                List<ProviderConfigurationFileLine> newLines = origins.merge(service, oldLines, Collections.emptyMap());
+                if (!newLines.equals(oldLines)) {
+                    classPath.writeLinesByService(newLines, service);
+                }
+            }
+        }
+    }
+
+    private List<TypeElement> registerProviderIds(List<ProviderRef> annotationRefs, ProviderIdRegistry registry) throws IOException {
+        List<TypeElement> result = new ArrayList<>();
+        ConstantIdExtractor extractor = new ConstantIdExtractor(getEnv());
+        List<ProviderRef> plainRefs = annotationRefs.stream()
+                .filter(ref -> !ref.getDelegateSource().isPresent())
+                .filter(ref -> !ref.getGeneratedProviderClassName().isPresent())
                 .collect(Collectors.toList());
+        for (Map.Entry<TypeElement, List<ProviderRef>> x : getRefByService(plainRefs).entrySet()) {
+            Map<String, String> oldIds = registry.readIdsByService(x.getKey());
+            Map<String, String> newIds = new TreeMap<>(oldIds);
+            for (ProviderRef ref : x.getValue()) {
+                String providerName = getEnv().getElementUtils().getBinaryName(ref.getProvider()).toString();
+                Optional<String> id = extractor.extract(ref.getService(), ref.getProvider());
+                // a stale entry would make loaders skip a provider, so it is removed when the ID is no longer constant
+                if (id.isPresent()) {
+                    newIds.put(providerName, id.get());
+                } else {
+                    newIds.remove(providerName);
+                }
+            }
+            if (!newIds.equals(oldIds)) {
+                registry.writeIdsByService(newIds, x.getKey(), getOriginatingElements(x.getValue()));
+            }
+            if (!newIds.isEmpty()) {
+                result.add(x.getKey());
+            }
+        }
+        return result;
+    }
 
-        classPath.writeLinesByService(concat(oldLines, linesToAdd), service);
+    private void registerNativeImage(List<ProviderRef> annotationRefs, List<BatchProviderRef> batchRefs, Map<TypeElement, List<ProviderConfigurationFileLine>> linesByService, List<TypeElement> servicesWithIds, ClassPathOrigins origins, NativeImageRegistry registry) throws IOException {
+        Elements util = getEnv().getElementUtils();
+
+        // providers of this compilation may only have a static provider() method; other classes have a public no-arg constructor
+        Map<String, List<String>> knownMethods = new HashMap<>();
+        for (ProviderRef ref : annotationRefs) {
+            if (!ref.getDelegateSource().isPresent() && !ref.getGeneratedProviderClassName().isPresent()) {
+                List<String> methods = Instantiator.allOf(getEnv().getTypeUtils(), ref.getService(), ref.getProvider())
+                        .stream()
+                        .filter(o -> o.getKind() == Instantiator.Kind.CONSTRUCTOR || (o.getKind() == Instantiator.Kind.STATIC_METHOD && o.getElement().getSimpleName().contentEquals("provider")))
+                        .map(o -> o.getKind() == Instantiator.Kind.CONSTRUCTOR ? "<init>" : "provider")
+                        .sorted()
+                        .collect(Collectors.toList());
+                knownMethods.put(util.getBinaryName(ref.getProvider()).toString(), methods);
+            }
+        }
+
+        // entries of previous compilations are kept as long as their providers and services are still registered
+        Set<String> registeredServices = origins.getServices();
+        Set<String> registeredProviders = origins.getOriginsByService().values().stream()
+                .flatMap(o -> o.keySet().stream())
+                .collect(Collectors.toSet());
+        SortedMap<String, List<String>> methodsByClassName = new TreeMap<>();
+        registry.readReflectConfig().forEach((name, methods) -> {
+            if (registeredProviders.contains(name)) methodsByClassName.put(name, methods);
+        });
+        SortedSet<String> resources = new TreeSet<>();
+        registry.readResourceConfig().forEach(resource -> {
+            if (registeredServices.contains(resource.substring(resource.lastIndexOf('/') + 1))) resources.add(resource);
+        });
+
+        for (Map.Entry<TypeElement, List<ProviderConfigurationFileLine>> x : linesByService.entrySet()) {
+            resources.add(ProviderConfigurationFileLine.getFileRelativeName(util.getBinaryName(x.getKey())));
+            x.getValue()
+                    .stream()
+                    .map(ProviderConfigurationFileLine::getProviderBinaryName)
+                    .filter(Objects::nonNull)
+                    .forEach(name -> methodsByClassName.put(name, knownMethods.getOrDefault(name, Collections.singletonList("<init>"))));
+        }
+        for (TypeElement service : servicesWithIds) {
+            resources.add(ProviderIdFile.getFileRelativeName(util.getBinaryName(service)));
+        }
+
+        // both files describe every provider of this compilation
+        Element[] originatingElements = Stream.concat(
+                        annotationRefs.stream().map(ProviderRef::getProvider),
+                        batchRefs.stream().map(BatchProviderRef::getEnumProvider))
+                .distinct()
+                .toArray(Element[]::new);
+        registry.writeReflectConfig(methodsByClassName, originatingElements);
+        registry.writeResourceConfig(resources, originatingElements);
+    }
+
+    private void registerClassList(List<ProviderRef> annotationRefs, List<BatchProviderRef> batchRefs, Map<TypeElement, List<ProviderConfigurationFileLine>> linesByService, ClassListRegistry registry) throws IOException {
+        Elements util = getEnv().getElementUtils();
+
+        // registered classes include generated delegates and batch providers
+        Map<TypeElement, SortedSet<String>> classesByService = new LinkedHashMap<>();
+        for (Map.Entry<TypeElement, List<ProviderConfigurationFileLine>> x : linesByService.entrySet()) {
+            SortedSet<String> classes = classesByService.computeIfAbsent(x.getKey(), service -> new TreeSet<>());
+            classes.add(util.getBinaryName(x.getKey()).toString());
+            x.getValue()
+                    .stream()
+                    .map(ProviderConfigurationFileLine::getProviderBinaryName)
+                    .filter(Objects::nonNull)
+                    .forEach(classes::add);
+        }
+
+        // sources of delegates and batch providers are loaded as well
+        Map<TypeElement, Set<Element>> providersByService = new HashMap<>();
+        for (ProviderRef ref : annotationRefs) {
+            classesByService.computeIfAbsent(ref.getService(), service -> new TreeSet<>()).add(util.getBinaryName(ref.getProvider()).toString());
+            providersByService.computeIfAbsent(ref.getService(), service -> new LinkedHashSet<>()).add(ref.getProvider());
+        }
+        for (BatchProviderRef ref : batchRefs) {
+            SortedSet<String> classes = classesByService.computeIfAbsent(ref.getBatchType(), service -> new TreeSet<>());
+            classes.add(util.getBinaryName(ref.getEnumProvider()).toString());
+            classes.add(util.getBinaryName(ref.getService()).toString());
+            providersByService.computeIfAbsent(ref.getBatchType(), service -> new LinkedHashSet<>()).add(ref.getEnumProvider());
+        }
+
+        for (Map.Entry<TypeElement, SortedSet<String>> x : classesByService.entrySet()) {
+            Name serviceName = util.getBinaryName(x.getKey());
+            SortedSet<String> oldClasses = registry.read(serviceName);
+            SortedSet<String> newClasses = new TreeSet<>(oldClasses);
+            newClasses.addAll(x.getValue());
+            registry.write(serviceName, newClasses, providersByService.getOrDefault(x.getKey(), Collections.emptySet()).toArray(new Element[0]));
+        }
     }
 
     private List<ProviderRef> generateDelegates(List<ProviderRef> refs) {
@@ -114,7 +285,7 @@ final class ServiceProviderGenerator extends ProcessorTool {
         ProcessorUtil.write(getEnv(), javaFile);
 
         // Return the fully qualified class name
-        return packageName.isEmpty() ? delegateClassName : packageName + "." + delegateClassName;
+        return ProviderRef.getDelegateClassName(getEnv().getElementUtils(), ref.getProvider(), source);
     }
 
     private TypeSpec buildDelegateClass(ClassName serviceType, String className, List<ExecutableElement> methods,
@@ -140,6 +311,7 @@ final class ServiceProviderGenerator extends ProcessorTool {
                 .addJavadoc("<p>This class delegates all method calls to {@code $T.$L}.</p>\n",
                         provider, source.getSimpleName())
                 .addJavadoc("<p>Generated by {@code @ServiceProvider} annotation processor.</p>\n")
+                .addOriginatingElement(provider)
                 .addSuperinterface(serviceType)
                 .addField(delegateField)
                 .addMethod(constructor);
@@ -265,7 +437,7 @@ final class ServiceProviderGenerator extends ProcessorTool {
         List<BatchProviderRegistration> result = new ArrayList<>();
         for (BatchProviderRef ref : batchRefs) {
             String providerClassName = generateBatchProvider(ref);
-            result.add(new BatchProviderRegistration(ref.getBatchType(), providerClassName));
+            result.add(new BatchProviderRegistration(ref.getBatchType(), ref.getEnumProvider(), providerClassName));
         }
         return result;
     }
@@ -282,18 +454,14 @@ final class ServiceProviderGenerator extends ProcessorTool {
                 : packageName + "." + ref.getEnumProvider().getSimpleName() + "BatchProvider";
     }
 
-    private void registerBatchProviders(List<BatchProviderRegistration> registrations, ClassPathRegistry classPath) throws IOException {
+    private void registerBatchProviders(List<BatchProviderRegistration> registrations, ClassPathRegistry classPath, ClassPathOrigins origins, Map<TypeElement, List<ProviderConfigurationFileLine>> linesByService) throws IOException {
         for (BatchProviderRegistration registration : registrations) {
             List<ProviderConfigurationFileLine> oldLines = classPath.readLinesByService(registration.getBatchService());
-            List<ProviderConfigurationFileLine> newLines = new ArrayList<>();
-            newLines.add(ProviderConfigurationFileLine.ofProviderBinaryName(registration.getProviderClassName()));
-
-            // Filter out duplicates
-            List<ProviderConfigurationFileLine> linesToAdd = newLines.stream()
-                    .filter(newLine -> !oldLines.contains(newLine))
-                    .collect(Collectors.toList());
+            Map<String, String> newOrigins = Collections.singletonMap(registration.getProviderClassName(), getEnv().getElementUtils().getBinaryName(registration.getEnumProvider()).toString());
 
-            classPath.writeLinesByService(concat(oldLines, linesToAdd), registration.getBatchService());
+            List<ProviderConfigurationFileLine> lines = origins.merge(getEnv().getElementUtils().getBinaryName(registration.getBatchService()).toString(), oldLines, newOrigins);
+            classPath.writeLinesByService(lines, registration.getBatchService(), registration.getEnumProvider());
+            linesByService.put(registration.getBatchService(), lines);
         }
     }
 
@@ -301,37 +469,61 @@ final class ServiceProviderGenerator extends ProcessorTool {
         String className = ref.getEnumProvider().getSimpleName() + "BatchProvider";
         ClassName enumName = ClassName.get(ref.getEnumProvider());
         ClassName batchName = ClassName.get(ref.getBatchType());
+        BatchMethodHelper.ReturnKind kind = BatchMethodHelper.resolve(
+                ref.getBatchMethodReturnType(), ref.getService(),
+                getEnv().getTypeUtils(), getEnv().getElementUtils()
+        );
 
         MethodSpec method = MethodSpec.methodBuilder(ref.getBatchMethodName())
                 .addModifiers(Modifier.PUBLIC)
                 .addAnnotation(Override.class)
                 .returns(TypeName.get(ref.getBatchMethodReturnType()))
-                .addStatement("return $L", buildBatchMethodBody(enumName, ref))
+                .addStatement("return $L", buildBatchMethodBody(enumName, kind))
                 .build();
 
-        return TypeSpec.classBuilder(className)
+        TypeSpec.Builder result = TypeSpec.classBuilder(className)
                 .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
                 .addSuperinterface(batchName)
+                .addOriginatingElement(ref.getEnumProvider());
+
+        // Enum#values() clones its array on each call, so the values are copied once into an immutable list
+        if (kind != BatchMethodHelper.ReturnKind.ARRAY) {
+            TypeName listType = ParameterizedTypeName.get(ClassName.get(List.class), ClassName.get(ref.getService()));
+            result.addField(FieldSpec.builder(listType, BATCH_VALUES, Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                    .initializer("$T.unmodifiableList($T.asList($T.values()))", Collections.class, Arrays.class, enumName)
+                    .build());
+        }
+
+        return result
                 .addMethod(method)
                 .build();
     }
 
-    private CodeBlock buildBatchMethodBody(ClassName enumName, BatchProviderRef ref) {
-        BatchMethodHelper.ReturnKind kind = BatchMethodHelper.resolve(
-                ref.getBatchMethodReturnType(), ref.getService(),
-                getEnv().getTypeUtils(), getEnv().getElementUtils()
-        );
-
-        if (kind == BatchMethodHelper.ReturnKind.STREAM) {
-            return CodeBlock.of("$T.stream($T.values())", Arrays.class, enumName);
-        } else if (kind == BatchMethodHelper.ReturnKind.ARRAY) {
-            return CodeBlock.of("$T.values()", enumName);
-        } else {
-            return CodeBlock.of("$T.asList($T.values())", Arrays.class, enumName);
+    private static CodeBlock buildBatchMethodBody(ClassName enumName, BatchMethodHelper.ReturnKind kind) {
+        switch (kind) {
+            case STREAM:
+                return CodeBlock.of("$L.stream()", BATCH_VALUES);
+            case ITERATOR:
+                return CodeBlock.of("$L.iterator()", BATCH_VALUES);
+            case ARRAY:
+                // arrays are mutable so each caller gets its own copy
+                return CodeBlock.of("$T.values()", enumName);
+            default:
+                return CodeBlock.of("$L", BATCH_VALUES);
         }
     }
 
 
+    private static SortedMap<String, SortedMap<String, String>> copyOf(SortedMap<String, SortedMap<String, String>> originsByService) {
+        SortedMap<String, SortedMap<String, String>> result = new TreeMap<>();
+        originsByService.forEach((service, origins) -> result.put(service, new TreeMap<>(origins)));
+        return result;
+    }
+
+    private static Element[] getOriginatingElements(List<ProviderRef> refs) {
+        return refs.stream().map(ProviderRef::getProvider).distinct().toArray(Element[]::new);
+    }
+
     private static Map<TypeElement, List<ProviderRef>> getRefByService(List<ProviderRef> annotationRefs) {
         return annotationRefs.stream().collect(groupingBy(ProviderRef::getService));
     }
@@ -340,5 +532,7 @@ final class ServiceProviderGenerator extends ProcessorTool {
         return Stream.concat(first.stream(), second.stream()).collect(Collectors.toList());
     }
 
+    private static final String BATCH_VALUES = "VALUES";
+
     private static final Comparator<ProviderRef> BY_PROVIDER_NAME = Comparator.comparing(ref -> ref.getProvider().getQualifiedName().toString());
 }
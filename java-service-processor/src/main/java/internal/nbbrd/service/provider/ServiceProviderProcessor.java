@@ -16,10 +16,13 @@
  */
 package internal.nbbrd.service.provider;
 
+import internal.nbbrd.service.ClassListRegistry;
+
 import javax.annotation.processing.AbstractProcessor;
 import javax.annotation.processing.Processor;
 import javax.annotation.processing.RoundEnvironment;
 import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedOptions;
 import javax.lang.model.SourceVersion;
 import javax.lang.model.element.TypeElement;
 import javax.tools.Diagnostic;
@@ -35,8 +38,18 @@ import java.util.Set;
         "nbbrd.service.ServiceProvider",
         "nbbrd.service.ServiceProvider.List"
 })
+@SupportedOptions({
+        ServiceProviderProcessor.NATIVE_IMAGE_OPTION,
+        ClassListRegistry.OPTION
+})
 public final class ServiceProviderProcessor extends AbstractProcessor {
 
+    /**
+     * Path of the native-image configuration in {@code META-INF/native-image/}, usually {@code <groupId>/<artifactId>}.
+     * No configuration is generated if the option is missing.
+     */
+    public static final String NATIVE_IMAGE_OPTION = "nbbrd.service.nativeImage";
+
     private final ServiceProviderCollector collector = new ServiceProviderCollector(() -> processingEnv);
 
     private final ServiceProviderChecker checker = new ServiceProviderChecker(() -> processingEnv);
@@ -56,7 +69,7 @@ public final class ServiceProviderProcessor extends AbstractProcessor {
             List<ProviderRef> providers = collector.build();
             try {
                 if (checker.check(providers)) {
-                    generator.generate(providers);
+                    generator.generate(providers, collector.getCompiledTypes());
                 }
             } catch (IOException ex) {
                 reportUnexpectedError(ex);
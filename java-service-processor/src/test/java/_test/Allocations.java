@@ -0,0 +1,73 @@
+package _test;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+public final class Allocations {
+
+    private Allocations() {
+        // static class
+    }
+
+    private static final int WARMUP_CALLS = 20_000;
+    private static final int MEASURED_CALLS = 100_000;
+
+    public static boolean isSupported() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        return bean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()
+                && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemoryEnabled();
+    }
+
+    /**
+     * Checks if the JIT compiler removes the allocations of objects that do not escape, as C2 does by default.
+     * This is not the case with the interpreter, with C1 only or with another compiler such as Graal.
+     *
+     * @return true if escape analysis is performed, false otherwise
+     */
+    public static boolean isEscapeAnalysisEnabled() {
+        HotSpotDiagnosticMXBean bean = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+        if (bean == null || ManagementFactory.getCompilationMXBean() == null) {
+            return false;
+        }
+        return isVMOptionEnabled(bean, "UseCompiler")
+                && isVMOptionEnabled(bean, "DoEscapeAnalysis")
+                && !isVMOptionEnabled(bean, "UseJVMCICompiler")
+                && (!isVMOptionEnabled(bean, "TieredCompilation") || "4".equals(getVMOption(bean, "TieredStopAtLevel")));
+    }
+
+    private static boolean isVMOptionEnabled(HotSpotDiagnosticMXBean bean, String name) {
+        return "true".equals(getVMOption(bean, name));
+    }
+
+    private static String getVMOption(HotSpotDiagnosticMXBean bean, String name) {
+        try {
+            return bean.getVMOption(name).getValue();
+        } catch (IllegalArgumentException ex) {
+            // option not available in this VM
+            return null;
+        }
+    }
+
+    /**
+     * Measures the bytes allocated by the current thread per call of a task, once warmed up.
+     * The constant overhead of the measurement is smaller than the number of calls and is therefore rounded off.
+     *
+     * @param task the task to measure
+     * @return the number of bytes per call
+     */
+    public static long getAllocatedBytesPerCall(Runnable task) {
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        for (int i = 0; i < WARMUP_CALLS; i++) {
+            task.run();
+        }
+        long start = bean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < MEASURED_CALLS; i++) {
+            task.run();
+        }
+        return (bean.getThreadAllocatedBytes(threadId) - start) / MEASURED_CALLS;
+    }
+}
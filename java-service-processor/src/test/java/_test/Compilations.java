@@ -12,12 +12,19 @@ import javax.tools.Diagnostic;
 import javax.tools.JavaFileManager;
 import javax.tools.JavaFileObject;
 import java.io.BufferedReader;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.StringReader;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Locale;
 
 import static java.util.stream.Collectors.toList;
+import static javax.tools.StandardLocation.CLASS_OUTPUT;
 import static javax.tools.StandardLocation.SOURCE_OUTPUT;
 import static org.assertj.core.api.HamcrestCondition.matching;
 import static org.assertj.core.condition.MappedCondition.mappedCondition;
@@ -72,6 +79,22 @@ public final class Compilations {
         return mappedCondition(JavaFileObject::getName, matching(equalTo(expected)));
     }
 
+    /**
+     * Checks if a generated file has been written since the files that are only looked up are also reported.
+     *
+     * @param file a generated file
+     * @return true if the file has content
+     */
+    public static boolean isWritten(JavaFileObject file) {
+        try (InputStream ignored = file.openInputStream()) {
+            return true;
+        } catch (FileNotFoundException ex) {
+            return false;
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
     public static Condition<JavaFileObject> sourceFileNamed(String packageName, String relativeName) {
         String expected = getFileName(SOURCE_OUTPUT, packageName, relativeName);
         return mappedCondition(JavaFileObject::getName, matching(equalTo(expected)));
@@ -93,4 +116,27 @@ public final class Compilations {
     public static List<String> contentsAsUtf8StringList(JavaFileObject file) {
         return new BufferedReader(new StringReader(contentsAsUtf8String(file))).lines().collect(toList());
     }
+
+    /**
+     * Creates a class loader over the classes and resources generated by a compilation.
+     *
+     * @param compilation a successful compilation
+     * @param dir         an empty directory where the generated files are copied
+     * @return a class loader that must be closed after use
+     */
+    public static URLClassLoader newClassLoader(Compilation compilation, Path dir) throws IOException {
+        String prefix = "/" + CLASS_OUTPUT.getName() + "/";
+        for (JavaFileObject file : compilation.generatedFiles()) {
+            if (file.getName().startsWith(prefix)) {
+                Path target = dir.resolve(file.getName().substring(prefix.length()));
+                Files.createDirectories(target.getParent());
+                try (InputStream stream = file.openInputStream()) {
+                    Files.copy(stream, target);
+                } catch (FileNotFoundException ex) {
+                    // resources that were looked up but never written
+                }
+            }
+        }
+        return new URLClassLoader(new URL[]{dir.toUri().toURL()}, Compilations.class.getClassLoader());
+    }
 }
@@ -0,0 +1,114 @@
+package _test;
+
+import javax.annotation.processing.*;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Wraps a processor to record the originating elements of the files it creates through the {@link Filer}.
+ */
+public final class OriginRecorder implements Processor {
+
+    public static final String GRADLE_DESCRIPTOR = "META-INF/gradle/incremental.annotation.processors";
+
+    public static List<String> getGradleDescriptorLines() throws IOException {
+        try (InputStream stream = OriginRecorder.class.getClassLoader().getResourceAsStream(GRADLE_DESCRIPTOR)) {
+            if (stream == null) {
+                throw new IOException("Missing resource " + GRADLE_DESCRIPTOR);
+            }
+            return new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8)).lines().collect(toList());
+        }
+    }
+
+    private final Processor delegate;
+    private final Map<String, List<String>> originsByFile = new LinkedHashMap<>();
+
+    public OriginRecorder(Processor delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Gets the originating elements by file: source files are named after their type
+     * and resources after their relative name.
+     *
+     * @return a non-null map
+     */
+    public Map<String, List<String>> getOriginsByFile() {
+        return originsByFile;
+    }
+
+    @Override
+    public void init(ProcessingEnvironment env) {
+        Filer filer = newProxy(Filer.class, (proxy, method, args) -> {
+            if (method.getName().startsWith("create")) {
+                record(args);
+            }
+            return invoke(method, env.getFiler(), args);
+        });
+        delegate.init(newProxy(ProcessingEnvironment.class, (proxy, method, args) ->
+                method.getName().equals("getFiler") ? filer : invoke(method, env, args)));
+    }
+
+    private void record(Object[] args) {
+        // createSourceFile(name, elements...) or createResource(location, pkg, relativeName, elements...)
+        String name = (args.length == 2 ? args[0] : args[2]).toString();
+        Element[] elements = (Element[]) args[args.length - 1];
+        originsByFile.put(name, Stream.of(elements).map(Object::toString).collect(toList()));
+    }
+
+    @Override
+    public Set<String> getSupportedOptions() {
+        return delegate.getSupportedOptions();
+    }
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return delegate.getSupportedAnnotationTypes();
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return delegate.getSupportedSourceVersion();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        return delegate.process(annotations, roundEnv);
+    }
+
+    @Override
+    public Iterable<? extends Completion> getCompletions(Element element, AnnotationMirror annotation, ExecutableElement member, String userText) {
+        return delegate.getCompletions(element, annotation, member, userText);
+    }
+
+    private static <T> T newProxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(OriginRecorder.class.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+
+    private static Object invoke(Method method, Object target, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException ex) {
+            throw ex.getCause();
+        }
+    }
+}
@@ -23,6 +23,12 @@ public class BlocksTest {
                 .hasToString("java.util.stream.StreamSupport.stream(hello.spliterator(), false)");
     }
 
+    @Test
+    public void testCollectionToStream() {
+        assertThat(collectionToStream(CodeBlock.of("hello"), TypeName.get(String.class)))
+                .hasToString("hello.stream().filter(java.lang.String.class::isInstance).map(java.lang.String.class::cast)");
+    }
+
     @Test
     public void testConcatStreams() {
         assertThat(concatStreams(CodeBlock.of("first"), CodeBlock.of("second")))
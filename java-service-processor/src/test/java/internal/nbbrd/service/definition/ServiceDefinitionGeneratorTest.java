@@ -5,7 +5,10 @@ import com.squareup.javapoet.TypeSpec;
 import nbbrd.service.Quantifier;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledForJreRange;
+import org.junit.jupiter.api.condition.JRE;
 
+import javax.lang.model.SourceVersion;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Optional;
@@ -29,7 +32,7 @@ public class ServiceDefinitionGeneratorTest {
     }
 
     private static ServiceDefinitionGenerator generatorOf(LoadDefinition definition) {
-        return new ServiceDefinitionGenerator(definition, emptyList(), emptyList(), emptyList());
+        return new ServiceDefinitionGenerator(definition, emptyList(), emptyList(), emptyList(), SourceVersion.RELEASE_8, false);
     }
 
     @Nested
@@ -258,6 +261,186 @@ public class ServiceDefinitionGeneratorTest {
         }
     }
 
+    @Nested
+    class CachedTest {
+
+        private LoadDefinition cachedDefinition(Quantifier quantifier) {
+            return LoadDefinition.builder()
+                    .quantifier(quantifier)
+                    .serviceType(SERVICE_TYPE)
+                    .fallback(Optional.empty())
+                    .loaderName("")
+                    .batch(Optional.empty())
+                    .cached(true)
+                    .build();
+        }
+
+        @Test
+        public void doesNotIncludeSnapshotFieldByDefault() {
+            TypeSpec typeSpec = generatorOf(baseDefinition(SERVICE_TYPE, Quantifier.OPTIONAL)).generateLoader(false);
+            assertThat(typeSpec.fieldSpecs)
+                    .extracting(f -> f.name)
+                    .doesNotContain("snapshot");
+            assertThat(typeSpec.typeSpecs)
+                    .extracting(t -> t.name)
+                    .containsExactly("Sources", "Memo", "Builder");
+        }
+
+        @Test
+        public void includesVolatileSnapshotFieldOfQuantifierType() {
+            for (Quantifier quantifier : Quantifier.values()) {
+                TypeSpec typeSpec = generatorOf(cachedDefinition(quantifier)).generateLoader(false);
+                String getReturn = typeSpec.methodSpecs.stream()
+                        .filter(m -> m.name.equals("get"))
+                        .findFirst().orElseThrow(AssertionError::new)
+                        .returnType.toString();
+                TypeSpec sourcesSpec = typeSpec.typeSpecs.stream()
+                        .filter(t -> t.name.equals("Sources"))
+                        .findFirst().orElseThrow(AssertionError::new);
+                assertThat(typeSpec.fieldSpecs)
+                        .extracting(f -> f.name)
+                        .doesNotContain("snapshot");
+                assertThat(sourcesSpec.fieldSpecs)
+                        .filteredOn(f -> f.name.equals("snapshot"))
+                        .singleElement()
+                        .satisfies(f -> assertThat(f.modifiers).contains(PRIVATE, VOLATILE))
+                        .extracting(f -> f.type.toString())
+                        .isEqualTo(getReturn);
+            }
+        }
+
+        @Test
+        public void synchronizesReloadAndSnapshotLoading() {
+            TypeSpec typeSpec = generatorOf(cachedDefinition(Quantifier.OPTIONAL)).generateLoader(false);
+            assertThat(typeSpec.methodSpecs)
+                    .filteredOn(m -> m.name.equals("loadSnapshot"))
+                    .singleElement()
+                    .satisfies(m -> assertThat(m.code.toString()).contains("synchronized (current) {"));
+            assertThat(typeSpec.methodSpecs)
+                    .filteredOn(m -> m.name.equals("reload"))
+                    .singleElement()
+                    .satisfies(m -> assertThat(m.code.toString()).contains("synchronized (this) {"));
+        }
+
+        @Test
+        public void includesPrivateSharedInstanceHolder() {
+            TypeSpec typeSpec = generatorOf(cachedDefinition(Quantifier.OPTIONAL)).generateLoader(false);
+            assertThat(typeSpec.typeSpecs)
+                    .filteredOn(t -> t.name.equals("Shared"))
+                    .singleElement()
+                    .satisfies(t -> assertThat(t.modifiers).contains(PRIVATE, STATIC, FINAL));
+        }
+    }
+
+    @Nested
+    class ProviderHandleTest {
+
+        @Test
+        public void doesNotUseProviderHandlesBeforeJava9() {
+            ServiceDefinitionGenerator gen = generatorOf(baseDefinition(SERVICE_TYPE, Quantifier.OPTIONAL));
+            assertThat(gen.hasProviderHandles()).isFalse();
+            assertThat(gen.generateLoader(false).methodSpecs)
+                    .extracting(m -> m.name)
+                    .doesNotContain("isInstance", "getInstance");
+        }
+
+        @Test
+        public void usesProviderHandlesSinceJava9() {
+            ServiceDefinitionGenerator gen = new ServiceDefinitionGenerator(baseDefinition(SERVICE_TYPE, Quantifier.OPTIONAL), emptyList(), emptyList(), emptyList(), SourceVersion.values()[9], false);
+            assertThat(gen.hasProviderHandles()).isTrue();
+            TypeSpec loader = gen.generateLoader(false);
+            assertThat(loader.methodSpecs)
+                    .filteredOn(m -> m.name.equals("isInstance"))
+                    .singleElement()
+                    .satisfies(m -> assertThat(m.modifiers).contains(PRIVATE, STATIC));
+            assertThat(loader.typeSpecs)
+                    .filteredOn(t -> t.name.equals("Sources"))
+                    .singleElement()
+                    .satisfies(t -> assertThat(t.fieldSpecs).extracting(f -> f.name).contains("instances"))
+                    .satisfies(t -> assertThat(t.methodSpecs)
+                            .filteredOn(m -> m.name.equals("getInstance") || m.name.equals("reuse"))
+                            .hasSize(2)
+                            .allSatisfy(m -> assertThat(m.modifiers).contains(PRIVATE).doesNotContain(STATIC)));
+            assertThat(gen.generateBuilder().fieldSpecs)
+                    .filteredOn(f -> f.name.equals("streamer"))
+                    .singleElement()
+                    .extracting(f -> f.initializer.toString())
+                    .isEqualTo("backend -> () -> ((java.util.ServiceLoader<?>) backend).stream().map(Object.class::cast).iterator()");
+        }
+    }
+
+    @Nested
+    class BuilderOptionsTest {
+
+        @Test
+        public void doesNotIncludeOptionsByDefault() {
+            ServiceDefinitionGenerator gen = generatorOf(baseDefinition(SERVICE_TYPE, Quantifier.MULTIPLE));
+            assertThat(gen.generateBuilder().methodSpecs)
+                    .extracting(m -> m.name)
+                    .containsExactly("backend", "backend", "build");
+        }
+
+        @Test
+        public void includesEnabledOptions() {
+            ServiceDefinitionGenerator gen = generatorOf(optionsDefinition(true, true, true));
+            assertThat(gen.generateBuilder().methodSpecs)
+                    .extracting(m -> m.name)
+                    .containsExactly("backend", "backend", "executor", "listener", "refreshAfter", "build", "createBackend", "observeInstantiation");
+            assertThat(gen.generateLoader(false).typeSpecs)
+                    .extracting(t -> t.name)
+                    .containsExactly("Listener", "Sources", "Memo", "Refresher", "Builder");
+        }
+
+        @Test
+        public void includesListenerWithFlightRecorder() {
+            ServiceDefinitionGenerator gen = new ServiceDefinitionGenerator(baseDefinition(SERVICE_TYPE, Quantifier.MULTIPLE), emptyList(), emptyList(), emptyList(), SourceVersion.RELEASE_11, true);
+            assertThat(gen.hasListener()).isTrue();
+            assertThat(gen.generateBuilder().methodSpecs)
+                    .extracting(m -> m.name)
+                    .contains("listener")
+                    .doesNotContain("executor", "refreshAfter");
+        }
+    }
+
+    private static LoadDefinition optionsDefinition(boolean observable, boolean concurrent, boolean refreshable) {
+        return LoadDefinition.builder()
+                .quantifier(Quantifier.MULTIPLE)
+                .serviceType(SERVICE_TYPE)
+                .fallback(Optional.empty())
+                .loaderName("")
+                .batch(Optional.empty())
+                .observable(observable)
+                .concurrent(concurrent)
+                .refreshable(refreshable)
+                .build();
+    }
+
+    @Nested
+    class VirtualThreadsTest {
+
+        @Test
+        public void isNotGeneratedBeforeJava21() {
+            ServiceDefinitionGenerator gen = generatorOf(optionsDefinition(false, true, false));
+            assertThat(gen.hasVirtualThreads()).isFalse();
+            assertThat(gen.generateBuilder().methodSpecs)
+                    .extracting(m -> m.name)
+                    .contains("executor")
+                    .doesNotContain("virtualThreads");
+        }
+
+        @Test
+        @EnabledForJreRange(min = JRE.JAVA_21)
+        public void usesVirtualThreadsSinceJava21() {
+            ServiceDefinitionGenerator gen = new ServiceDefinitionGenerator(optionsDefinition(false, true, false), emptyList(), emptyList(), emptyList(), SourceVersion.valueOf("RELEASE_21"), false);
+            assertThat(gen.hasVirtualThreads()).isTrue();
+            assertThat(gen.generateBuilder().methodSpecs)
+                    .filteredOn(m -> m.name.equals("virtualThreads"))
+                    .singleElement()
+                    .extracting(m -> m.code.toString())
+                    .isEqualTo("return executor(java.lang.Thread::startVirtualThread);\n");
+        }
+    }
+
     @Nested
     class AllOfTest {
 
@@ -267,7 +450,8 @@ public class ServiceDefinitionGeneratorTest {
                     emptyList(),
                     Collections.emptyMap(),
                     Collections.emptyMap(),
-                    Collections.emptyMap()))
+                    Collections.emptyMap(),
+                    SourceVersion.RELEASE_8, false))
                     .isEmpty();
         }
 
@@ -283,7 +467,8 @@ public class ServiceDefinitionGeneratorTest {
                     ),
                     Collections.emptyMap(),
                     Collections.emptyMap(),
-                    Collections.emptyMap()))
+                    Collections.emptyMap(),
+                    SourceVersion.RELEASE_8, false))
                     .hasSize(2)
                     .extracting(g -> g.getDefinition().getServiceType())
                     .containsExactly(type1, type2);
@@ -303,7 +488,8 @@ public class ServiceDefinitionGeneratorTest {
                     ),
                     Collections.emptyMap(),
                     Collections.emptyMap(),
-                    Collections.emptyMap()))
+                    Collections.emptyMap(),
+                    SourceVersion.RELEASE_8, false))
                     .extracting(g -> g.getDefinition().getServiceType())
                     .containsExactly(type1, type2, type3);
         }
@@ -319,7 +505,8 @@ public class ServiceDefinitionGeneratorTest {
                     definition,
                     Collections.emptyMap(),
                     Collections.emptyMap(),
-                    Collections.emptyMap());
+                    Collections.emptyMap(),
+                    SourceVersion.RELEASE_8, false);
             assertThat(gen.getFilters()).isEmpty();
             assertThat(gen.getSorters()).isEmpty();
             assertThat(gen.getIds()).isEmpty();
@@ -332,7 +519,8 @@ public class ServiceDefinitionGeneratorTest {
                     definition,
                     Collections.emptyMap(),
                     Collections.emptyMap(),
-                    Collections.emptyMap());
+                    Collections.emptyMap(),
+                    SourceVersion.RELEASE_8, false);
             assertThat(gen.getDefinition()).isSameAs(definition);
         }
     }
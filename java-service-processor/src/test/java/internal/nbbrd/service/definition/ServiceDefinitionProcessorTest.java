@@ -16,26 +16,38 @@
  */
 package internal.nbbrd.service.definition;
 
+import _test.Allocations;
 import _test.Compilations;
+import _test.OriginRecorder;
 import com.google.testing.compile.Compilation;
 import com.google.testing.compile.Compiler;
 import com.google.testing.compile.JavaFileObjects;
+import internal.nbbrd.service.ClassListRegistry;
 import internal.nbbrd.service.provider.ServiceProviderProcessor;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import javax.annotation.processing.Processor;
 import javax.tools.Diagnostic;
 import javax.tools.JavaFileObject;
+import java.io.IOException;
+import java.net.URLClassLoader;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.ServiceLoader;
 
 import static _test.Compilations.*;
 import static com.google.testing.compile.JavaFileObjects.forResource;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+import static org.assertj.core.api.InstanceOfAssertFactories.LIST;
 import static org.assertj.core.api.InstanceOfAssertFactories.STRING;
 import static org.assertj.core.groups.Tuple.tuple;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 /**
  * @author Philippe Charles
@@ -133,6 +145,10 @@ public class ServiceDefinitionProcessorTest {
                     .extracting(Compilations::contentsAsUtf8String, STRING)
                     .contains(
                             "public static Optional<TestQuantifierOptional.Mutable> load()"
+                    )
+                    .doesNotContain(
+                            "public Stream<TestQuantifierOptional.Mutable> stream()",
+                            "public Iterator<TestQuantifierOptional.Mutable> iterator()"
                     );
         }
 
@@ -150,7 +166,10 @@ public class ServiceDefinitionProcessorTest {
                     .has(sourceFileNamed("definition", "TestQuantifierMultipleLoader.java"))
                     .extracting(Compilations::contentsAsUtf8String, STRING)
                     .contains(
-                            "public static List<TestQuantifierMultiple.Mutable> load()"
+                            "public static List<TestQuantifierMultiple.Mutable> load()",
+                            "private Stream<TestQuantifierMultiple.Mutable> gather(Sources current)",
+                            "public Stream<TestQuantifierMultiple.Mutable> stream()",
+                            "public Iterator<TestQuantifierMultiple.Mutable> iterator()"
                     );
         }
     }
@@ -209,10 +228,14 @@ public class ServiceDefinitionProcessorTest {
                     .extracting(Compilations::contentsAsUtf8String, STRING)
                     .contains(
                             ".filter(filter)",
-                            "private final Predicate<TestFilterValid.SingleFilter> filter = TestFilterValid.SingleFilter::isAvailable",
-                            "private final Predicate<TestFilterValid.MultiFilter> filter = ((Predicate<TestFilterValid.MultiFilter>)TestFilterValid.MultiFilter::isAvailable).and(TestFilterValid.MultiFilter::isFastEnough)",
-                            "private final Predicate<TestFilterValid.ReversedFilter> filter = ((Predicate<TestFilterValid.ReversedFilter>)TestFilterValid.ReversedFilter::isAvailable).negate()",
-                            "private final Predicate<TestFilterValid.MultiFilterWithPosition> filter = ((Predicate<TestFilterValid.MultiFilterWithPosition>)TestFilterValid.MultiFilterWithPosition::isFastEnough).and(TestFilterValid.MultiFilterWithPosition::isAvailable)"
+                            "private final Predicate<TestFilterValid.SingleFilter> filter;",
+                            "this.filter = TestFilterValid.SingleFilter::isAvailable;",
+                            "private final Predicate<TestFilterValid.MultiFilter> filter;",
+                            "this.filter = ((Predicate<TestFilterValid.MultiFilter>)TestFilterValid.MultiFilter::isAvailable).and(TestFilterValid.MultiFilter::isFastEnough);",
+                            "private final Predicate<TestFilterValid.ReversedFilter> filter;",
+                            "this.filter = ((Predicate<TestFilterValid.ReversedFilter>)TestFilterValid.ReversedFilter::isAvailable).negate();",
+                            "private final Predicate<TestFilterValid.MultiFilterWithPosition> filter;",
+                            "this.filter = ((Predicate<TestFilterValid.MultiFilterWithPosition>)TestFilterValid.MultiFilterWithPosition::isFastEnough).and(TestFilterValid.MultiFilterWithPosition::isAvailable);"
                     );
         }
 
@@ -304,17 +327,88 @@ public class ServiceDefinitionProcessorTest {
                     .has(sourceFileNamed("definition", "TestSorterValidLoader.java"))
                     .extracting(Compilations::contentsAsUtf8String, STRING)
                     .contains(
-                            ".sorted(sorter)",
-                            "Comparator.comparingInt(TestSorterValid.IntSorter::getCost)",
-                            "Comparator.comparingLong(TestSorterValid.LongSorter::getCost)",
-                            "Comparator.comparingDouble(TestSorterValid.DoubleSorter::getCost)",
-                            "Comparator.comparing(TestSorterValid.ComparableSorter::getCost)",
-                            "((Comparator<TestSorterValid.MultiSorter>)Comparator.comparingInt(TestSorterValid.MultiSorter::getCost)).thenComparing(Comparator.comparingDouble(TestSorterValid.MultiSorter::getAccuracy))",
-                            "Collections.reverseOrder(Comparator.comparingInt(TestSorterValid.ReversedSorter::getCost))",
-                            "((Comparator<TestSorterValid.MultiSorterWithPosition>)Comparator.comparingDouble(TestSorterValid.MultiSorterWithPosition::getAccuracy)).thenComparing(Comparator.comparingInt(TestSorterValid.MultiSorterWithPosition::getCost))"
+                            ".map(SortKey::new)",
+                            ".min(Comparator.naturalOrder())",
+                            ".map(o -> o.provider)",
+                            "private static final class SortKey implements Comparable<SortKey> {",
+                            "private final int index;",
+                            "private final int key0;",
+                            "private final long key0;",
+                            "private final double key0;",
+                            "private final String key0;",
+                            "this.key0 = provider.getCost();",
+                            "int result = Integer.compare(key0, that.key0);",
+                            "int result = Long.compare(key0, that.key0);",
+                            "int result = Double.compare(key0, that.key0);",
+                            "int result = key0.compareTo(that.key0);",
+                            "result = Double.compare(key1, that.key1);",
+                            "int result = Integer.compare(that.key0, key0);",
+                            "result = Integer.compare(key1, that.key1);",
+                            "return Integer.compare(index, that.index);"
+                    )
+                    .doesNotContain(".sorted()");
+        }
+
+        @Test
+        public void testPrimitive() {
+            JavaFileObject file = forResource("definition/TestSorterPrimitive.java");
+
+            assertThat(compile(file))
+                    .has(succeededWithoutWarnings())
+                    .extracting(Compilation::generatedSourceFiles, JAVA_FILE_OBJECTS)
+                    .singleElement()
+                    .extracting(Compilations::contentsAsUtf8String, STRING)
+                    .contains(
+                            "private final float key0;",
+                            "int result = Float.compare(key0, that.key0);",
+                            "private final short key0;",
+                            "int result = Short.compare(key0, that.key0);",
+                            "private final byte key0;",
+                            "int result = Byte.compare(key0, that.key0);",
+                            "private final char key0;",
+                            "int result = Character.compare(key0, that.key0);",
+                            "private final boolean key0;",
+                            "int result = Boolean.compare(that.key0, key0);"
+                    )
+                    .doesNotContain(".compareTo(that.key0)");
+        }
+
+        @Test
+        public void testTop() {
+            JavaFileObject file = forResource("definition/TestAllOptions.java");
+
+            assertThat(compile(file))
+                    .has(succeededWithoutWarnings())
+                    .extracting(Compilation::generatedSourceFiles, JAVA_FILE_OBJECTS)
+                    .singleElement()
+                    .extracting(Compilations::contentsAsUtf8String, STRING)
+                    .contains(
+                            ".sorted()",
+                            "public List<TestAllOptions> getTop(int k) {",
+                            "throw new IllegalArgumentException(\"Negative k: \" + k);",
+                            "PriorityQueue<SortKey> heap = new PriorityQueue<>(Collections.reverseOrder());",
+                            "SortKey key = new SortKey(iterator.next(), i);",
+                            "} else if (k > 0 && key.compareTo(heap.peek()) < 0) {",
+                            "Arrays.sort(keys);"
                     );
         }
 
+        @Test
+        public void testTopWithoutSorter() {
+            JavaFileObject file = forResource("definition/TestIdMultiple.java");
+
+            assertThat(compile(file))
+                    .has(succeededWithoutWarnings())
+                    .extracting(Compilation::generatedSourceFiles, JAVA_FILE_OBJECTS)
+                    .singleElement()
+                    .extracting(Compilations::contentsAsUtf8String, STRING)
+                    .contains(
+                            "public List<TestIdMultiple> getTop(int k) {",
+                            ".limit(k)"
+                    )
+                    .doesNotContain("PriorityQueue");
+        }
+
         @Test
         public void testLost() {
             JavaFileObject file = forResource("definition/TestSorterLost.java");
@@ -537,7 +631,8 @@ public class ServiceDefinitionProcessorTest {
                     .extracting(Compilations::contentsAsUtf8String, STRING)
                     .contains(
                             "public static final Pattern ID_PATTERN = Pattern.compile(\"^[A-Z0-9]+(?:_[A-Z0-9]+)*$\");",
-                            "private final Predicate<TestIdValidPattern> filter = o -> ID_PATTERN.matcher(o.getName()).matches()",
+                            "private final Predicate<TestIdValidPattern> filter;",
+                            "this.filter = o -> ID_PATTERN.matcher(o.getName()).matches();",
                             ".filter(filter)"
                     );
         }
@@ -570,6 +665,24 @@ public class ServiceDefinitionProcessorTest {
                             ".findFirst()",
                             "public static Optional<TestIdMultiple> loadById(CharSequence id)",
                             "return builder().build().getById(id)"
+                    )
+                    .doesNotContain("mayHaveId");
+        }
+
+        @Test
+        public void testGetByIdWithKnownIds() {
+            JavaFileObject file = forResource("definition/TestIdMultiple.java");
+
+            assertThat(compile(file, "9"))
+                    .has(succeededWithoutWarnings())
+                    .extracting(Compilation::generatedSourceFiles, JAVA_FILE_OBJECTS)
+                    .singleElement()
+                    .extracting(Compilations::contentsAsUtf8String, STRING)
+                    .contains(
+                            "return gatherById(id)",
+                            ".filter(o -> mayHaveId(o, id)).map(o -> TestIdMultiple.class.cast(current.getInstance(o)))",
+                            "String knownId = KNOWN_IDS.get(((ServiceLoader.Provider<?>) o).type());",
+                            "classLoader.getResources(\"META-INF/service-ids/\" + TestIdMultiple.class.getName())"
                     );
         }
     }
@@ -602,10 +715,86 @@ public class ServiceDefinitionProcessorTest {
                             "private final Iterable<?> batchSource;",
                             "private final Runnable batchReloader;",
                             "Stream.concat(",
-                            "StreamSupport.stream(providerSource.spliterator(), false)",
-                            "StreamSupport.stream(batchSource.spliterator(), false)",
-                            ".flatMap(o -> o.getProviders()))"
+                            "current.providers.stream()",
+                            "flattenBatches(current.batches.stream()",
+                            ", o -> getExpansion(current, o)));",
+                            "return o.getProviders();"
+                    );
+        }
+
+        @Test
+        public void testExpansionCache() {
+            JavaFileObject file = forResource("definition/TestBatchReloading.java");
+
+            assertThat(compile(file, "9"))
+                    .has(succeededWithoutWarnings())
+                    .extracting(Compilation::generatedSourceFiles, JAVA_FILE_OBJECTS)
+                    .filteredOn(sourceFileNamed("definition", "TestBatchReloadingLoader.java"))
+                    .singleElement()
+                    .extracting(Compilations::contentsAsUtf8String, STRING)
+                    .contains(
+                            "private final Map<Object, Memo> expansions = Collections.synchronizedMap(new IdentityHashMap<>());",
+                            "private Stream<TestBatchReloading.Mutable> getExpansion(Sources current,",
+                            "return current.expansions.computeIfAbsent(o, key -> new Memo((Iterable<TestBatchReloading.Mutable>) () -> expandBatch(o).iterator())).stream().map(TestBatchReloading.Mutable.class::cast);"
+                    )
+                    .doesNotContain(
+                            "expandBatch(o).collect("
+                    );
+        }
+
+        @Test
+        public void testExpansionIdentity(@TempDir Path temp) throws Exception {
+            Compilation compilation = compile(forResource("definition/TestBatchExpansion.java"));
+            assertThat(compilation)
+                    .has(succeeded());
+
+            // batches that are equal but not identical are expanded separately, once per content
+            assertThat(invokeStatic(compilation, temp, "definition.TestBatchExpansion", "getExpansions"))
+                    .asInstanceOf(LIST)
+                    .containsExactly("a b", "a b", "calls:2", "a b", "calls:4");
+        }
+
+        @Test
+        public void testShortCircuitFlattening() {
+            JavaFileObject file = forResource("definition/TestBatchReloading.java");
+
+            assertThat(compile(file, "8"))
+                    .has(succeededWithoutWarnings())
+                    .extracting(Compilation::generatedSourceFiles, JAVA_FILE_OBJECTS)
+                    .filteredOn(sourceFileNamed("definition", "TestBatchReloadingLoader.java"))
+                    .singleElement()
+                    .extracting(Compilations::contentsAsUtf8String, STRING)
+                    .contains(
+                            "private static Stream<TestBatchReloading.Mutable> flattenBatches(",
+                            "Iterator<TestBatchReloading.Batch> outer = batches.iterator();",
+                            "inner = expander.apply(outer.next()).iterator();",
+                            "return StreamSupport.stream(Spliterators.spliteratorUnknownSize(result, Spliterator.ORDERED), false);",
+                            "flattenBatches(current.batches.stream().filter(TestBatchReloading.Batch.class::isInstance).map(TestBatchReloading.Batch.class::cast), o -> getExpansion(current, o))"
                     );
+
+            assertThat(compile(file, "17"))
+                    .has(succeededWithoutWarnings())
+                    .extracting(Compilation::generatedSourceFiles, JAVA_FILE_OBJECTS)
+                    .filteredOn(sourceFileNamed("definition", "TestBatchReloadingLoader.java"))
+                    .singleElement()
+                    .extracting(Compilations::contentsAsUtf8String, STRING)
+                    .contains(
+                            "private static Stream<TestBatchReloading.Mutable> flattenBatches(",
+                            "flattenBatches(current.batches.stream().filter(o -> isInstance(o, TestBatchReloading.Batch.class)).map(o -> TestBatchReloading.Batch.class.cast(current.getInstance(o))), o -> getExpansion(current, o))"
+                    );
+        }
+
+        @Test
+        public void testInfiniteBatch(@TempDir Path temp) throws Exception {
+            for (String release : new String[]{"8", "17"}) {
+                Compilation compilation = compile(forResource("definition/TestBatchInfinite.java"), release);
+                assertThat(compilation)
+                        .has(succeeded());
+
+                assertThat(invokeStatic(compilation, temp.resolve(release), "definition.TestBatchInfinite", "getFirsts"))
+                        .asInstanceOf(LIST)
+                        .containsExactly("0", "0", "0 1 2", "0");
+            }
         }
 
         @Test
@@ -659,7 +848,8 @@ public class ServiceDefinitionProcessorTest {
                     .contains(
                             "private final Iterable<?> batchSource;",
                             "Stream.concat(",
-                            ".flatMap(o -> o.getProviders().stream())"
+                            "o -> getExpansion(current, o))",
+                            "return o.getProviders().stream();"
                     );
         }
 
@@ -675,7 +865,8 @@ public class ServiceDefinitionProcessorTest {
                     .contains(
                             "private final Iterable<?> batchSource;",
                             "Stream.concat(",
-                            ".flatMap(o -> StreamSupport.stream(o.getProviders().spliterator(), false))"
+                            "o -> getExpansion(current, o))",
+                            "return StreamSupport.stream(o.getProviders().spliterator(), false);"
                     );
         }
 
@@ -691,7 +882,8 @@ public class ServiceDefinitionProcessorTest {
                     .contains(
                             "private final Iterable<?> batchSource;",
                             "Stream.concat(",
-                            ".flatMap(o -> StreamSupport.stream(Spliterators.spliteratorUnknownSize(o.getProviders(), 0), false))"
+                            "o -> getExpansion(current, o))",
+                            "return StreamSupport.stream(Spliterators.spliteratorUnknownSize(o.getProviders(), 0), false);"
                     );
         }
 
@@ -707,7 +899,8 @@ public class ServiceDefinitionProcessorTest {
                     .contains(
                             "private final Iterable<?> batchSource;",
                             "Stream.concat(",
-                            ".flatMap(o -> Arrays.stream(o.getProviders()))"
+                            "o -> getExpansion(current, o))",
+                            "return Arrays.stream(o.getProviders());"
                     );
         }
 
@@ -723,11 +916,767 @@ public class ServiceDefinitionProcessorTest {
                     .contains(
                             "private final Iterable<?> batchSource;",
                             "Stream.concat(",
-                            ".flatMap(o -> o.getAll())"
+                            "o -> getExpansion(current, o))",
+                            "return o.getAll();"
                     );
         }
     }
 
+    @Nested
+    class CachedTest {
+
+        @Test
+        public void testCached() {
+            JavaFileObject file = forResource("definition/TestCached.java");
+
+            assertThat(compile(file))
+                    .has(succeededWithoutWarnings())
+                    .extracting(Compilation::generatedSourceFiles, JAVA_FILE_OBJECTS)
+                    .singleElement()
+                    .extracting(Compilations::contentsAsUtf8String, STRING)
+                    .contains(
+                            "<li>Cached: true</li>",
+                            "private volatile java.util.Optional<TestCached.Optional> snapshot;",
+                            "private volatile TestCached.Single snapshot;",
+                            "private volatile List<TestCached.Multiple> snapshot;",
+                            "public void reload()",
+                            "synchronized (this) {",
+                            "return result != null ? result : loadSnapshot(current);",
+                            "private volatile Index index;",
+                            "return getIndex().find(id);",
+                            "public Map<String, TestCached.Multiple> asMap()",
+                            "String id = o.getName();",
+                            "TestCached.Multiple kept = result.putIfAbsent(id, o);",
+                            "listener.onDuplicateId(id, kept, o);",
+                            "return Shared.INSTANCE.get();",
+                            "return Shared.INSTANCE.getById(id);",
+                            "private static final class Shared {",
+                            "return result.size() <= k ? result : result.subList(0, k);",
+                            "return get().stream();"
+                    );
+        }
+
+        @Test
+        public void testDuplicateId(@TempDir Path temp) throws Exception {
+            Compilation compilation = compile(forResource("definition/TestDuplicateId.java"));
+            assertThat(compilation)
+                    .has(succeededWithoutWarnings());
+
+            assertThat(invokeStatic(compilation, temp, "definition.TestDuplicateId", "getDuplicates"))
+                    .asInstanceOf(LIST)
+                    .containsExactly("zip:Zip:ZipCopy", "asMap:Zip");
+        }
+
+        @Test
+        public void testDuplicateIdSorted(@TempDir Path temp) throws Exception {
+            Compilation compilation = compile(forResource("definition/TestDuplicateIdSorted.java"));
+            assertThat(compilation)
+                    .has(succeededWithoutWarnings());
+
+            // both modes resolve duplicates in sorted order and compare IDs with String#equals
+            assertThat(invokeStatic(compilation, temp, "definition.TestDuplicateIdSorted", "getByIds"))
+                    .asInstanceOf(LIST)
+                    .containsExactly("ZipCopy", "ZipCopy", "none", "none");
+        }
+
+        @Test
+        public void testDynamicFilter() {
+            JavaFileObject file = forResource("definition/TestCachedDynamic.java");
+
+            assertThat(compile(file))
+                    .has(succeededWithoutWarnings())
+                    .extracting(Compilation::generatedSourceFiles, JAVA_FILE_OBJECTS)
+                    .singleElement()
+                    .extracting(Compilations::contentsAsUtf8String, STRING)
+                    .contains(
+                            "private volatile List<TestCachedDynamic.Optional> snapshot;",
+                            "private final Predicate<TestCachedDynamic.Optional> dynamicFilter;",
+                            "this.dynamicFilter = TestCachedDynamic.Optional::isEnabled;",
+                            "private final Predicate<TestCachedDynamic.Multiple> filter;",
+                            "this.filter = TestCachedDynamic.Multiple::isAvailable;",
+                            "private final Predicate<TestCachedDynamic.Multiple> dynamicFilter;",
+                            "this.dynamicFilter = ((Predicate<TestCachedDynamic.Multiple>)TestCachedDynamic.Multiple::isDisabled).negate();",
+                            "return getSnapshot().stream()\n          .filter(dynamicFilter)\n          .findFirst();",
+                            "private List<TestCachedDynamic.Multiple> getSnapshot()",
+                            "private final Predicate<TestCachedDynamic.NotCached> filter;",
+                            "this.filter = ((Predicate<TestCachedDynamic.NotCached>)TestCachedDynamic.NotCached::isAvailable).and(TestCachedDynamic.NotCached::isEnabled);",
+                            "the providers are computed once and shared between calls but dynamic filters are evaluated at each call",
+                            ".filter(o -> o.getName().equals(id))"
+                    )
+                    .doesNotContain(
+                            "the returned value is computed once and shared between calls",
+                            "private volatile Index index;",
+                            "private final Predicate<TestCachedDynamic.NotCached> dynamicFilter"
+                    );
+        }
+
+        @Test
+        public void testNotCached() {
+            JavaFileObject file = forResource("definition/TestQuantifierMultiple.java");
+
+            assertThat(compile(file))
+                    .has(succeededWithoutWarnings())
+                    .extracting(Compilation::generatedSourceFiles, JAVA_FILE_OBJECTS)
+                    .singleElement()
+                    .extracting(Compilations::contentsAsUtf8String, STRING)
+                    .contains("<li>Cached: false</li>")
+                    .doesNotContain("snapshot", "Shared");
+        }
+    }
+
+    @Nested
+    class ProviderHandleTest {
+
+        @Test
+        public void testJava8() {
+            JavaFileObject file = forResource("definition/TestBatchReloading.java");
+
+            assertThat(compile(file, "8"))
+                    .has(succeededWithoutWarnings())
+                    .extracting(Compilation::generatedSourceFiles, JAVA_FILE_OBJECTS)
+                    .filteredOn(sourceFileNamed("definition", "TestBatchReloadingLoader.java"))
+                    .singleElement()
+                    .extracting(Compilations::contentsAsUtf8String, STRING)
+                    .contains("backend -> ((ServiceLoader) backend)")
+                    .doesNotContain("ServiceLoader.Provider");
+        }
+
+        @Test
+        public void testJava9() {
+            JavaFileObject file = forResource("definition/TestBatchReloading.java");
+
+            assertThat(compile(file, "9"))
+                    .has(succeededWithoutWarnings())
+                    .extracting(Compilation::generatedSourceFiles, JAVA_FILE_OBJECTS)
+                    .filteredOn(sourceFileNamed("definition", "TestBatchReloadingLoader.java"))
+                    .singleElement()
+                    .extracting(Compilations::contentsAsUtf8String, STRING)
+                    .contains(
+                            "current.providers.stream().filter(o -> isInstance(o, TestBatchReloading.Mutable.class)).map(o -> TestBatchReloading.Mutable.class.cast(current.getInstance(o)))",
+                            "current.batches.stream().filter(o -> isInstance(o, TestBatchReloading.Batch.class)).map(o -> TestBatchReloading.Batch.class.cast(current.getInstance(o)))",
+                            "return o instanceof ServiceLoader.Provider ? type.isAssignableFrom(((ServiceLoader.Provider<?>) o).type()) : type.isInstance(o);",
+                            "String name = getProviderName(o);",
+                            "Object result = instances.get(name);",
+                            "result = instances.putIfAbsent(name, created);",
+                            "next.reuse(previous);",
+                            "backend -> () -> ((ServiceLoader<?>) backend).stream().map(Object.class::cast).iterator()",
+                            "@param streamer a function that streams providers or ServiceLoader.Provider handles from the backend, not null"
+                    );
+        }
+    }
+
+    @Nested
+    class DirectTest {
+
+        @Test
+        public void testJava8() {
+            Compilation compilation = compile(forResource("definition/TestDirect.java"), "8");
+
+            assertThat(compilation)
+                    .has(succeeded())
+                    .extracting(Compilation::warnings, DIAGNOSTICS)
+                    .extracting(Compilations::getDefaultMessage)
+                    .contains("Direct providers of service 'definition.TestDirect' ignored because ServiceLoader instantiates them before they can be skipped on Java 8");
+
+            assertThat(compilation)
+                    .extracting(Compilation::generatedSourceFiles, JAVA_FILE_OBJECTS)
+                    .filteredOn(sourceFileNamed("definition", "TestDirectLoader.java"))
+                    .singleElement()
+                    .extracting(Compilations::contentsAsUtf8String, STRING)
+                    .doesNotContain("DIRECT_PROVIDERS", "withDirectProviders");
+        }
+
+        @Test
+        public void testJava9() {
+            JavaFileObject file = forResource("definition/TestDirect.java");
+
+            assertThat(compile(file, "9"))
+                    .has(succeeded())
+                    .extracting(Compilation::generatedSourceFiles, JAVA_FILE_OBJECTS)
+                    .filteredOn(sourceFileNamed("definition", "TestDirectLoader.java"))
+                    .singleElement()
+                    .extracting(Compilations::contentsAsUtf8String, STRING)
+                    .contains(
+                            "private static final List<DirectProvider> DIRECT_PROVIDERS",
+                            "new DirectProvider(TestDirect.ByConstructor.class, \"definition.TestDirect$ByConstructor\", TestDirect.ByConstructor::new)",
+                            "new DirectProvider(TestDirect.ByStaticMethod.class, \"definition.TestDirect$ByStaticMethod\", TestDirect.ByStaticMethod::provider)",
+                            "new DirectProvider(TestDirect.class, \"definition.Holder_BY_STATIC_FIELDDelegate\", () -> TestDirect.Holder.BY_STATIC_FIELD)",
+                            "private static final class DirectProvider implements ServiceLoader.Provider<TestDirect>",
+                            "((ServiceLoader.Provider<?>) o).type()",
+                            "return ((DirectProvider) o).name;"
+                    )
+                    .doesNotContain("ByServiceFactory");
+        }
+
+        @Test
+        public void testFactoryType(@TempDir Path temp) throws Exception {
+            Compilation compilation = compile(forResource("definition/TestDirectFactory.java"), "17");
+            assertThat(compilation)
+                    .has(succeeded());
+
+            // handles of the module path are named after the return type of their factory
+            assertThat(invokeStatic(compilation, temp, "definition.TestDirectFactory", "getInstantiations"))
+                    .asInstanceOf(LIST)
+                    .containsExactly("Zip", "Rar", "Zip:1", "Rar:1");
+        }
+
+        @Test
+        public void testReload(@TempDir Path temp) throws Exception {
+            Compilation compilation = compile(forResource("definition/TestDirectReload.java"), "17");
+            assertThat(compilation)
+                    .has(succeeded());
+
+            // enum constants share the same type so that instances must be told apart by name
+            assertThat(invokeStatic(compilation, temp, "definition.TestDirectReload", "getGreetings"))
+                    .asInstanceOf(LIST)
+                    .containsExactly("hello bonjour", "hello bonjour");
+        }
+
+        @Test
+        public void testDisabled() {
+            JavaFileObject file = forResource("definition/TestIdMultiple.java");
+
+            assertThat(compile(file))
+                    .has(succeededWithoutWarnings())
+                    .extracting(Compilation::generatedSourceFiles, JAVA_FILE_OBJECTS)
+                    .singleElement()
+                    .extracting(Compilations::contentsAsUtf8String, STRING)
+                    .doesNotContain("DIRECT_PROVIDERS", "withDirectProviders");
+        }
+    }
+
+    @Nested
+    class ClassListTest {
+
+        @Test
+        public void testEnabled() {
+            Compilation compilation = Compiler.javac()
+                    .withProcessors(new ServiceDefinitionProcessor(), new ServiceProviderProcessor())
+                    .withOptions("--release", "9", "-Xlint:-options", "-A" + ClassListRegistry.OPTION + "=true")
+                    .compile(forResource("definition/TestDirect.java"));
+
+            assertThat(compilation)
+                    .has(succeeded());
+
+            assertThat(compilation)
+                    .extracting(Compilation::generatedFiles, JAVA_FILE_OBJECTS)
+                    .filteredOn(fileNamed("/CLASS_OUTPUT/META-INF/service-classes/definition.TestDirectLoader"))
+                    .singleElement()
+                    .extracting(Compilations::contentsAsUtf8StringList, LIST)
+                    .containsExactly(
+                            "definition.TestDirect",
+                            "definition.TestDirectLoader",
+                            "definition.TestDirectLoader$Builder",
+                            "definition.TestDirectLoader$DirectProvider",
+                            "definition.TestDirectLoader$Memo",
+                            "definition.TestDirectLoader$Sources"
+                    );
+
+            assertThat(compilation)
+                    .extracting(Compilation::generatedFiles, JAVA_FILE_OBJECTS)
+                    .filteredOn(fileNamed("/CLASS_OUTPUT/META-INF/service-classes/definition.TestDirect"))
+                    .singleElement()
+                    .extracting(Compilations::contentsAsUtf8StringList, LIST)
+                    .containsExactly(
+                            "definition.Holder_BY_STATIC_FIELDDelegate",
+                            "definition.TestDirect",
+                            "definition.TestDirect$ByConstructor",
+                            "definition.TestDirect$ByServiceFactory",
+                            "definition.TestDirect$ByStaticMethod",
+                            "definition.TestDirect$Holder"
+                    );
+        }
+
+        @Test
+        public void testDisabled() {
+            assertThat(compile(forResource("definition/TestDirect.java")))
+                    .extracting(Compilation::generatedFiles, JAVA_FILE_OBJECTS)
+                    .filteredOn(file -> file.getName().contains("/META-INF/service-classes/"))
+                    .isEmpty();
+        }
+    }
+
+    @Nested
+    class IncrementalTest {
+
+        @Test
+        public void testGradleRegistration() throws IOException {
+            assertThat(OriginRecorder.getGradleDescriptorLines())
+                    .contains(ServiceDefinitionProcessor.class.getName() + ",aggregating");
+
+            // direct loaders read providers from other compilation units
+            assertThat(new ServiceDefinitionProcessor().getSupportedAnnotationTypes())
+                    .contains("nbbrd.service.ServiceProvider");
+        }
+
+        @Test
+        public void testUnclaimedAnnotations() {
+            JavaFileObject file = forResource("definition/TestDirect.java");
+
+            // @ServiceProvider is read by the definition processor but left to the provider processor, whatever their order
+            for (List<? extends Processor> processors : asList(
+                    asList(new ServiceDefinitionProcessor(), new ServiceProviderProcessor()),
+                    asList(new ServiceProviderProcessor(), new ServiceDefinitionProcessor()))) {
+                assertThat(Compiler.javac().withProcessors(processors).compile(file))
+                        .has(succeeded())
+                        .extracting(Compilation::generatedFiles, JAVA_FILE_OBJECTS)
+                        .filteredOn(Compilations::isWritten)
+                        .extracting(JavaFileObject::getName)
+                        .contains("/SOURCE_OUTPUT/definition/TestDirectLoader.java", "/CLASS_OUTPUT/META-INF/services/definition.TestDirect");
+            }
+
+            assertThat(Compiler.javac().withProcessors(new ServiceDefinitionProcessor()).compile(file))
+                    .has(succeeded())
+                    .extracting(Compilation::generatedFiles, JAVA_FILE_OBJECTS)
+                    .filteredOn(Compilations::isWritten)
+                    .extracting(JavaFileObject::getName)
+                    .contains("/SOURCE_OUTPUT/definition/TestDirectLoader.java")
+                    .doesNotContain("/CLASS_OUTPUT/META-INF/services/definition.TestDirect");
+
+            assertThat(Compiler.javac().withProcessors(new ServiceProviderProcessor()).compile(file))
+                    .has(succeeded())
+                    .extracting(Compilation::generatedFiles, JAVA_FILE_OBJECTS)
+                    .filteredOn(Compilations::isWritten)
+                    .extracting(JavaFileObject::getName)
+                    .contains("/CLASS_OUTPUT/META-INF/services/definition.TestDirect")
+                    .doesNotContain("/SOURCE_OUTPUT/definition/TestDirectLoader.java");
+        }
+
+        @Test
+        public void testOriginatingElements() {
+            OriginRecorder recorder = new OriginRecorder(new ServiceDefinitionProcessor());
+
+            Compilation compilation = Compiler.javac()
+                    .withProcessors(recorder)
+                    .withOptions("-A" + ClassListRegistry.OPTION + "=true")
+                    .compile(forResource("definition/TestNestedLoaderDefaultNames.java"), forResource("definition/TestDirect.java"));
+
+            assertThat(compilation)
+                    .has(succeeded());
+
+            assertThat(recorder.getOriginsByFile())
+                    .containsOnly(
+                            entry("definition.TestNestedLoaderDefaultNamesLoader", singletonList("definition.TestNestedLoaderDefaultNames")),
+                            entry("META-INF/service-classes/definition.TestNestedLoaderDefaultNamesLoader", singletonList("definition.TestNestedLoaderDefaultNames")),
+                            entry("definition.TestDirectLoader", singletonList("definition.TestDirect")),
+                            entry("META-INF/service-classes/definition.TestDirectLoader", singletonList("definition.TestDirect"))
+                    );
+        }
+    }
+
+    @Nested
+    class ExecutorTest {
+
+        @Test
+        public void testJava8() {
+            JavaFileObject file = forResource("definition/TestAllOptions.java");
+
+            assertThat(compile(file, "8"))
+                    .has(succeededWithoutWarnings())
+                    .extracting(Compilation::generatedSourceFiles, JAVA_FILE_OBJECTS)
+                    .singleElement()
+                    .extracting(Compilations::contentsAsUtf8String, STRING)
+                    .contains(
+                            "public Builder executor(Executor executor)",
+                            "Note that only filters and batch expansions are evaluated concurrently",
+                            "List<CompletableFuture<List<TestAllOptions>>> futures = submitConcurrently(current.providers.stream().filter(TestAllOptions.class::isInstance), item -> Stream.of(TestAllOptions.class.cast(item)), filter, executor);",
+                            "return joinConcurrently(futures);",
+                            "CompletableFuture.supplyAsync(() -> expander.apply(o).filter(filter).collect(Collectors.toList()), executor)",
+                            "throw (RuntimeException) cause;",
+                            "throw (Error) cause;"
+                    )
+                    .doesNotContain(
+                            "virtualThreads"
+                    );
+        }
+
+        @Test
+        public void testJava9() {
+            JavaFileObject file = forResource("definition/TestBatchReloading.java");
+
+            assertThat(compile(file, "9"))
+                    .has(succeededWithoutWarnings())
+                    .extracting(Compilation::generatedSourceFiles, JAVA_FILE_OBJECTS)
+                    .filteredOn(sourceFileNamed("definition", "TestBatchReloadingLoader.java"))
+                    .singleElement()
+                    .extracting(Compilations::contentsAsUtf8String, STRING)
+                    .contains(
+                            "public Builder executor(Executor executor)",
+                            "submitConcurrently(current.providers.stream().filter(o -> isInstance(o, TestBatchReloading.Mutable.class)), item -> Stream.of(TestBatchReloading.Mutable.class.cast(current.getInstance(item))), o -> true, executor);",
+                            "futures.addAll(submitConcurrently(current.batches.stream().filter(o -> isInstance(o, TestBatchReloading.Batch.class)), item -> Stream.of(TestBatchReloading.Batch.class.cast(current.getInstance(item))).flatMap(o -> getExpansion(current, o)), o -> true, executor));"
+                    )
+                    .doesNotContain("Note that only filters and batch expansions are evaluated concurrently");
+        }
+    }
+
+    @Nested
+    class SnapshotTest {
+
+        @Test
+        public void testSources() {
+            JavaFileObject file = forResource("definition/TestBatchReloading.java");
+
+            assertThat(compile(file))
+                    .has(succeededWithoutWarnings())
+                    .extracting(Compilation::generatedSourceFiles, JAVA_FILE_OBJECTS)
+                    .filteredOn(sourceFileNamed("definition", "TestBatchReloadingLoader.java"))
+                    .singleElement()
+                    .extracting(Compilations::contentsAsUtf8String, STRING)
+                    .contains(
+                            "private volatile Sources sources;",
+                            "public void reload()",
+                            "synchronized (this) {",
+                            "sources = newSources();",
+                            "return result != null ? result : loadSources();",
+                            "private synchronized Sources loadSources()",
+                            "return new Sources(new Memo(providerSource), new Memo(batchSource));",
+                            "previous.providers.reload(providerReloader);",
+                            "return gather(current);",
+                            "private static final class Sources {",
+                            "private static final class Memo {"
+                    )
+                    .doesNotContain("spliterator()");
+        }
+
+        @Test
+        public void testCached() {
+            JavaFileObject file = forResource("definition/TestCached.java");
+
+            assertThat(compile(file))
+                    .has(succeededWithoutWarnings())
+                    .extracting(Compilation::generatedSourceFiles, JAVA_FILE_OBJECTS)
+                    .singleElement()
+                    .extracting(Compilations::contentsAsUtf8String, STRING)
+                    .contains(
+                            "next.snapshot = newSnapshot(next);",
+                            "next.index = newIndex(next);",
+                            "private List<TestCached.Multiple> newSnapshot(Sources current)",
+                            "private TestCached.Single newSnapshot(Sources current)",
+                            "private Index newIndex(Sources current)",
+                            "synchronized (current) {"
+                    )
+                    .doesNotContain(
+                            "snapshot = null;",
+                            "index = null;",
+                            "private synchronized List<TestCached.Multiple> loadSnapshot("
+                    );
+        }
+
+        @Test
+        public void testLazySources(@TempDir Path temp) throws Exception {
+            for (String release : new String[]{"8", "17"}) {
+                Compilation compilation = compile(forResource("definition/TestLazySources.java"), release);
+                assertThat(compilation)
+                        .has(succeeded());
+
+                assertThat(invokeStatic(compilation, temp.resolve(release), "definition.TestLazySources", "getFirsts"))
+                        .asInstanceOf(LIST)
+                        .containsExactly("Primary", "Primary", "Primary", "Primary", "Primary");
+            }
+        }
+    }
+
+    @Nested
+    class RefreshTest {
+
+        @Test
+        public void testCoalescedReload() {
+            JavaFileObject file = forResource("definition/TestBatchReloading.java");
+
+            assertThat(compile(file))
+                    .has(succeededWithoutWarnings())
+                    .extracting(Compilation::generatedSourceFiles, JAVA_FILE_OBJECTS)
+                    .filteredOn(sourceFileNamed("definition", "TestBatchReloadingLoader.java"))
+                    .singleElement()
+                    .extracting(Compilations::contentsAsUtf8String, STRING)
+                    .contains(
+                            "private volatile long reloadCount;",
+                            "private long lastReload;",
+                            "long requested = reloadCount;",
+                            "if (lastReload > requested) {",
+                            "long current = ++reloadCount;",
+                            "lastReload = current;",
+                            "Concurrent calls are coalesced"
+                    );
+        }
+
+        @Test
+        public void testCoalescedReloadFailure(@TempDir Path temp) throws Exception {
+            Compilation compilation = compile(forResource("definition/TestReloadFailure.java"));
+            assertThat(compilation)
+                    .has(succeeded());
+
+            assertThat(invokeStatic(compilation, temp, "definition.TestReloadFailure", "getReloads"))
+                    .asInstanceOf(LIST)
+                    .containsExactlyInAnyOrder("failed", "caught:boom", "reloaded");
+        }
+
+        @Test
+        public void testRefreshAfter() {
+            JavaFileObject file = forResource("definition/TestCached.java");
+
+            assertThat(compile(file))
+                    .has(succeededWithoutWarnings())
+                    .extracting(Compilation::generatedSourceFiles, JAVA_FILE_OBJECTS)
+                    .singleElement()
+                    .extracting(Compilations::contentsAsUtf8String, STRING)
+                    .contains(
+                            "private Duration refreshAfter = null;",
+                            "public Builder refreshAfter(Duration refreshAfter)",
+                            "refreshAfter != null ? refreshAfter.toNanos() : 0",
+                            "private final AtomicLong refreshDeadline = new AtomicLong();",
+                            "refreshDeadline.set(System.nanoTime() + refreshNanos);",
+                            "if (now - deadline >= 0 && refreshDeadline.compareAndSet(deadline, now + refreshNanos)) {",
+                            "Runnable task = this::backgroundReload;",
+                            "executor.execute(task);",
+                            "Refresher.EXECUTOR.execute(task);",
+                            "result.setDaemon(true);",
+                            "EXECUTOR.allowCoreThreadTimeOut(true);",
+                            "listener.onReloadFailed(ex);",
+                            "default void onReloadFailed(Throwable error) {",
+                            "Sources current = getSources();\n      TestCached.Single result = current.snapshot;",
+                            "Sources current = getSources();\n      List<TestCached.Multiple> result = current.snapshot;"
+                    );
+        }
+
+        @Test
+        public void testRefreshFailure(@TempDir Path temp) throws Exception {
+            Compilation compilation = compile(forResource("definition/TestRefreshFailure.java"));
+            assertThat(compilation)
+                    .has(succeeded());
+
+            // the executor also instantiates providers on each call
+            assertThat(invokeStatic(compilation, temp, "definition.TestRefreshFailure", "getEvents"))
+                    .asInstanceOf(LIST)
+                    .containsExactly("execute", "execute", "reload", "failed:boom", "execute", "get:Zip");
+        }
+    }
+
+    @Nested
+    class ReloadTest {
+
+        @Test
+        public void testJava8() {
+            JavaFileObject file = forResource("definition/TestBatchReloading.java");
+
+            assertThat(compile(file, "8"))
+                    .has(succeededWithoutWarnings())
+                    .extracting(Compilation::generatedSourceFiles, JAVA_FILE_OBJECTS)
+                    .filteredOn(sourceFileNamed("definition", "TestBatchReloadingLoader.java"))
+                    .singleElement()
+                    .extracting(Compilations::contentsAsUtf8String, STRING)
+                    .contains(
+                            "Sources previous = sources;",
+                            "Set<String> before = listener != null && previous != null ? previous.getNames(true) : Collections.emptySet();",
+                            "listener.onReloaded(getNamesNotIn(after, before), getNamesNotIn(before, after), System.nanoTime() - start);",
+                            "default void onReloaded(Set<String> added, Set<String> removed, long nanos) {",
+                            "(fetched ? batches.fetched() : batches.stream()).forEach(o -> result.add(o.getClass().getName()));"
+                    )
+                    .doesNotContain(
+                            "reuse(",
+                            "instances"
+                    );
+        }
+
+        @Test
+        public void testJava9() {
+            JavaFileObject file = forResource("definition/TestBatchReloading.java");
+
+            assertThat(compile(file, "9"))
+                    .has(succeededWithoutWarnings())
+                    .extracting(Compilation::generatedSourceFiles, JAVA_FILE_OBJECTS)
+                    .filteredOn(sourceFileNamed("definition", "TestBatchReloadingLoader.java"))
+                    .singleElement()
+                    .extracting(Compilations::contentsAsUtf8String, STRING)
+                    .contains(
+                            "private final Map<String, Object> instances = new ConcurrentHashMap<>();",
+                            "if (previous != null) {\n          next.reuse(previous);\n        }\n        sources = next;",
+                            "Object instance = previous.instances.get(name);",
+                            "(fetched ? providers.fetched() : providers.stream()).forEach(o -> result.add(getProviderName(o)));"
+                    );
+        }
+    }
+
+    @Nested
+    class AllocationTest {
+
+        @Test
+        public void testIndex() {
+            JavaFileObject file = forResource("definition/TestCached.java");
+
+            assertThat(compile(file))
+                    .has(succeededWithoutWarnings())
+                    .extracting(Compilation::generatedSourceFiles, JAVA_FILE_OBJECTS)
+                    .singleElement()
+                    .extracting(Compilations::contentsAsUtf8String, STRING)
+                    .contains(
+                            "private volatile Index index;",
+                            "return getIndex().find(id);",
+                            "return getIndex().providers;",
+                            "return new Index(Collections.unmodifiableMap(result));",
+                            "providers.forEach((id, o) -> optionals.put(id, java.util.Optional.of(o)));",
+                            "java.util.Optional<TestCached.Multiple> result = optionals.get(id);",
+                            "return result != null ? result : java.util.Optional.empty();"
+                    );
+        }
+
+        @Test
+        public void testSteadyState(@TempDir Path temp) throws Exception {
+            assumeTrue(Allocations.isSupported());
+            // allocation-free results rely on the escape analysis of C2
+            assumeTrue(Allocations.isEscapeAnalysisEnabled());
+
+            Compilation compilation = compile(forResource("definition/TestAllocationFree.java"));
+            assertThat(compilation)
+                    .has(succeeded());
+
+            Thread thread = Thread.currentThread();
+            ClassLoader contextClassLoader = thread.getContextClassLoader();
+            try (URLClassLoader classLoader = newClassLoader(compilation, temp)) {
+                thread.setContextClassLoader(classLoader);
+                Class<?> probes = classLoader.loadClass("definition.TestAllocationFree");
+                for (String name : new String[]{"get", "getById", "getBatch"}) {
+                    Runnable probe = (Runnable) probes.getMethod(name).invoke(null);
+                    assertThat(Allocations.getAllocatedBytesPerCall(probe))
+                            .as("Bytes allocated per call of %s", name)
+                            .isZero();
+                }
+            } finally {
+                thread.setContextClassLoader(contextClassLoader);
+            }
+        }
+    }
+
+    @Nested
+    class ListenerTest {
+
+        @Test
+        public void testJava8() {
+            JavaFileObject file = forResource("definition/TestAllOptions.java");
+
+            assertThat(compile(file, "8"))
+                    .has(succeededWithoutWarnings())
+                    .extracting(Compilation::generatedSourceFiles, JAVA_FILE_OBJECTS)
+                    .singleElement()
+                    .extracting(Compilations::contentsAsUtf8String, STRING)
+                    .contains(
+                            "public interface Listener {",
+                            "default void onBackendCreated(Class<?> type, long nanos) {",
+                            "default void onProviderInstantiated(String className, long nanos) {",
+                            "default void onFilterRejected(TestAllOptions provider, String filterName) {",
+                            "default void onSorted(int count, long nanos) {",
+                            "default void onSelected(List<TestAllOptions> result) {",
+                            "public Builder listener(Listener listener)",
+                            "Object providerBackend = createBackend(TestAllOptions.class, listener);",
+                            "observeInstantiation(streamer.apply(providerBackend), listener), () -> reloader.accept(providerBackend),",
+                            "listener.onProviderInstantiated(result.getClass().getName(), System.nanoTime() - start);",
+                            "? observeFilter(o -> ID_PATTERN.matcher(o.getName()).matches(), \"ID_PATTERN\", listener).and(observeFilter(TestAllOptions::isAvailable, \"isAvailable\", listener))",
+                            "listener.onFilterRejected(o, name);",
+                            "return sort(gatherFiltered(getSources()));",
+                            "listener.onSorted(result.size(), System.nanoTime() - start);",
+                            "listener.onSelected(result);"
+                    )
+                    .doesNotContain(
+                            "onBatchExpanded",
+                            "ObservedProvider"
+                    );
+        }
+
+        @Test
+        public void testJava9() {
+            JavaFileObject file = forResource("definition/TestBatchReloading.java");
+
+            assertThat(compile(file, "9"))
+                    .has(succeededWithoutWarnings())
+                    .extracting(Compilation::generatedSourceFiles, JAVA_FILE_OBJECTS)
+                    .filteredOn(sourceFileNamed("definition", "TestBatchReloadingLoader.java"))
+                    .singleElement()
+                    .extracting(Compilations::contentsAsUtf8String, STRING)
+                    .contains(
+                            "default void onBatchExpanded(String className, long nanos) {",
+                            "listener.onBatchExpanded(o.getClass().getName(), System.nanoTime() - start);",
+                            "observeInstantiation(streamer.apply(batchBackend), listener), () -> reloader.accept(batchBackend),",
+                            "return new ObservedProvider((ServiceLoader.Provider<?>) result, listener);",
+                            "private static final class ObservedProvider implements ServiceLoader.Provider<Object> {",
+                            "listener.onProviderInstantiated(getProviderName(delegate), System.nanoTime() - start);"
+                    )
+                    .doesNotContain(
+                            "onFilterRejected",
+                            "onSorted"
+                    );
+        }
+    }
+
+    @Nested
+    class FlightRecorderTest {
+
+        @Test
+        public void testEnabled() {
+            JavaFileObject file = forResource("definition/TestAllOptions.java");
+
+            assertThat(compileWithFlightRecorder(file, "11"))
+                    .has(succeededWithoutWarnings())
+                    .extracting(Compilation::generatedSourceFiles, JAVA_FILE_OBJECTS)
+                    .singleElement()
+                    .extracting(Compilations::contentsAsUtf8String, STRING)
+                    .contains(
+                            "private static final class FlightRecorderListener implements Listener {",
+                            "private static final boolean AVAILABLE = ModuleLayer.boot().findModule(\"jdk.jfr\").filter(FlightRecorderListener.class.getModule()::canRead).isPresent();",
+                            "return AVAILABLE ? new FlightRecorderListener(delegate) : delegate;",
+                            "Listener listener = FlightRecorderListener.wrap(this.listener);",
+                            "@Name(\"nbbrd.service.ProviderInstantiation\")",
+                            "@Name(\"nbbrd.service.ProviderRejection\")",
+                            "@Name(\"nbbrd.service.ProviderSort\")",
+                            "@Name(\"nbbrd.service.ProviderLookup\")",
+                            "@Name(\"nbbrd.service.Reload\")",
+                            "event.removedCount = removed.size();",
+                            "static final class ProviderInstantiation extends Event {",
+                            "@Timespan(Timespan.NANOSECONDS)",
+                            "if (event.shouldCommit()) {",
+                            "event.serviceType = TestAllOptions.class;",
+                            "listener.onSelectedById(id, result, System.nanoTime() - start);"
+                    )
+                    .doesNotContain(
+                            "nbbrd.service.BatchExpansion"
+                    );
+        }
+
+        @Test
+        public void testUnavailable() {
+            JavaFileObject file = forResource("definition/TestAllOptions.java");
+            Compilation compilation = compileWithFlightRecorder(file, "8");
+
+            assertThat(compilation)
+                    .has(succeeded())
+                    .extracting(Compilation::warnings, DIAGNOSTICS)
+                    .extracting(Compilations::getDefaultMessage)
+                    .containsExactly("Option 'nbbrd.service.flightRecorder' ignored because module 'jdk.jfr' is not available");
+
+            assertThat(compilation)
+                    .extracting(Compilation::generatedSourceFiles, JAVA_FILE_OBJECTS)
+                    .singleElement()
+                    .extracting(Compilations::contentsAsUtf8String, STRING)
+                    .doesNotContain("FlightRecorderListener");
+        }
+
+        @Test
+        public void testDisabled() {
+            assertThat(compile(forResource("definition/TestAllOptions.java"), "11"))
+                    .has(succeededWithoutWarnings())
+                    .extracting(Compilation::generatedSourceFiles, JAVA_FILE_OBJECTS)
+                    .singleElement()
+                    .extracting(Compilations::contentsAsUtf8String, STRING)
+                    .doesNotContain("FlightRecorderListener", "jdk.jfr");
+        }
+
+        private Compilation compileWithFlightRecorder(JavaFileObject file, String release) {
+            return Compiler.javac()
+                    .withProcessors(new ServiceDefinitionProcessor(), new ServiceProviderProcessor())
+                    .withOptions("--release", release, "-Xlint:-options", "-A" + ServiceDefinitionProcessor.FLIGHT_RECORDER_OPTION + "=true")
+                    .compile(file);
+        }
+    }
+
     @Nested
     class FallbackTest {
 
@@ -802,9 +1751,25 @@ public class ServiceDefinitionProcessorTest {
         }
     }
 
+    private static Object invokeStatic(Compilation compilation, Path temp, String className, String methodName) throws Exception {
+        Thread thread = Thread.currentThread();
+        ClassLoader contextClassLoader = thread.getContextClassLoader();
+        try (URLClassLoader classLoader = newClassLoader(compilation, temp)) {
+            thread.setContextClassLoader(classLoader);
+            return classLoader.loadClass(className).getMethod(methodName).invoke(null);
+        } finally {
+            thread.setContextClassLoader(contextClassLoader);
+        }
+    }
+
     private static Compilation compile(JavaFileObject file) {
+        return compile(file, "8");
+    }
+
+    private static Compilation compile(JavaFileObject file, String release) {
         return Compiler.javac()
                 .withProcessors(new ServiceDefinitionProcessor(), new ServiceProviderProcessor())
+                .withOptions("--release", release, "-Xlint:-options")
                 .compile(file);
     }
 
@@ -0,0 +1,88 @@
+package internal.nbbrd.service.provider;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static internal.nbbrd.service.provider.NativeImageRegistry.*;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class NativeImageRegistryTest {
+
+    @Test
+    public void testGetFileRelativeName() {
+        assertThat(getFileRelativeName("com.example/foo", "reflect-config.json"))
+                .isEqualTo("META-INF/native-image/com.example/foo/reflect-config.json");
+    }
+
+    @Test
+    public void testFormatReflectConfig() {
+        assertThat(formatReflectConfig(new TreeMap<>()))
+                .isEqualTo("[]\n");
+
+        TreeMap<String, List<String>> methodsByClassName = new TreeMap<>();
+        methodsByClassName.put("b.Provider$Nested", Arrays.asList("<init>", "provider"));
+        methodsByClassName.put("a.Provider", Collections.singletonList("<init>"));
+
+        assertThat(formatReflectConfig(methodsByClassName))
+                .isEqualTo("[\n" +
+                        "  {\n" +
+                        "    \"name\": \"a.Provider\",\n" +
+                        "    \"methods\": [\n" +
+                        "      { \"name\": \"<init>\", \"parameterTypes\": [] }\n" +
+                        "    ]\n" +
+                        "  },\n" +
+                        "  {\n" +
+                        "    \"name\": \"b.Provider$Nested\",\n" +
+                        "    \"methods\": [\n" +
+                        "      { \"name\": \"<init>\", \"parameterTypes\": [] },\n" +
+                        "      { \"name\": \"provider\", \"parameterTypes\": [] }\n" +
+                        "    ]\n" +
+                        "  }\n" +
+                        "]\n");
+    }
+
+    @Test
+    public void testFormatResourceConfig() {
+        assertThat(formatResourceConfig(new TreeSet<>()))
+                .isEqualTo("{\n  \"resources\": {\n    \"includes\": []\n  }\n}\n");
+
+        assertThat(formatResourceConfig(new TreeSet<>(Arrays.asList("META-INF/services/a.Service", "META-INF/service-ids/a.Service"))))
+                .isEqualTo("{\n" +
+                        "  \"resources\": {\n" +
+                        "    \"includes\": [\n" +
+                        "      { \"pattern\": \"\\\\QMETA-INF/service-ids/a.Service\\\\E\" },\n" +
+                        "      { \"pattern\": \"\\\\QMETA-INF/services/a.Service\\\\E\" }\n" +
+                        "    ]\n" +
+                        "  }\n" +
+                        "}\n");
+    }
+
+    @Test
+    public void testParseReflectConfig() {
+        assertThat(parseReflectConfig(Collections.emptyList()))
+                .isEmpty();
+
+        TreeMap<String, List<String>> methodsByClassName = new TreeMap<>();
+        methodsByClassName.put("b.Provider$Nested", Arrays.asList("<init>", "provider"));
+        methodsByClassName.put("a.\"Quoted\\Provider", Collections.emptyList());
+
+        assertThat(parseReflectConfig(Arrays.asList(formatReflectConfig(methodsByClassName).split("\n"))))
+                .isEqualTo(methodsByClassName);
+    }
+
+    @Test
+    public void testParseResourceConfig() {
+        assertThat(parseResourceConfig(Collections.emptyList()))
+                .isEmpty();
+
+        TreeSet<String> resources = new TreeSet<>(Arrays.asList("META-INF/services/a.Service", "META-INF/service-ids/a.Service"));
+
+        assertThat(parseResourceConfig(Arrays.asList(formatResourceConfig(resources).split("\n"))))
+                .isEqualTo(resources);
+    }
+}
@@ -17,29 +17,46 @@
 package internal.nbbrd.service.provider;
 
 import _test.Compilations;
+import _test.OriginRecorder;
 import com.google.testing.compile.Compilation;
 import com.google.testing.compile.Compiler;
+import internal.nbbrd.service.ClassListRegistry;
 import io.toolisticon.cute.CompileTestBuilder;
 import io.toolisticon.cute.CompileTestBuilderApi;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.condition.DisabledOnJre;
 import org.junit.jupiter.api.condition.JRE;
+import org.junit.jupiter.api.io.TempDir;
 
 import javax.annotation.processing.Processor;
 import javax.tools.Diagnostic;
+import javax.tools.JavaCompiler;
 import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.ServiceLoader;
 
 import static _test.Compilations.*;
 import static com.google.testing.compile.JavaFileObjects.forResource;
 import static com.google.testing.compile.JavaFileObjects.forSourceLines;
 import static io.toolisticon.cute.JavaFileObjectUtils.readFromString;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
 import static javax.tools.StandardLocation.CLASS_OUTPUT;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
 import static org.assertj.core.api.InstanceOfAssertFactories.*;
 import static org.assertj.core.groups.Tuple.tuple;
 
@@ -356,11 +373,16 @@ public class ServiceProviderProcessorTest {
         assertThat(compilation)
                 .has(succeeded());
 
-        // Check that the batch provider class was generated
+        // Check that the batch provider class was generated with values copied once
         assertThat(compilation)
                 .extracting(Compilation::generatedSourceFiles, JAVA_FILE_OBJECTS)
                 .filteredOn(fileNamed("/SOURCE_OUTPUT/provider/PrimaryColorBatchProvider.java"))
-                .hasSize(1);
+                .singleElement()
+                .extracting(Compilations::contentsAsUtf8String, STRING)
+                .contains(
+                        "private static final List<EnumBatchProvider.Color> VALUES = Collections.unmodifiableList(Arrays.asList(EnumBatchProvider.PrimaryColor.values()));",
+                        "return VALUES.stream();"
+                );
 
         // Check that the enum is NOT registered in the Color service (only the batch provider should be)
         assertThat(compilation)
@@ -465,6 +487,244 @@ public class ServiceProviderProcessorTest {
                           "provider.PrimaryColor_YELLOWDelegate");
     }
 
+    @Test
+    public void testConstantId() {
+        Compilation compilation = compile(forResource("provider/ConstantId.java"));
+
+        assertThat(compilation)
+                .has(succeeded());
+
+        assertThat(compilation)
+                .extracting(Compilation::generatedFiles, JAVA_FILE_OBJECTS)
+                .filteredOn(fileNamed("/CLASS_OUTPUT/META-INF/service-ids/provider.ConstantId$HashAlgorithm"))
+                .singleElement()
+                .extracting(Compilations::contentsAsUtf8StringList, LIST)
+                .containsExactly(
+                        "provider.ConstantId$Literal=SHA-256",
+                        "provider.ConstantId$LocalConstant=MD5",
+                        "provider.ConstantId$QualifiedConstant=SHA-1"
+                );
+
+        assertThat(compilation)
+                .extracting(Compilation::generatedFiles, JAVA_FILE_OBJECTS)
+                .filteredOn(fileNamed("/CLASS_OUTPUT/META-INF/service-ids/provider.ConstantId$Unidentified"))
+                .filteredOn(Compilations::isWritten)
+                .isEmpty();
+    }
+
+    @Test
+    public void testNativeImage() {
+        Compilation compilation = Compiler.javac()
+                .withProcessors(new ServiceProviderProcessor())
+                .withOptions("-A" + ServiceProviderProcessor.NATIVE_IMAGE_OPTION + "=com.example/foo")
+                .compile(forResource("provider/WithAnnotation.java"));
+
+        assertThat(compilation)
+                .has(succeeded());
+
+        assertThat(compilation)
+                .extracting(Compilation::generatedFiles, JAVA_FILE_OBJECTS)
+                .filteredOn(fileNamed("/CLASS_OUTPUT/META-INF/native-image/com.example/foo/reflect-config.json"))
+                .singleElement()
+                .extracting(Compilations::contentsAsUtf8String, STRING)
+                .contains(
+                        "\"name\": \"provider.WithAnnotation$Provider1\"",
+                        "\"name\": \"provider.WithAnnotation$Provider2\"",
+                        "{ \"name\": \"<init>\", \"parameterTypes\": [] }"
+                );
+
+        assertThat(compilation)
+                .extracting(Compilation::generatedFiles, JAVA_FILE_OBJECTS)
+                .filteredOn(fileNamed("/CLASS_OUTPUT/META-INF/native-image/com.example/foo/resource-config.json"))
+                .singleElement()
+                .extracting(Compilations::contentsAsUtf8String, STRING)
+                .contains("{ \"pattern\": \"\\\\QMETA-INF/services/provider.WithAnnotation$HelloService\\\\E\" }");
+    }
+
+    @Test
+    public void testWithoutNativeImage() {
+        Compilation compilation = compile(forResource("provider/WithAnnotation.java"));
+
+        assertThat(compilation)
+                .extracting(Compilation::generatedFiles, JAVA_FILE_OBJECTS)
+                .filteredOn(file -> file.getName().contains("/META-INF/native-image/"))
+                .isEmpty();
+    }
+
+    @Test
+    public void testGradleRegistration() throws IOException {
+        assertThat(OriginRecorder.getGradleDescriptorLines())
+                .contains(ServiceProviderProcessor.class.getName() + ",aggregating");
+    }
+
+    @Test
+    public void testConstantIdInWrappedEnvironment() {
+        // Gradle wraps the environment of incremental processors, which hides the compiler tree API
+        Compilation compilation = Compiler.javac()
+                .withProcessors(new OriginRecorder(new ServiceProviderProcessor()))
+                .compile(forResource("provider/ConstantId.java"));
+
+        assertThat(compilation)
+                .has(succeeded())
+                .extracting(Compilation::notes, DIAGNOSTICS)
+                .extracting(Compilations::getDefaultMessage)
+                .contains("Constant provider IDs are not recorded since the compiler tree API is not available");
+
+        assertThat(compilation)
+                .extracting(Compilation::generatedFiles, JAVA_FILE_OBJECTS)
+                .filteredOn(file -> file.getName().contains("/META-INF/service-ids/"))
+                .filteredOn(Compilations::isWritten)
+                .isEmpty();
+
+        assertThat(compilation)
+                .extracting(Compilation::generatedFiles, JAVA_FILE_OBJECTS)
+                .filteredOn(fileNamed("/CLASS_OUTPUT/META-INF/services/provider.ConstantId$HashAlgorithm"))
+                .hasSize(1);
+    }
+
+    @Test
+    public void testOriginatingElements() {
+        OriginRecorder recorder = new OriginRecorder(new ServiceProviderProcessor());
+
+        Compilation compilation = Compiler.javac()
+                .withProcessors(recorder)
+                .withOptions("-A" + ServiceProviderProcessor.NATIVE_IMAGE_OPTION + "=com.example/foo", "-A" + ClassListRegistry.OPTION + "=true")
+                .compile(forResource("provider/WithAnnotation.java"), forResource("provider/StaticFieldDelegate.java"), forResource("provider/EnumBatchProvider.java"));
+
+        assertThat(compilation)
+                .has(succeeded());
+
+        assertThat(recorder.getOriginsByFile())
+                .containsOnly(
+                        entry("provider.StaticFieldDelegate_INSTANCEDelegate", singletonList("provider.StaticFieldDelegate")),
+                        entry("provider.PrimaryColorBatchProvider", singletonList("provider.EnumBatchProvider.PrimaryColor")),
+                        entry("META-INF/services/provider.WithAnnotation$HelloService", asList("provider.WithAnnotation.Provider1", "provider.WithAnnotation.Provider2")),
+                        entry("META-INF/services/provider.StaticFieldDelegate$HelloService", singletonList("provider.StaticFieldDelegate")),
+                        entry("META-INF/services/provider.EnumBatchProvider$ColorBatch", singletonList("provider.EnumBatchProvider.PrimaryColor")),
+                        entry("META-INF/native-image/com.example/foo/reflect-config.json", asList("provider.WithAnnotation.Provider1", "provider.WithAnnotation.Provider2", "provider.StaticFieldDelegate", "provider.EnumBatchProvider.PrimaryColor")),
+                        entry("META-INF/native-image/com.example/foo/resource-config.json", asList("provider.WithAnnotation.Provider1", "provider.WithAnnotation.Provider2", "provider.StaticFieldDelegate", "provider.EnumBatchProvider.PrimaryColor")),
+                        entry("META-INF/service-classes/provider.WithAnnotation$HelloService", asList("provider.WithAnnotation.Provider1", "provider.WithAnnotation.Provider2")),
+                        entry("META-INF/service-classes/provider.StaticFieldDelegate$HelloService", singletonList("provider.StaticFieldDelegate")),
+                        entry("META-INF/service-classes/provider.EnumBatchProvider$ColorBatch", singletonList("provider.EnumBatchProvider.PrimaryColor")),
+                        entry(ClassPathRegistry.ORIGINS_FILE, asList("provider.WithAnnotation.Provider1", "provider.WithAnnotation.Provider2", "provider.StaticFieldDelegate", "provider.EnumBatchProvider.PrimaryColor"))
+                );
+    }
+
+    @Test
+    public void testIncrementalPruning(@TempDir Path dir) throws IOException {
+        Path sources = Files.createDirectories(dir.resolve("src/provider"));
+        Path classes = Files.createDirectories(dir.resolve("classes"));
+        Path services = classes.resolve("META-INF/services/provider.Incremental");
+        Files.createDirectories(services.getParent());
+        Files.write(services, singletonList("provider.HandWritten"));
+
+        Path service = write(sources, "Incremental", "public interface Incremental {}");
+        Path first = write(sources, "First", "@nbbrd.service.ServiceProvider public class First implements Incremental {}");
+        Path second = write(sources, "Second", "@nbbrd.service.ServiceProvider public class Second implements Incremental {}");
+
+        assertThat(compileInto(classes, service, first, second)).isTrue();
+        assertThat(Files.readAllLines(services))
+                .containsExactly("provider.HandWritten", "provider.First", "provider.Second");
+        assertThat(dir.resolve("generated").resolve(ClassPathRegistry.ORIGINS_FILE)).exists();
+        assertThat(classes.resolve(ClassPathRegistry.ORIGINS_FILE)).doesNotExist();
+
+        // a deleted provider is pruned while the other ones are not recompiled
+        Files.delete(second);
+        Files.delete(classes.resolve("provider/Second.class"));
+        Path third = write(sources, "Third", "@nbbrd.service.ServiceProvider public class Third implements Incremental {}");
+
+        assertThat(compileInto(classes, third)).isTrue();
+        assertThat(Files.readAllLines(services))
+                .containsExactly("provider.HandWritten", "provider.First", "provider.Third");
+
+        // a recompiled provider that lost its annotation is pruned as well
+        write(sources, "First", "public class First implements Incremental {}");
+
+        assertThat(compileInto(classes, first, third)).isTrue();
+        assertThat(Files.readAllLines(services))
+                .containsExactly("provider.HandWritten", "provider.Third");
+    }
+
+    @Test
+    public void testIncrementalDollarInClassName(@TempDir Path dir) throws IOException {
+        Path sources = Files.createDirectories(dir.resolve("src/provider"));
+        Path classes = Files.createDirectories(dir.resolve("classes"));
+        Path services = classes.resolve("META-INF/services/provider.Incremental");
+
+        Path service = write(sources, "Incremental", "public interface Incremental {}");
+        Path outer = write(sources, "Outer$Name", "public class Outer$Name { @nbbrd.service.ServiceProvider public static class Inner$Name implements Incremental {} }");
+
+        assertThat(compileInto(classes, service, outer)).isTrue();
+        assertThat(Files.readAllLines(services))
+                .containsExactly("provider.Outer$Name$Inner$Name");
+
+        // a provider whose class names contain '$' is still resolved when it is not recompiled
+        Path other = write(sources, "Other", "@nbbrd.service.ServiceProvider public class Other implements Incremental {}");
+
+        assertThat(compileInto(classes, other)).isTrue();
+        assertThat(Files.readAllLines(services))
+                .containsExactly("provider.Outer$Name$Inner$Name", "provider.Other");
+    }
+
+    @Test
+    public void testIncrementalNativeImage(@TempDir Path dir) throws IOException {
+        Path sources = Files.createDirectories(dir.resolve("src/provider"));
+        Path classes = Files.createDirectories(dir.resolve("classes"));
+        Path reflectConfig = classes.resolve("META-INF/native-image/com.example/foo/reflect-config.json");
+        Path resourceConfig = classes.resolve("META-INF/native-image/com.example/foo/resource-config.json");
+        String option = "-A" + ServiceProviderProcessor.NATIVE_IMAGE_OPTION + "=com.example/foo";
+
+        Path service = write(sources, "Incremental", "public interface Incremental {}");
+        Path other = write(sources, "Other", "public interface Other {}");
+        Path first = write(sources, "First", "@nbbrd.service.ServiceProvider public class First implements Incremental {}");
+        Path second = write(sources, "Second", "@nbbrd.service.ServiceProvider(Other.class) public class Second implements Other {}");
+
+        assertThat(compileInto(classes, singletonList(option), service, other, first, second)).isTrue();
+        assertThat(new String(Files.readAllBytes(reflectConfig), StandardCharsets.UTF_8))
+                .contains("\"name\": \"provider.First\"", "\"name\": \"provider.Second\"");
+
+        // providers that are not recompiled are kept
+        Path third = write(sources, "Third", "@nbbrd.service.ServiceProvider public class Third implements Incremental {}");
+
+        assertThat(compileInto(classes, singletonList(option), third)).isTrue();
+        assertThat(new String(Files.readAllBytes(reflectConfig), StandardCharsets.UTF_8))
+                .contains("\"name\": \"provider.First\"", "\"name\": \"provider.Second\"", "\"name\": \"provider.Third\"");
+        assertThat(new String(Files.readAllBytes(resourceConfig), StandardCharsets.UTF_8))
+                .contains("\\\\QMETA-INF/services/provider.Incremental\\\\E", "\\\\QMETA-INF/services/provider.Other\\\\E");
+
+        // deleted providers are pruned along with the services that no longer have any
+        Files.delete(second);
+        Files.delete(classes.resolve("provider/Second.class"));
+
+        assertThat(compileInto(classes, singletonList(option), third)).isTrue();
+        assertThat(new String(Files.readAllBytes(reflectConfig), StandardCharsets.UTF_8))
+                .contains("\"name\": \"provider.First\"", "\"name\": \"provider.Third\"")
+                .doesNotContain("\"name\": \"provider.Second\"");
+        assertThat(new String(Files.readAllBytes(resourceConfig), StandardCharsets.UTF_8))
+                .contains("\\\\QMETA-INF/services/provider.Incremental\\\\E")
+                .doesNotContain("\\\\QMETA-INF/services/provider.Other\\\\E");
+    }
+
+    private static Path write(Path dir, String name, String body) throws IOException {
+        return Files.write(dir.resolve(name + ".java"), singletonList("package provider; " + body));
+    }
+
+    private static boolean compileInto(Path classes, Path... sources) throws IOException {
+        return compileInto(classes, emptyList(), sources);
+    }
+
+    private static boolean compileInto(Path classes, List<String> processorOptions, Path... sources) throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null)) {
+            Path generated = Files.createDirectories(classes.resolveSibling("generated"));
+            List<String> options = new ArrayList<>(asList("-d", classes.toString(), "-s", generated.toString(), "-classpath", System.getProperty("java.class.path") + File.pathSeparator + classes));
+            options.addAll(processorOptions);
+            JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, null, options, null, fileManager.getJavaFileObjects(sources));
+            task.setProcessors(singletonList(new ServiceProviderProcessor()));
+            return task.call();
+        }
+    }
+
     private Compilation compile(JavaFileObject... files) {
         return Compiler.javac()
                 .withProcessors(new ServiceProviderProcessor())
@@ -3,7 +3,10 @@ package definition;
 import nbbrd.service.*;
 
 @ServiceDefinition(
-        quantifier = Quantifier.MULTIPLE
+        quantifier = Quantifier.MULTIPLE,
+        observable = true,
+        concurrent = true,
+        refreshable = true
 )
 interface TestAllOptions {
 
@@ -0,0 +1,49 @@
+package definition;
+
+import nbbrd.service.Quantifier;
+import nbbrd.service.ServiceDefinition;
+import nbbrd.service.ServiceId;
+import nbbrd.service.ServiceProvider;
+
+import java.util.List;
+
+public class TestAllocationFree {
+
+    @ServiceDefinition(quantifier = Quantifier.MULTIPLE, batchType = Batch.class, cached = true)
+    public interface Codec {
+
+        @ServiceId
+        String getName();
+    }
+
+    public interface Batch {
+        List<Codec> getCodecs();
+    }
+
+    @ServiceProvider
+    public enum Builtin implements Codec {
+        ZIP, GZIP;
+
+        @Override
+        public String getName() {
+            return name();
+        }
+    }
+
+    public static volatile Object sink;
+
+    public static Runnable get() {
+        TestAllocationFreeLoader.Codec loader = TestAllocationFreeLoader.Codec.builder().build();
+        return () -> sink = loader.get();
+    }
+
+    public static Runnable getById() {
+        TestAllocationFreeLoader.Codec loader = TestAllocationFreeLoader.Codec.builder().build();
+        return () -> sink = loader.getById("GZIP").get();
+    }
+
+    public static Runnable getBatch() {
+        Batch batch = new BuiltinBatchProvider();
+        return () -> sink = batch.getCodecs();
+    }
+}
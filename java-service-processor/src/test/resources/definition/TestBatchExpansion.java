@@ -0,0 +1,69 @@
+package definition;
+
+import nbbrd.service.Quantifier;
+import nbbrd.service.ServiceDefinition;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class TestBatchExpansion {
+
+    @ServiceDefinition(quantifier = Quantifier.MULTIPLE, batchType = Batch.class)
+    public interface Codec {
+
+        String getName();
+    }
+
+    public interface Batch {
+
+        Stream<Codec> getProviders();
+    }
+
+    static final AtomicInteger CALLS = new AtomicInteger();
+
+    public static final class EqualBatch implements Batch {
+
+        private final String name;
+
+        EqualBatch(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Stream<Codec> getProviders() {
+            CALLS.incrementAndGet();
+            return Stream.of(() -> name);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof EqualBatch;
+        }
+
+        @Override
+        public int hashCode() {
+            return 0;
+        }
+    }
+
+    public static List<String> getExpansions() {
+        TestBatchExpansionLoader.Codec loader = TestBatchExpansionLoader.Codec
+                .builder()
+                .backend(type -> type == Batch.class ? Arrays.asList(new EqualBatch("a"), new EqualBatch("b")) : Collections.emptyList(), backend -> backend, backend -> {
+                })
+                .build();
+        String first = getNames(loader.get());
+        String second = getNames(loader.get());
+        int calls = CALLS.get();
+        loader.reload();
+        return Arrays.asList(first, second, "calls:" + calls, getNames(loader.get()), "calls:" + CALLS.get());
+    }
+
+    private static String getNames(List<Codec> codecs) {
+        return codecs.stream().map(Codec::getName).collect(Collectors.joining(" "));
+    }
+}
@@ -0,0 +1,62 @@
+package definition;
+
+import nbbrd.service.Quantifier;
+import nbbrd.service.ServiceDefinition;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class TestBatchInfinite {
+
+    @ServiceDefinition(quantifier = Quantifier.MULTIPLE, batchType = Batch.class)
+    public interface Counter {
+
+        int getValue();
+    }
+
+    public interface Batch {
+
+        Iterator<Counter> getProviders();
+    }
+
+    public static final class EndlessBatch implements Batch {
+
+        @Override
+        public Iterator<Counter> getProviders() {
+            return new Iterator<Counter>() {
+                private int next = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return true;
+                }
+
+                @Override
+                public Counter next() {
+                    int value = next++;
+                    return () -> value;
+                }
+            };
+        }
+    }
+
+    public static List<String> getFirsts() {
+        return Arrays.asList(
+                String.valueOf(newLoader().stream().findFirst().get().getValue()),
+                String.valueOf(newLoader().iterator().next().getValue()),
+                newLoader().getTop(3).stream().map(o -> String.valueOf(o.getValue())).collect(Collectors.joining(" ")),
+                String.valueOf(newLoader().stream().iterator().next().getValue())
+        );
+    }
+
+    private static TestBatchInfiniteLoader.Counter newLoader() {
+        return TestBatchInfiniteLoader.Counter
+                .builder()
+                .backend(type -> type == Batch.class ? Collections.singletonList(new EndlessBatch()) : Collections.emptyList(), backend -> backend, backend -> {
+                })
+                .build();
+    }
+}
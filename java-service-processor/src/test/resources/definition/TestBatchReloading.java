@@ -6,7 +6,7 @@ import java.util.stream.Stream;
 
 class TestBatchReloading {
 
-    @ServiceDefinition(batchType = Batch.class)
+    @ServiceDefinition(batchType = Batch.class, observable = true, concurrent = true)
     interface Mutable {
     }
 
@@ -0,0 +1,34 @@
+package definition;
+
+import nbbrd.service.Quantifier;
+import nbbrd.service.ServiceDefinition;
+import nbbrd.service.ServiceFilter;
+import nbbrd.service.ServiceId;
+import nbbrd.service.ServiceSorter;
+
+public class TestCached {
+
+    @ServiceDefinition(cached = true)
+    interface Optional {
+    }
+
+    @ServiceDefinition(quantifier = Quantifier.SINGLE, fallback = SingleFallback.class, cached = true)
+    interface Single {
+    }
+
+    public static class SingleFallback implements Single {
+    }
+
+    @ServiceDefinition(quantifier = Quantifier.MULTIPLE, cached = true, observable = true, concurrent = true, refreshable = true)
+    interface Multiple {
+
+        @ServiceId
+        String getName();
+
+        @ServiceFilter
+        boolean isAvailable();
+
+        @ServiceSorter
+        int getRank();
+    }
+}
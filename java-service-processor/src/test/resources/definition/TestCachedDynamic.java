@@ -0,0 +1,43 @@
+package definition;
+
+import nbbrd.service.Quantifier;
+import nbbrd.service.ServiceDefinition;
+import nbbrd.service.ServiceFilter;
+import nbbrd.service.ServiceId;
+import nbbrd.service.ServiceSorter;
+
+public class TestCachedDynamic {
+
+    @ServiceDefinition(cached = true)
+    interface Optional {
+
+        @ServiceFilter(dynamic = true)
+        boolean isEnabled();
+    }
+
+    @ServiceDefinition(quantifier = Quantifier.MULTIPLE, cached = true)
+    interface Multiple {
+
+        @ServiceId
+        String getName();
+
+        @ServiceFilter
+        boolean isAvailable();
+
+        @ServiceFilter(dynamic = true, negate = true)
+        boolean isDisabled();
+
+        @ServiceSorter
+        int getRank();
+    }
+
+    @ServiceDefinition(quantifier = Quantifier.MULTIPLE)
+    interface NotCached {
+
+        @ServiceFilter
+        boolean isAvailable();
+
+        @ServiceFilter(dynamic = true)
+        boolean isEnabled();
+    }
+}
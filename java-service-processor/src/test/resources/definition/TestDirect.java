@@ -0,0 +1,36 @@
+package definition;
+
+import nbbrd.service.Quantifier;
+import nbbrd.service.ServiceDefinition;
+import nbbrd.service.ServiceProvider;
+
+@ServiceDefinition(quantifier = Quantifier.MULTIPLE, direct = true)
+public interface TestDirect {
+
+    @ServiceProvider
+    final class ByConstructor implements TestDirect {
+    }
+
+    @ServiceProvider
+    final class ByStaticMethod implements TestDirect {
+
+        public static ByStaticMethod provider() {
+            return new ByStaticMethod();
+        }
+    }
+
+    @ServiceProvider
+    final class ByServiceFactory implements TestDirect {
+
+        public static TestDirect provider() {
+            return new ByServiceFactory();
+        }
+    }
+
+    final class Holder {
+
+        @ServiceProvider(TestDirect.class)
+        public static final TestDirect BY_STATIC_FIELD = new TestDirect() {
+        };
+    }
+}
@@ -0,0 +1,73 @@
+package definition;
+
+import nbbrd.service.Quantifier;
+import nbbrd.service.ServiceDefinition;
+import nbbrd.service.ServiceProvider;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+public class TestDirectFactory {
+
+    @ServiceDefinition(quantifier = Quantifier.MULTIPLE, direct = true)
+    public interface Codec {
+    }
+
+    @ServiceProvider
+    public static final class Zip implements Codec {
+
+        static final AtomicInteger COUNT = new AtomicInteger();
+
+        public static Zip provider() {
+            COUNT.incrementAndGet();
+            return new Zip();
+        }
+    }
+
+    @ServiceProvider
+    public static final class Rar implements Codec {
+
+        static final AtomicInteger COUNT = new AtomicInteger();
+
+        public static Codec provider() {
+            COUNT.incrementAndGet();
+            return new Rar();
+        }
+    }
+
+    public static List<String> getInstantiations() {
+        // same handles as the ones of ServiceLoader for providers of the module path
+        List<ServiceLoader.Provider<Codec>> handles = Arrays.asList(
+                handleOf(Zip.class, Zip::provider),
+                handleOf(Codec.class, Rar::provider)
+        );
+        List<String> result = new ArrayList<>();
+        TestDirectFactoryLoader.Codec
+                .builder()
+                .backend(type -> handles, backend -> backend)
+                .build()
+                .get()
+                .forEach(o -> result.add(o.getClass().getSimpleName()));
+        result.add("Zip:" + Zip.COUNT.get());
+        result.add("Rar:" + Rar.COUNT.get());
+        return result;
+    }
+
+    private static ServiceLoader.Provider<Codec> handleOf(Class<? extends Codec> type, Supplier<Codec> factory) {
+        return new ServiceLoader.Provider<Codec>() {
+            @Override
+            public Class<? extends Codec> type() {
+                return type;
+            }
+
+            @Override
+            public Codec get() {
+                return factory.get();
+            }
+        };
+    }
+}
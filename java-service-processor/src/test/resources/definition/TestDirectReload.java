@@ -0,0 +1,46 @@
+package definition;
+
+import nbbrd.service.Quantifier;
+import nbbrd.service.ServiceDefinition;
+import nbbrd.service.ServiceProvider;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class TestDirectReload {
+
+    @ServiceDefinition(quantifier = Quantifier.MULTIPLE, direct = true)
+    public interface Greeter {
+
+        String greet();
+    }
+
+    @ServiceProvider
+    public enum Greeting implements Greeter {
+        HELLO {
+            @Override
+            public String greet() {
+                return "hello";
+            }
+        },
+        BONJOUR {
+            @Override
+            public String greet() {
+                return "bonjour";
+            }
+        }
+    }
+
+    public static List<String> getGreetings() {
+        TestDirectReloadLoader.Greeter loader = TestDirectReloadLoader.Greeter.builder().build();
+        String before = greetAll(loader.get());
+        loader.reload();
+        String after = greetAll(loader.get());
+        return Arrays.asList(before, after);
+    }
+
+    private static String greetAll(List<Greeter> greeters) {
+        return greeters.stream().map(Greeter::greet).collect(Collectors.joining(" "));
+    }
+}
@@ -0,0 +1,61 @@
+package definition;
+
+import nbbrd.service.Quantifier;
+import nbbrd.service.ServiceDefinition;
+import nbbrd.service.ServiceId;
+import nbbrd.service.ServiceProvider;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestDuplicateId {
+
+    @ServiceDefinition(quantifier = Quantifier.MULTIPLE, cached = true, observable = true)
+    public interface Codec {
+
+        @ServiceId
+        String getName();
+    }
+
+    @ServiceProvider
+    public static final class Zip implements Codec {
+
+        @Override
+        public String getName() {
+            return "zip";
+        }
+    }
+
+    @ServiceProvider
+    public static final class ZipCopy implements Codec {
+
+        @Override
+        public String getName() {
+            return "zip";
+        }
+    }
+
+    @ServiceProvider
+    public static final class Gzip implements Codec {
+
+        @Override
+        public String getName() {
+            return "gzip";
+        }
+    }
+
+    public static List<String> getDuplicates() {
+        List<String> result = new ArrayList<>();
+        TestDuplicateIdLoader.Codec loader = TestDuplicateIdLoader.Codec
+                .builder()
+                .listener(new TestDuplicateIdLoader.Codec.Listener() {
+                    @Override
+                    public void onDuplicateId(String id, Codec kept, Codec ignored) {
+                        result.add(id + ":" + kept.getClass().getSimpleName() + ":" + ignored.getClass().getSimpleName());
+                    }
+                })
+                .build();
+        result.add("asMap:" + loader.asMap().get("zip").getClass().getSimpleName());
+        return result;
+    }
+}
@@ -0,0 +1,74 @@
+package definition;
+
+import nbbrd.service.Quantifier;
+import nbbrd.service.ServiceDefinition;
+import nbbrd.service.ServiceId;
+import nbbrd.service.ServiceProvider;
+import nbbrd.service.ServiceSorter;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class TestDuplicateIdSorted {
+
+    @ServiceDefinition(quantifier = Quantifier.MULTIPLE, cached = true)
+    public interface Cached {
+
+        @ServiceId
+        String getName();
+
+        @ServiceSorter
+        int getRank();
+    }
+
+    @ServiceDefinition(quantifier = Quantifier.MULTIPLE)
+    public interface Live {
+
+        @ServiceId
+        String getName();
+
+        @ServiceSorter
+        int getRank();
+    }
+
+    @ServiceProvider(Cached.class)
+    @ServiceProvider(Live.class)
+    public static final class Zip implements Cached, Live {
+
+        @Override
+        public String getName() {
+            return "zip";
+        }
+
+        @Override
+        public int getRank() {
+            return 2;
+        }
+    }
+
+    @ServiceProvider(Cached.class)
+    @ServiceProvider(Live.class)
+    public static final class ZipCopy implements Cached, Live {
+
+        @Override
+        public String getName() {
+            return "zip";
+        }
+
+        @Override
+        public int getRank() {
+            return 1;
+        }
+    }
+
+    public static List<String> getByIds() {
+        TestDuplicateIdSortedLoader.Cached cached = TestDuplicateIdSortedLoader.Cached.builder().build();
+        TestDuplicateIdSortedLoader.Live live = TestDuplicateIdSortedLoader.Live.builder().build();
+        return Arrays.asList(
+                cached.getById("zip").map(o -> o.getClass().getSimpleName()).orElse("none"),
+                live.getById("zip").map(o -> o.getClass().getSimpleName()).orElse("none"),
+                cached.getById(new StringBuilder("zip")).map(o -> o.getClass().getSimpleName()).orElse("none"),
+                live.getById(new StringBuilder("zip")).map(o -> o.getClass().getSimpleName()).orElse("none")
+        );
+    }
+}
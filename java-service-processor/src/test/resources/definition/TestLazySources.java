@@ -0,0 +1,46 @@
+package definition;
+
+import nbbrd.service.Quantifier;
+import nbbrd.service.ServiceDefinition;
+import nbbrd.service.ServiceProvider;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class TestLazySources {
+
+    @ServiceDefinition(quantifier = Quantifier.OPTIONAL)
+    public interface Codec {
+    }
+
+    @ServiceDefinition(quantifier = Quantifier.MULTIPLE)
+    public interface Codecs {
+    }
+
+    @ServiceProvider(Codec.class)
+    @ServiceProvider(Codecs.class)
+    public static final class Primary implements Codec, Codecs {
+    }
+
+    @ServiceProvider(Codec.class)
+    @ServiceProvider(Codecs.class)
+    public static final class Secondary implements Codec, Codecs {
+
+        public Secondary() {
+            throw new IllegalStateException("Not needed");
+        }
+    }
+
+    public static List<String> getFirsts() {
+        TestLazySourcesLoader.Codec optional = TestLazySourcesLoader.Codec.builder().build();
+        TestLazySourcesLoader.Codecs multiple = TestLazySourcesLoader.Codecs.builder().build();
+        String first = optional.get().map(o -> o.getClass().getSimpleName()).orElse("none");
+        String second = optional.get().map(o -> o.getClass().getSimpleName()).orElse("none");
+        optional.reload();
+        String reloaded = optional.get().map(o -> o.getClass().getSimpleName()).orElse("none");
+        String streamed = multiple.stream().findFirst().map(o -> o.getClass().getSimpleName()).orElse("none");
+        multiple.reload();
+        String restreamed = multiple.stream().findFirst().map(o -> o.getClass().getSimpleName()).orElse("none");
+        return Arrays.asList(first, second, reloaded, streamed, restreamed);
+    }
+}
@@ -0,0 +1,45 @@
+package definition;
+
+import nbbrd.service.Quantifier;
+import nbbrd.service.ServiceDefinition;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class TestRefreshFailure {
+
+    @ServiceDefinition(quantifier = Quantifier.OPTIONAL, observable = true, concurrent = true, refreshable = true)
+    public interface Codec {
+    }
+
+    public static final class Zip implements Codec {
+    }
+
+    public static List<String> getEvents() throws InterruptedException {
+        List<String> result = new ArrayList<>();
+        TestRefreshFailureLoader.Codec loader = TestRefreshFailureLoader.Codec
+                .builder()
+                .backend(type -> Collections.singletonList(new Zip()), backend -> backend, backend -> {
+                    result.add("reload");
+                    throw new IllegalStateException("boom");
+                })
+                .executor(task -> {
+                    result.add("execute");
+                    task.run();
+                })
+                .listener(new TestRefreshFailureLoader.Codec.Listener() {
+                    @Override
+                    public void onReloadFailed(Throwable error) {
+                        result.add("failed:" + error.getMessage());
+                    }
+                })
+                .refreshAfter(Duration.ofNanos(1))
+                .build();
+        loader.get();
+        Thread.sleep(1);
+        result.add("get:" + loader.get().map(o -> o.getClass().getSimpleName()).orElse("none"));
+        return result;
+    }
+}
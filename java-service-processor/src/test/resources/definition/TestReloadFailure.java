@@ -0,0 +1,69 @@
+package definition;
+
+import nbbrd.service.Quantifier;
+import nbbrd.service.ServiceDefinition;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestReloadFailure {
+
+    @ServiceDefinition(quantifier = Quantifier.OPTIONAL)
+    public interface Codec {
+    }
+
+    public static final class Zip implements Codec {
+    }
+
+    public static List<String> getReloads() throws InterruptedException {
+        List<String> result = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch failing = new CountDownLatch(1);
+        AtomicInteger count = new AtomicInteger();
+        TestReloadFailureLoader.Codec loader = TestReloadFailureLoader.Codec
+                .builder()
+                .backend(type -> Collections.singletonList(new Zip()), backend -> backend, backend -> {
+                    if (count.incrementAndGet() == 1) {
+                        started.countDown();
+                        awaitUninterruptibly(failing);
+                        result.add("failed");
+                        throw new IllegalStateException("boom");
+                    }
+                    result.add("reloaded");
+                })
+                .build();
+
+        Thread first = new Thread(() -> {
+            try {
+                loader.reload();
+            } catch (IllegalStateException ex) {
+                result.add("caught:" + ex.getMessage());
+            }
+        });
+        first.start();
+        started.await();
+
+        // the second request starts while the first reload is running and must not be lost when it fails
+        Thread second = new Thread(loader::reload);
+        second.start();
+        while (second.getState() != Thread.State.BLOCKED) {
+            Thread.yield();
+        }
+        failing.countDown();
+
+        first.join();
+        second.join();
+        return result;
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package definition;
+
+import nbbrd.service.ServiceDefinition;
+import nbbrd.service.ServiceSorter;
+
+class TestSorterPrimitive {
+
+    @ServiceDefinition
+    interface FloatSorter {
+
+        @ServiceSorter
+        float getCost();
+    }
+
+    @ServiceDefinition
+    interface ShortSorter {
+
+        @ServiceSorter
+        short getCost();
+    }
+
+    @ServiceDefinition
+    interface ByteSorter {
+
+        @ServiceSorter
+        byte getCost();
+    }
+
+    @ServiceDefinition
+    interface CharSorter {
+
+        @ServiceSorter
+        char getCost();
+    }
+
+    @ServiceDefinition
+    interface BooleanSorter {
+
+        @ServiceSorter(reverse = true)
+        boolean isPreferred();
+    }
+}
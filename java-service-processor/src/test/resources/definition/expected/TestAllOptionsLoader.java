@@ -2,14 +2,41 @@ package definition;
 
 import java.lang.CharSequence;
 import java.lang.Class;
+import java.lang.Comparable;
+import java.lang.Error;
+import java.lang.IllegalArgumentException;
+import java.lang.Integer;
 import java.lang.Iterable;
+import java.lang.Long;
 import java.lang.Object;
+import java.lang.Override;
 import java.lang.Runnable;
+import java.lang.RuntimeException;
+import java.lang.String;
+import java.lang.System;
+import java.lang.Thread;
+import java.lang.Throwable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.PriorityQueue;
 import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
@@ -27,6 +54,7 @@ import java.util.stream.StreamSupport;
  * <li>Preprocessing: filters:[isAvailable+isDisabled] sorters:[getCost1+getCost2]</li>
  * <li>Name: null</li>
  * <li>Batch type: null</li>
+ * <li>Cached: false</li>
  * </ul>
  */
 public final class TestAllOptionsLoader {
@@ -36,25 +64,188 @@ public final class TestAllOptionsLoader {
 
   private final Runnable providerReloader;
 
-  private final Predicate<TestAllOptions> filter = ((Predicate<TestAllOptions>)o -> ID_PATTERN.matcher(o.getName()).matches()).and(TestAllOptions::isAvailable).and(((Predicate<TestAllOptions>)TestAllOptions::isDisabled).negate());
+  private final Executor executor;
 
-  private final Comparator<TestAllOptions> sorter = ((Comparator<TestAllOptions>)Comparator.comparingInt(TestAllOptions::getCost1)).thenComparing(Collections.reverseOrder(Comparator.comparingInt(TestAllOptions::getCost2)));
+  private final Listener listener;
 
-  private TestAllOptionsLoader(Iterable<?> providerSource, Runnable providerReloader) {
+  private final long refreshNanos;
+
+  private final AtomicLong refreshDeadline = new AtomicLong();
+
+  private volatile long reloadCount;
+
+  private long lastReload;
+
+  private volatile Sources sources;
+
+  private final Predicate<TestAllOptions> filter;
+
+  private TestAllOptionsLoader(Iterable<?> providerSource, Runnable providerReloader,
+      Executor executor, Listener listener, long refreshNanos) {
     this.providerSource = providerSource;
     this.providerReloader = providerReloader;
+    this.executor = executor;
+    this.listener = listener;
+    this.refreshNanos = refreshNanos;
+    this.filter = listener != null
+        ? observeFilter(o -> ID_PATTERN.matcher(o.getName()).matches(), "ID_PATTERN", listener).and(observeFilter(TestAllOptions::isAvailable, "isAvailable", listener)).and(observeFilter(((Predicate<TestAllOptions>)TestAllOptions::isDisabled).negate(), "isDisabled", listener))
+        : ((Predicate<TestAllOptions>)o -> ID_PATTERN.matcher(o.getName()).matches()).and(TestAllOptions::isAvailable).and(((Predicate<TestAllOptions>)TestAllOptions::isDisabled).negate());
   }
 
   /**
-   * Reloads the content by clearing the cache and fetching available providers.
+   * Reloads the content by fetching available providers and rebuilding the cache.
    * <p>It should be called when the set of available providers may have changed.
+   * <p>The new content is built while the current one remains available to other threads, and is then published atomically.
+   * If the new content cannot be built, the current one is kept and the exception is propagated.
+   * Note that a reader that is still iterating the current content only gets the providers fetched before the reload.
+   * <p>Concurrent calls are coalesced: a call that waits for a successful reload started after it returns without fetching providers once more.
    */
   public void reload() {
-    providerReloader.run();
+    long requested = reloadCount;
+    synchronized (this) {
+      if (lastReload > requested) {
+        return;
+      }
+      long current = ++reloadCount;
+      long start = System.nanoTime();
+      Sources previous = sources;
+      Set<String> before = listener != null && previous != null ? previous.getNames(true) : Collections.emptySet();
+      if (previous != null) {
+        previous.providers.reload(providerReloader);
+      } else {
+        providerReloader.run();
+      }
+      Sources next = newSources();
+      sources = next;
+      if (listener != null) {
+        Set<String> after = next.getNames(false);
+        listener.onReloaded(getNamesNotIn(after, before), getNamesNotIn(before, after), System.nanoTime() - start);
+      }
+      lastReload = current;
+    }
   }
 
-  private Stream<TestAllOptions> stream() {
-    return StreamSupport.stream(providerSource.spliterator(), false).filter(TestAllOptions.class::isInstance).map(TestAllOptions.class::cast);
+  private void refreshIfStale() {
+    if (refreshNanos > 0 && sources != null) {
+      long now = System.nanoTime();
+      long deadline = refreshDeadline.get();
+      if (now - deadline >= 0 && refreshDeadline.compareAndSet(deadline, now + refreshNanos)) {
+        Runnable task = this::backgroundReload;
+        if (executor != null) {
+          executor.execute(task);
+        } else {
+          Refresher.EXECUTOR.execute(task);
+        }
+      }
+    }
+  }
+
+  private void backgroundReload() {
+    try {
+      reload();
+    } catch (RuntimeException | Error ex) {
+      if (listener == null) {
+        throw ex;
+      }
+      listener.onReloadFailed(ex);
+    }
+  }
+
+  private Sources getSources() {
+    refreshIfStale();
+    Sources result = sources;
+    return result != null ? result : loadSources();
+  }
+
+  private synchronized Sources loadSources() {
+    if (sources == null) {
+      sources = newSources();
+    }
+    return sources;
+  }
+
+  private Sources newSources() {
+    refreshDeadline.set(System.nanoTime() + refreshNanos);
+    return new Sources(new Memo(providerSource));
+  }
+
+  private Stream<TestAllOptions> gather(Sources current) {
+    return current.providers.stream().filter(TestAllOptions.class::isInstance).map(TestAllOptions.class::cast);
+  }
+
+  private Stream<TestAllOptions> gatherFiltered(Sources current) {
+    if (executor != null) {
+      List<CompletableFuture<List<TestAllOptions>>> futures = submitConcurrently(current.providers.stream().filter(TestAllOptions.class::isInstance), item -> Stream.of(TestAllOptions.class.cast(item)), filter, executor);
+      return joinConcurrently(futures);
+    }
+    return gather(current)
+        .filter(filter);
+  }
+
+  private static <T> List<CompletableFuture<List<T>>> submitConcurrently(Stream<?> items,
+      Function<Object, Stream<T>> expander, Predicate<? super T> filter, Executor executor) {
+    return items
+        .map(o -> CompletableFuture.supplyAsync(() -> expander.apply(o).filter(filter).collect(Collectors.toList()), executor))
+        .collect(Collectors.toCollection(ArrayList::new));
+  }
+
+  private static <T> Stream<T> joinConcurrently(List<CompletableFuture<List<T>>> futures) {
+    List<T> result = new ArrayList<>();
+    for (CompletableFuture<List<T>> future : futures) {
+      try {
+        result.addAll(future.join());
+      } catch (CompletionException ex) {
+        Throwable cause = ex.getCause();
+        if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+          throw (Error) cause;
+        }
+        throw ex;
+      }
+    }
+    return result.stream();
+  }
+
+  private static Set<String> getNamesNotIn(Set<String> names, Set<String> others) {
+    Set<String> result = new LinkedHashSet<>();
+    for (String name : names) {
+      if (!others.contains(name)) {
+        result.add(name);
+      }
+    }
+    return Collections.unmodifiableSet(result);
+  }
+
+  private static Predicate<TestAllOptions> observeFilter(Predicate<TestAllOptions> filter,
+      String name, Listener listener) {
+    return o -> {
+      if (filter.test(o)) {
+        return true;
+      }
+      listener.onFilterRejected(o, name);
+      return false;
+    };
+  }
+
+  private Stream<TestAllOptions> sort(Stream<TestAllOptions> providers) {
+    if (listener == null) {
+      return providers
+          .map(SortKey::new)
+          .sorted()
+          .map(o -> o.provider);
+    }
+    // providers are gathered first so that only sorting is measured
+    List<TestAllOptions> list = providers.collect(Collectors.toList());
+    long start = System.nanoTime();
+    List<TestAllOptions> result = list.stream()
+        .map(SortKey::new)
+        .sorted()
+        .map(o -> o.provider)
+        .collect(Collectors.toList());
+    listener.onSorted(result.size(), System.nanoTime() - start);
+    return result.stream();
   }
 
   /**
@@ -63,10 +254,64 @@ public final class TestAllOptionsLoader {
    * @return a non-null unmodifiable list of {@link definition.TestAllOptions} instances
    */
   public List<TestAllOptions> get() {
-    return stream()
-        .filter(filter)
-        .sorted(sorter)
+    List<TestAllOptions> result = sort(gatherFiltered(getSources()))
         .collect(Collectors.collectingAndThen(Collectors.toList(), Collections::unmodifiableList));
+    if (listener != null) {
+      listener.onSelected(result);
+    }
+    return result;
+  }
+
+  /**
+   * Gets a list of the first {@link definition.TestAllOptions} instances.
+   * <p>Returns at most k available providers after applying filters and sorters.
+   * This is equivalent to the first k elements of {@link #get()} but it does not sort all the providers.
+   * @param k the maximum number of providers
+   * @return a non-null unmodifiable list of {@link definition.TestAllOptions} instances
+   * @throws IllegalArgumentException if k is negative
+   */
+  public List<TestAllOptions> getTop(int k) {
+    if (k < 0) {
+      throw new IllegalArgumentException("Negative k: " + k);
+    }
+    PriorityQueue<SortKey> heap = new PriorityQueue<>(Collections.reverseOrder());
+    Iterator<TestAllOptions> iterator = gatherFiltered(getSources()).iterator();
+    for (int i = 0; iterator.hasNext(); i++) {
+      SortKey key = new SortKey(iterator.next(), i);
+      if (heap.size() < k) {
+        heap.add(key);
+      } else if (k > 0 && key.compareTo(heap.peek()) < 0) {
+        heap.poll();
+        heap.add(key);
+      }
+    }
+    SortKey[] keys = heap.toArray(new SortKey[0]);
+    Arrays.sort(keys);
+    List<TestAllOptions> result = new ArrayList<>(keys.length);
+    for (SortKey key : keys) {
+      result.add(key.provider);
+    }
+    return Collections.unmodifiableList(result);
+  }
+
+  /**
+   * Gets a lazy stream of {@link definition.TestAllOptions} instances.
+   * <p>Providers are instantiated and filtered on demand so that short-circuiting operations stop as soon as they have an answer.
+   * Note that sorting requires all the providers to be instantiated before the first element is available.
+   * Note that an executor, if any, instantiates all the providers before the first element is available.
+   * @return a non-null stream of {@link definition.TestAllOptions} instances
+   */
+  public Stream<TestAllOptions> stream() {
+    return sort(gatherFiltered(getSources()));
+  }
+
+  /**
+   * Gets a lazy iterator of {@link definition.TestAllOptions} instances.
+   * <p>This is equivalent to {@code stream().iterator()}.
+   * @return a non-null iterator of {@link definition.TestAllOptions} instances
+   */
+  public Iterator<TestAllOptions> iterator() {
+    return stream().iterator();
   }
 
   /**
@@ -82,15 +327,29 @@ public final class TestAllOptionsLoader {
 
   /**
    * Gets an optional {@link definition.TestAllOptions} instance by ID.
-   * <p>Returns the first available provider whose ID equals the given value, after applying filters.
+   * <p>Returns the first available provider whose ID equals the given value, after applying filters and sorters.
+   * The providers are scanned on each call; a cached loader looks them up in an index instead.
    * @param id the ID to look up, not null
    * @return a non-null optional {@link definition.TestAllOptions} instance
    */
   public Optional<TestAllOptions> getById(CharSequence id) {
-    return stream()
-        .filter(filter)
+    if (listener == null) {
+      return gather(getSources())
+          .filter(o -> o.getName().equals(id))
+          .filter(filter)
+          .map(SortKey::new)
+          .min(Comparator.naturalOrder())
+          .map(o -> o.provider);
+    }
+    long start = System.nanoTime();
+    Optional<TestAllOptions> result = gather(getSources())
         .filter(o -> o.getName().equals(id))
-        .findFirst();
+        .filter(filter)
+        .map(SortKey::new)
+        .min(Comparator.naturalOrder())
+        .map(o -> o.provider);
+    listener.onSelectedById(id, result, System.nanoTime() - start);
+    return result;
   }
 
   /**
@@ -114,6 +373,182 @@ public final class TestAllOptionsLoader {
     return new Builder();
   }
 
+  /**
+   * Receives the events of a loader in order to find out where loading time goes.
+   * <p>All the methods do nothing by default.
+   * Note that they may be called concurrently if an executor is configured.
+   */
+  public interface Listener {
+    /**
+     * Called when a backend has been created.
+     * @param type the type of the loaded providers
+     * @param nanos the duration in nanoseconds
+     */
+    default void onBackendCreated(Class<?> type, long nanos) {
+    }
+
+    /**
+     * Called when a provider has been instantiated.
+     * <p>The duration includes class loading if it occurs at that time.
+     * @param className the name of the provider class
+     * @param nanos the duration in nanoseconds
+     */
+    default void onProviderInstantiated(String className, long nanos) {
+    }
+
+    /**
+     * Called when a provider has been rejected by a filter.
+     * @param provider the rejected provider
+     * @param filterName the name of the filter method, or {@code ID_PATTERN} for the ID pattern
+     */
+    default void onFilterRejected(TestAllOptions provider, String filterName) {
+    }
+
+    /**
+     * Called when providers have been sorted.
+     * @param count the number of sorted providers
+     * @param nanos the duration in nanoseconds
+     */
+    default void onSorted(int count, long nanos) {
+    }
+
+    /**
+     * Called when the result of {@code get()} has been computed.
+     * @param result the selected providers
+     */
+    default void onSelected(List<TestAllOptions> result) {
+    }
+
+    /**
+     * Called when the result of {@code getById(id)} has been computed.
+     * @param id the requested ID
+     * @param result the selected provider
+     * @param nanos the duration in nanoseconds
+     */
+    default void onSelectedById(CharSequence id, Optional<TestAllOptions> result, long nanos) {
+    }
+
+    /**
+     * Called when the content has been reloaded.
+     * <p>Providers are compared by class name, or by delegate name for fields and enum constants: the ones that are still available may be reused.
+     * Only the providers that were fetched before the reload are compared so that none is instantiated for this event.
+     * @param added the names of the provider classes that were not fetched before
+     * @param removed the names of the provider classes that are no longer available
+     * @param nanos the duration in nanoseconds
+     */
+    default void onReloaded(Set<String> added, Set<String> removed, long nanos) {
+    }
+
+    /**
+     * Called when a background reload has failed.
+     * <p>The current content is kept and the next attempt occurs after the refresh duration.
+     * @param error the cause of the failure
+     */
+    default void onReloadFailed(Throwable error) {
+    }
+  }
+
+  /**
+   * Content of the backends, published as a whole along with the values derived from it.
+   */
+  private static final class Sources {
+    private final Memo providers;
+
+    private Sources(Memo providers) {
+      this.providers = providers;
+    }
+
+    private Set<String> getNames(boolean fetched) {
+      Set<String> result = new LinkedHashSet<>();
+      (fetched ? providers.fetched() : providers.stream()).forEach(o -> result.add(o.getClass().getName()));
+      return result;
+    }
+  }
+
+  /**
+   * Content of a backend, fetched on demand and shared by the readers of the same sources.
+   */
+  private static final class Memo {
+    private static final Object END = new Object();
+
+    private final Iterable<?> source;
+
+    private Iterator<?> iterator;
+
+    private final List<Object> items = new ArrayList<>();
+
+    private volatile boolean complete;
+
+    private Memo(Iterable<?> source) {
+      this.source = source;
+    }
+
+    private Stream<Object> stream() {
+      if (complete) {
+        return items.stream();
+      }
+      return StreamSupport.stream(new Spliterators.AbstractSpliterator<Object>(Long.MAX_VALUE, Spliterator.ORDERED) {
+        private int index;
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Object> action) {
+          Object item = get(index);
+          if (item == END) {
+            return false;
+          }
+          index++;
+          action.accept(item);
+          return true;
+        }
+      }, false);
+    }
+
+    private synchronized Object get(int index) {
+      while (items.size() <= index) {
+        if (complete || !getIterator().hasNext()) {
+          complete = true;
+          return END;
+        }
+        items.add(getIterator().next());
+      }
+      return items.get(index);
+    }
+
+    private Iterator<?> getIterator() {
+      if (iterator == null) {
+        iterator = source.iterator();
+      }
+      return iterator;
+    }
+
+    private synchronized Stream<Object> fetched() {
+      return new ArrayList<>(items).stream();
+    }
+
+    private synchronized void reload(Runnable reloader) {
+      reloader.run();
+      if (iterator != null) {
+        iterator = null;
+        complete = true;
+      }
+    }
+  }
+
+  /**
+   * Default executor of background reloads, created on first use.
+   */
+  private static final class Refresher {
+    private static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(1, 1, 1, TimeUnit.MINUTES, new LinkedBlockingQueue<>(), task -> {
+      Thread result = new Thread(task, "definition.TestAllOptionsLoader-refresh");
+      result.setDaemon(true);
+      return result;
+    });
+
+    static {
+      EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+  }
+
   public static final class Builder {
     private Function<Class<?>, Object> factory = ServiceLoader::load;
 
@@ -121,6 +556,12 @@ public final class TestAllOptionsLoader {
 
     private Consumer<Object> reloader = backend -> ((ServiceLoader) backend).reload();
 
+    private Executor executor = null;
+
+    private Listener listener = null;
+
+    private Duration refreshAfter = null;
+
     /**
      * Configures a custom backend for loading and reloading providers.
      * @param factory a function that creates a backend instance from a service class, not null
@@ -150,15 +591,120 @@ public final class TestAllOptionsLoader {
       return this;
     }
 
+    /**
+     * Configures an executor that instantiates and filters providers concurrently.
+     * <p>Results are merged in the order of the backend, before sorting.
+     * Note that only filters and batch expansions are evaluated concurrently when the backend instantiates providers while iterating, such as ServiceLoader.
+     * @param executor an executor, null for sequential loading
+     * @return this builder instance
+     */
+    public Builder executor(Executor executor) {
+      this.executor = executor;
+      return this;
+    }
+
+    /**
+     * Configures a listener that receives the loading events, such as provider instantiations and filter rejections.
+     * <p>Nothing is measured if no listener is configured.
+     * @param listener a listener, null to disable events
+     * @return this builder instance
+     */
+    public Builder listener(Listener listener) {
+      this.listener = listener;
+      return this;
+    }
+
+    /**
+     * Configures a staleness bound after which the content is reloaded in the background.
+     * <p>The first call after this duration triggers an asynchronous reload while the current content is still returned.
+     * This reload is coalesced with the other ones and its result is published once it is ready.
+     * If it fails, the current content is kept, the listener is notified and the next attempt occurs after the same duration.
+     * <p>The reload runs on the configured executor, if any, or on a daemon thread shared by the loaders of this type otherwise.
+     * @param refreshAfter a positive duration, null to disable background reloads
+     * @return this builder instance
+     */
+    public Builder refreshAfter(Duration refreshAfter) {
+      this.refreshAfter = refreshAfter;
+      return this;
+    }
+
     /**
      * Builds a new loader instance using the configured backend.
      * @return a non-null loader instance
      */
     public TestAllOptionsLoader build() {
-      Object providerBackend = factory.apply(TestAllOptions.class);
+      Object providerBackend = createBackend(TestAllOptions.class, listener);
       return new TestAllOptionsLoader(
-          streamer.apply(providerBackend), () -> reloader.accept(providerBackend)
+          observeInstantiation(streamer.apply(providerBackend), listener), () -> reloader.accept(providerBackend),
+          executor, listener, refreshAfter != null ? refreshAfter.toNanos() : 0
           );
     }
+
+    private Object createBackend(Class<?> type, Listener listener) {
+      if (listener == null) {
+        return factory.apply(type);
+      }
+      long start = System.nanoTime();
+      Object result = factory.apply(type);
+      listener.onBackendCreated(type, System.nanoTime() - start);
+      return result;
+    }
+
+    private static Iterable<?> observeInstantiation(Iterable<?> source, Listener listener) {
+      if (listener == null) {
+        return source;
+      }
+      return () -> {
+        Iterator<?> iterator = source.iterator();
+        return new Iterator<Object>() {
+          @Override
+          public boolean hasNext() {
+            return iterator.hasNext();
+          }
+
+          @Override
+          public Object next() {
+            long start = System.nanoTime();
+            Object result = iterator.next();
+            listener.onProviderInstantiated(result.getClass().getName(), System.nanoTime() - start);
+            return result;
+          }
+        };
+      };
+    }
+  }
+
+  private static final class SortKey implements Comparable<SortKey> {
+    private final TestAllOptions provider;
+
+    private final int index;
+
+    private final int key0;
+
+    private final int key1;
+
+    SortKey(TestAllOptions provider) {
+      this(provider, 0);
+    }
+
+    SortKey(TestAllOptions provider, int index) {
+      this.provider = provider;
+      this.index = index;
+      this.key0 = provider.getCost1();
+      this.key1 = provider.getCost2();
+    }
+
+    @Override
+    public int compareTo(SortKey that) {
+      int result = Integer.compare(key0, that.key0);
+      if (result != 0) {
+        return result;
+      }
+      result = Integer.compare(that.key1, key1);
+      if (result != 0) {
+        return result;
+      }
+      return Integer.compare(index, that.index);
+    }
   }
 }
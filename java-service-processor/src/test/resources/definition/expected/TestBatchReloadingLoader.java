@@ -1,13 +1,36 @@
 package definition;
 
 import java.lang.Class;
+import java.lang.Error;
 import java.lang.Iterable;
+import java.lang.Long;
 import java.lang.Object;
+import java.lang.Override;
 import java.lang.Runnable;
+import java.lang.RuntimeException;
+import java.lang.String;
+import java.lang.System;
+import java.lang.Throwable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Optional;
 import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
@@ -21,6 +44,7 @@ public final class TestBatchReloadingLoader {
    * <li>Preprocessing: null</li>
    * <li>Name: null</li>
    * <li>Batch type: definition.TestBatchReloading.Batch</li>
+   * <li>Cached: false</li>
    * </ul>
    */
   public static final class Mutable {
@@ -32,26 +56,169 @@ public final class TestBatchReloadingLoader {
 
     private final Runnable batchReloader;
 
+    private final Executor executor;
+
+    private final Listener listener;
+
+    private volatile long reloadCount;
+
+    private long lastReload;
+
+    private volatile Sources sources;
+
     private Mutable(Iterable<?> providerSource, Runnable providerReloader, Iterable<?> batchSource,
-        Runnable batchReloader) {
+        Runnable batchReloader, Executor executor, Listener listener) {
       this.providerSource = providerSource;
       this.providerReloader = providerReloader;
       this.batchSource = batchSource;
       this.batchReloader = batchReloader;
+      this.executor = executor;
+      this.listener = listener;
+    }
+
+    private Stream<TestBatchReloading.Mutable> expandBatch(TestBatchReloading.Batch o) {
+      if (listener == null) {
+        return o.getProviders();
+      }
+      long start = System.nanoTime();
+      Stream<TestBatchReloading.Mutable> result = o.getProviders();
+      listener.onBatchExpanded(o.getClass().getName(), System.nanoTime() - start);
+      return result;
+    }
+
+    private Stream<TestBatchReloading.Mutable> getExpansion(Sources current,
+        TestBatchReloading.Batch o) {
+      return current.expansions.computeIfAbsent(o, key -> new Memo((Iterable<TestBatchReloading.Mutable>) () -> expandBatch(o).iterator())).stream().map(TestBatchReloading.Mutable.class::cast);
+    }
+
+    private static Stream<TestBatchReloading.Mutable> flattenBatches(
+        Stream<TestBatchReloading.Batch> batches,
+        Function<TestBatchReloading.Batch, Stream<TestBatchReloading.Mutable>> expander) {
+      Iterator<TestBatchReloading.Batch> outer = batches.iterator();
+      Iterator<TestBatchReloading.Mutable> result = new Iterator<TestBatchReloading.Mutable>() {
+        private Iterator<TestBatchReloading.Mutable> inner = Collections.emptyIterator();
+
+        @Override
+        public boolean hasNext() {
+          while (!inner.hasNext()) {
+            if (!outer.hasNext()) {
+              return false;
+            }
+            inner = expander.apply(outer.next()).iterator();
+          }
+          return true;
+        }
+
+        @Override
+        public TestBatchReloading.Mutable next() {
+          if (!hasNext()) {
+            throw new NoSuchElementException();
+          }
+          return inner.next();
+        }
+      };
+      return StreamSupport.stream(Spliterators.spliteratorUnknownSize(result, Spliterator.ORDERED), false);
     }
 
     /**
-     * Reloads the content by clearing the cache and fetching available providers.
+     * Reloads the content by fetching available providers and rebuilding the cache.
      * <p>This method reloads both individual providers and batch providers.
      * It should be called when the set of available providers may have changed.
+     * <p>The new content is built while the current one remains available to other threads, and is then published atomically.
+     * If the new content cannot be built, the current one is kept and the exception is propagated.
+     * Note that a reader that is still iterating the current content only gets the providers fetched before the reload.
+     * <p>Concurrent calls are coalesced: a call that waits for a successful reload started after it returns without fetching providers once more.
      */
     public void reload() {
-      providerReloader.run();
-      batchReloader.run();
+      long requested = reloadCount;
+      synchronized (this) {
+        if (lastReload > requested) {
+          return;
+        }
+        long current = ++reloadCount;
+        long start = System.nanoTime();
+        Sources previous = sources;
+        Set<String> before = listener != null && previous != null ? previous.getNames(true) : Collections.emptySet();
+        if (previous != null) {
+          previous.providers.reload(providerReloader);
+          previous.batches.reload(batchReloader);
+        } else {
+          providerReloader.run();
+          batchReloader.run();
+        }
+        Sources next = newSources();
+        sources = next;
+        if (listener != null) {
+          Set<String> after = next.getNames(false);
+          listener.onReloaded(getNamesNotIn(after, before), getNamesNotIn(before, after), System.nanoTime() - start);
+        }
+        lastReload = current;
+      }
+    }
+
+    private Sources getSources() {
+      Sources result = sources;
+      return result != null ? result : loadSources();
+    }
+
+    private synchronized Sources loadSources() {
+      if (sources == null) {
+        sources = newSources();
+      }
+      return sources;
+    }
+
+    private Sources newSources() {
+      return new Sources(new Memo(providerSource), new Memo(batchSource));
+    }
+
+    private Stream<TestBatchReloading.Mutable> gather(Sources current) {
+      return Stream.concat(current.providers.stream().filter(TestBatchReloading.Mutable.class::isInstance).map(TestBatchReloading.Mutable.class::cast), flattenBatches(current.batches.stream().filter(TestBatchReloading.Batch.class::isInstance).map(TestBatchReloading.Batch.class::cast), o -> getExpansion(current, o)));
+    }
+
+    private Stream<TestBatchReloading.Mutable> gatherFiltered(Sources current) {
+      if (executor != null) {
+        List<CompletableFuture<List<TestBatchReloading.Mutable>>> futures = submitConcurrently(current.providers.stream().filter(TestBatchReloading.Mutable.class::isInstance), item -> Stream.of(TestBatchReloading.Mutable.class.cast(item)), o -> true, executor);
+        futures.addAll(submitConcurrently(current.batches.stream().filter(TestBatchReloading.Batch.class::isInstance), item -> Stream.of(TestBatchReloading.Batch.class.cast(item)).flatMap(o -> getExpansion(current, o)), o -> true, executor));
+        return joinConcurrently(futures);
+      }
+      return gather(current);
     }
 
-    private Stream<TestBatchReloading.Mutable> stream() {
-      return Stream.concat(StreamSupport.stream(providerSource.spliterator(), false).filter(TestBatchReloading.Mutable.class::isInstance).map(TestBatchReloading.Mutable.class::cast), StreamSupport.stream(batchSource.spliterator(), false).filter(TestBatchReloading.Batch.class::isInstance).map(TestBatchReloading.Batch.class::cast).flatMap(o -> o.getProviders()));
+    private static <T> List<CompletableFuture<List<T>>> submitConcurrently(Stream<?> items,
+        Function<Object, Stream<T>> expander, Predicate<? super T> filter, Executor executor) {
+      return items
+          .map(o -> CompletableFuture.supplyAsync(() -> expander.apply(o).filter(filter).collect(Collectors.toList()), executor))
+          .collect(Collectors.toCollection(ArrayList::new));
+    }
+
+    private static <T> Stream<T> joinConcurrently(List<CompletableFuture<List<T>>> futures) {
+      List<T> result = new ArrayList<>();
+      for (CompletableFuture<List<T>> future : futures) {
+        try {
+          result.addAll(future.join());
+        } catch (CompletionException ex) {
+          Throwable cause = ex.getCause();
+          if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+          }
+          if (cause instanceof Error) {
+            throw (Error) cause;
+          }
+          throw ex;
+        }
+      }
+      return result.stream();
+    }
+
+    private static Set<String> getNamesNotIn(Set<String> names, Set<String> others) {
+      Set<String> result = new LinkedHashSet<>();
+      for (String name : names) {
+        if (!others.contains(name)) {
+          result.add(name);
+        }
+      }
+      return Collections.unmodifiableSet(result);
     }
 
     /**
@@ -60,8 +227,12 @@ public final class TestBatchReloadingLoader {
      * @return a non-null optional {@link definition.TestBatchReloading.Mutable} instance
      */
     public Optional<TestBatchReloading.Mutable> get() {
-      return stream()
+      Optional<TestBatchReloading.Mutable> result = gatherFiltered(getSources())
           .findFirst();
+      if (listener != null) {
+        listener.onSelected(result);
+      }
+      return result;
     }
 
     /**
@@ -84,6 +255,148 @@ public final class TestBatchReloadingLoader {
       return new Builder();
     }
 
+    /**
+     * Receives the events of a loader in order to find out where loading time goes.
+     * <p>All the methods do nothing by default.
+     * Note that they may be called concurrently if an executor is configured.
+     */
+    public interface Listener {
+      /**
+       * Called when a backend has been created.
+       * @param type the type of the loaded providers
+       * @param nanos the duration in nanoseconds
+       */
+      default void onBackendCreated(Class<?> type, long nanos) {
+      }
+
+      /**
+       * Called when a provider has been instantiated.
+       * <p>The duration includes class loading if it occurs at that time.
+       * @param className the name of the provider class
+       * @param nanos the duration in nanoseconds
+       */
+      default void onProviderInstantiated(String className, long nanos) {
+      }
+
+      /**
+       * Called when a batch provider has returned its providers.
+       * @param className the name of the batch provider class
+       * @param nanos the duration in nanoseconds
+       */
+      default void onBatchExpanded(String className, long nanos) {
+      }
+
+      /**
+       * Called when the result of {@code get()} has been computed.
+       * @param result the selected providers
+       */
+      default void onSelected(Optional<TestBatchReloading.Mutable> result) {
+      }
+
+      /**
+       * Called when the content has been reloaded.
+       * <p>Providers are compared by class name, or by delegate name for fields and enum constants: the ones that are still available may be reused.
+       * Only the providers that were fetched before the reload are compared so that none is instantiated for this event.
+       * @param added the names of the provider classes that were not fetched before
+       * @param removed the names of the provider classes that are no longer available
+       * @param nanos the duration in nanoseconds
+       */
+      default void onReloaded(Set<String> added, Set<String> removed, long nanos) {
+      }
+    }
+
+    /**
+     * Content of the backends, published as a whole along with the values derived from it.
+     */
+    private static final class Sources {
+      private final Memo providers;
+
+      private final Memo batches;
+
+      private final Map<Object, Memo> expansions = Collections.synchronizedMap(new IdentityHashMap<>());
+
+      private Sources(Memo providers, Memo batches) {
+        this.providers = providers;
+        this.batches = batches;
+      }
+
+      private Set<String> getNames(boolean fetched) {
+        Set<String> result = new LinkedHashSet<>();
+        (fetched ? providers.fetched() : providers.stream()).forEach(o -> result.add(o.getClass().getName()));
+        (fetched ? batches.fetched() : batches.stream()).forEach(o -> result.add(o.getClass().getName()));
+        return result;
+      }
+    }
+
+    /**
+     * Content of a backend, fetched on demand and shared by the readers of the same sources.
+     */
+    private static final class Memo {
+      private static final Object END = new Object();
+
+      private final Iterable<?> source;
+
+      private Iterator<?> iterator;
+
+      private final List<Object> items = new ArrayList<>();
+
+      private volatile boolean complete;
+
+      private Memo(Iterable<?> source) {
+        this.source = source;
+      }
+
+      private Stream<Object> stream() {
+        if (complete) {
+          return items.stream();
+        }
+        return StreamSupport.stream(new Spliterators.AbstractSpliterator<Object>(Long.MAX_VALUE, Spliterator.ORDERED) {
+          private int index;
+
+          @Override
+          public boolean tryAdvance(Consumer<? super Object> action) {
+            Object item = get(index);
+            if (item == END) {
+              return false;
+            }
+            index++;
+            action.accept(item);
+            return true;
+          }
+        }, false);
+      }
+
+      private synchronized Object get(int index) {
+        while (items.size() <= index) {
+          if (complete || !getIterator().hasNext()) {
+            complete = true;
+            return END;
+          }
+          items.add(getIterator().next());
+        }
+        return items.get(index);
+      }
+
+      private Iterator<?> getIterator() {
+        if (iterator == null) {
+          iterator = source.iterator();
+        }
+        return iterator;
+      }
+
+      private synchronized Stream<Object> fetched() {
+        return new ArrayList<>(items).stream();
+      }
+
+      private synchronized void reload(Runnable reloader) {
+        reloader.run();
+        if (iterator != null) {
+          iterator = null;
+          complete = true;
+        }
+      }
+    }
+
     public static final class Builder {
       private Function<Class<?>, Object> factory = ServiceLoader::load;
 
@@ -91,6 +404,10 @@ public final class TestBatchReloadingLoader {
 
       private Consumer<Object> reloader = backend -> ((ServiceLoader) backend).reload();
 
+      private Executor executor = null;
+
+      private Listener listener = null;
+
       /**
        * Configures a custom backend for loading and reloading providers.
        * @param factory a function that creates a backend instance from a service class, not null
@@ -120,18 +437,75 @@ public final class TestBatchReloadingLoader {
         return this;
       }
 
+      /**
+       * Configures an executor that instantiates and filters providers concurrently.
+       * <p>Results are merged in the order of the backend, before sorting.
+       * Note that only filters and batch expansions are evaluated concurrently when the backend instantiates providers while iterating, such as ServiceLoader.
+       * @param executor an executor, null for sequential loading
+       * @return this builder instance
+       */
+      public Builder executor(Executor executor) {
+        this.executor = executor;
+        return this;
+      }
+
+      /**
+       * Configures a listener that receives the loading events, such as provider instantiations and filter rejections.
+       * <p>Nothing is measured if no listener is configured.
+       * @param listener a listener, null to disable events
+       * @return this builder instance
+       */
+      public Builder listener(Listener listener) {
+        this.listener = listener;
+        return this;
+      }
+
       /**
        * Builds a new loader instance using the configured backend.
        * @return a non-null loader instance
        */
       public Mutable build() {
-        Object providerBackend = factory.apply(TestBatchReloading.Mutable.class);
-        Object batchBackend = factory.apply(TestBatchReloading.Batch.class);
+        Object providerBackend = createBackend(TestBatchReloading.Mutable.class, listener);
+        Object batchBackend = createBackend(TestBatchReloading.Batch.class, listener);
         return new Mutable(
-            streamer.apply(providerBackend), () -> reloader.accept(providerBackend),
-            streamer.apply(batchBackend), () -> reloader.accept(batchBackend)
+            observeInstantiation(streamer.apply(providerBackend), listener), () -> reloader.accept(providerBackend),
+            observeInstantiation(streamer.apply(batchBackend), listener), () -> reloader.accept(batchBackend),
+            executor, listener
             );
       }
+
+      private Object createBackend(Class<?> type, Listener listener) {
+        if (listener == null) {
+          return factory.apply(type);
+        }
+        long start = System.nanoTime();
+        Object result = factory.apply(type);
+        listener.onBackendCreated(type, System.nanoTime() - start);
+        return result;
+      }
+
+      private static Iterable<?> observeInstantiation(Iterable<?> source, Listener listener) {
+        if (listener == null) {
+          return source;
+        }
+        return () -> {
+          Iterator<?> iterator = source.iterator();
+          return new Iterator<Object>() {
+            @Override
+            public boolean hasNext() {
+              return iterator.hasNext();
+            }
+
+            @Override
+            public Object next() {
+              long start = System.nanoTime();
+              Object result = iterator.next();
+              listener.onProviderInstantiated(result.getClass().getName(), System.nanoTime() - start);
+              return result;
+            }
+          };
+        };
+      }
     }
   }
 }
@@ -2,10 +2,17 @@ package definition;
 
 import java.lang.Class;
 import java.lang.Iterable;
+import java.lang.Long;
 import java.lang.Object;
+import java.lang.Override;
 import java.lang.Runnable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Optional;
 import java.util.ServiceLoader;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Stream;
@@ -20,6 +27,7 @@ import java.util.stream.StreamSupport;
  * <li>Preprocessing: null</li>
  * <li>Name: null</li>
  * <li>Batch type: null</li>
+ * <li>Cached: false</li>
  * </ul>
  */
 public final class TestNonNestedDefLoader {
@@ -27,21 +35,62 @@ public final class TestNonNestedDefLoader {
 
   private final Runnable providerReloader;
 
+  private volatile long reloadCount;
+
+  private long lastReload;
+
+  private volatile Sources sources;
+
   private TestNonNestedDefLoader(Iterable<?> providerSource, Runnable providerReloader) {
     this.providerSource = providerSource;
     this.providerReloader = providerReloader;
   }
 
   /**
-   * Reloads the content by clearing the cache and fetching available providers.
+   * Reloads the content by fetching available providers and rebuilding the cache.
    * <p>It should be called when the set of available providers may have changed.
+   * <p>The new content is built while the current one remains available to other threads, and is then published atomically.
+   * If the new content cannot be built, the current one is kept and the exception is propagated.
+   * Note that a reader that is still iterating the current content only gets the providers fetched before the reload.
+   * <p>Concurrent calls are coalesced: a call that waits for a successful reload started after it returns without fetching providers once more.
    */
   public void reload() {
-    providerReloader.run();
+    long requested = reloadCount;
+    synchronized (this) {
+      if (lastReload > requested) {
+        return;
+      }
+      long current = ++reloadCount;
+      Sources previous = sources;
+      if (previous != null) {
+        previous.providers.reload(providerReloader);
+      } else {
+        providerReloader.run();
+      }
+      Sources next = newSources();
+      sources = next;
+      lastReload = current;
+    }
+  }
+
+  private Sources getSources() {
+    Sources result = sources;
+    return result != null ? result : loadSources();
+  }
+
+  private synchronized Sources loadSources() {
+    if (sources == null) {
+      sources = newSources();
+    }
+    return sources;
   }
 
-  private Stream<TestNonNestedDef> stream() {
-    return StreamSupport.stream(providerSource.spliterator(), false).filter(TestNonNestedDef.class::isInstance).map(TestNonNestedDef.class::cast);
+  private Sources newSources() {
+    return new Sources(new Memo(providerSource));
+  }
+
+  private Stream<TestNonNestedDef> gather(Sources current) {
+    return current.providers.stream().filter(TestNonNestedDef.class::isInstance).map(TestNonNestedDef.class::cast);
   }
 
   /**
@@ -50,7 +99,7 @@ public final class TestNonNestedDefLoader {
    * @return a non-null optional {@link definition.TestNonNestedDef} instance
    */
   public Optional<TestNonNestedDef> get() {
-    return stream()
+    return gather(getSources())
         .findFirst();
   }
 
@@ -74,6 +123,82 @@ public final class TestNonNestedDefLoader {
     return new Builder();
   }
 
+  /**
+   * Content of the backends, published as a whole along with the values derived from it.
+   */
+  private static final class Sources {
+    private final Memo providers;
+
+    private Sources(Memo providers) {
+      this.providers = providers;
+    }
+  }
+
+  /**
+   * Content of a backend, fetched on demand and shared by the readers of the same sources.
+   */
+  private static final class Memo {
+    private static final Object END = new Object();
+
+    private final Iterable<?> source;
+
+    private Iterator<?> iterator;
+
+    private final List<Object> items = new ArrayList<>();
+
+    private volatile boolean complete;
+
+    private Memo(Iterable<?> source) {
+      this.source = source;
+    }
+
+    private Stream<Object> stream() {
+      if (complete) {
+        return items.stream();
+      }
+      return StreamSupport.stream(new Spliterators.AbstractSpliterator<Object>(Long.MAX_VALUE, Spliterator.ORDERED) {
+        private int index;
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Object> action) {
+          Object item = get(index);
+          if (item == END) {
+            return false;
+          }
+          index++;
+          action.accept(item);
+          return true;
+        }
+      }, false);
+    }
+
+    private synchronized Object get(int index) {
+      while (items.size() <= index) {
+        if (complete || !getIterator().hasNext()) {
+          complete = true;
+          return END;
+        }
+        items.add(getIterator().next());
+      }
+      return items.get(index);
+    }
+
+    private Iterator<?> getIterator() {
+      if (iterator == null) {
+        iterator = source.iterator();
+      }
+      return iterator;
+    }
+
+    private synchronized void reload(Runnable reloader) {
+      reloader.run();
+      if (iterator != null) {
+        iterator = null;
+        complete = true;
+      }
+    }
+  }
+
   public static final class Builder {
     private Function<Class<?>, Object> factory = ServiceLoader::load;
 
@@ -0,0 +1,74 @@
+package provider;
+
+import nbbrd.service.Quantifier;
+import nbbrd.service.ServiceDefinition;
+import nbbrd.service.ServiceId;
+import nbbrd.service.ServiceProvider;
+
+public class ConstantId {
+
+    @ServiceDefinition(quantifier = Quantifier.MULTIPLE)
+    public interface HashAlgorithm {
+
+        String SHA_1 = "SHA-1";
+
+        @ServiceId
+        String getName();
+    }
+
+    public interface Unidentified {
+
+        String getName();
+    }
+
+    @ServiceProvider(HashAlgorithm.class)
+    public static class Literal implements HashAlgorithm {
+
+        @Override
+        public String getName() {
+            return "SHA-256";
+        }
+    }
+
+    @ServiceProvider(HashAlgorithm.class)
+    public static class LocalConstant implements HashAlgorithm {
+
+        private static final String NAME = "MD5";
+
+        @Override
+        public String getName() {
+            return NAME;
+        }
+    }
+
+    @ServiceProvider(HashAlgorithm.class)
+    public static class QualifiedConstant implements HashAlgorithm {
+
+        @Override
+        public String getName() {
+            return HashAlgorithm.SHA_1;
+        }
+    }
+
+    @ServiceProvider(HashAlgorithm.class)
+    public static class Computed implements HashAlgorithm {
+
+        @Override
+        public String getName() {
+            return String.valueOf(hashCode());
+        }
+    }
+
+    @ServiceProvider(HashAlgorithm.class)
+    public static class Inherited extends Literal {
+    }
+
+    @ServiceProvider(Unidentified.class)
+    public static class Other implements Unidentified {
+
+        @Override
+        public String getName() {
+            return "other";
+        }
+    }
+}
@@ -0,0 +1,335 @@
+package nbbrd.service.runtime;
+
+import lombok.NonNull;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * A backend that loads providers from the jars of a plugin directory and watches this directory for changes.
+ * <p>
+ * Each jar gets its own class loader and only its own {@code META-INF/services/} entries are read.
+ * Changes are detected by a {@link WatchService} and applied on reload: the jars that have been added, modified
+ * or removed since the previous reload are processed while the providers of the other jars are kept as they are.
+ * <p>
+ * It is intended to be used as a custom backend of the generated loaders:
+ * <pre>
+ * try (PluginDirectory plugins = PluginDirectory.open(Paths.get("plugins"))) {
+ *     ConnectorLoader loader = ConnectorLoader.builder()
+ *             .backend(plugins::lookup, lookup -&gt; lookup, PluginDirectory.Lookup::reload)
+ *             .build();
+ *     // a reload picks up the jars deployed in the meantime
+ *     loader.reload();
+ * }
+ * </pre>
+ * Providers must have a public no-argument constructor.
+ * Jars should be deployed atomically (copied aside and then moved into the directory) so that they are never read
+ * while being written.
+ * Note that the class loader of a modified or removed jar is closed on reload so its providers should not be used
+ * afterwards.
+ *
+ * @author Philippe Charles
+ */
+public final class PluginDirectory implements Closeable {
+
+    private static final String FOLDER = "META-INF/services/";
+
+    /**
+     * Opens a plugin directory whose class loaders delegate to the class loader of this class.
+     *
+     * @param directory an existing directory
+     * @return a non-null plugin directory that must be closed after use
+     * @throws IOException if the directory cannot be watched or listed
+     */
+    public static @NonNull PluginDirectory open(@NonNull Path directory) throws IOException {
+        return open(directory, PluginDirectory.class.getClassLoader());
+    }
+
+    /**
+     * Opens a plugin directory.
+     *
+     * @param directory an existing directory
+     * @param parent    the parent of the class loaders of the jars, which must be able to load the service types
+     * @return a non-null plugin directory that must be closed after use
+     * @throws IOException if the directory cannot be watched or listed
+     */
+    public static @NonNull PluginDirectory open(@NonNull Path directory, @NonNull ClassLoader parent) throws IOException {
+        WatchService watcher = directory.getFileSystem().newWatchService();
+        try {
+            directory.register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+            PluginDirectory result = new PluginDirectory(directory, parent, watcher);
+            result.synchronize();
+            return result;
+        } catch (IOException | RuntimeException ex) {
+            watcher.close();
+            throw ex;
+        }
+    }
+
+    private final Path directory;
+    private final ClassLoader parent;
+    private final WatchService watcher;
+    private final SortedMap<Path, Plugin> plugins = new TreeMap<>();
+
+    private PluginDirectory(Path directory, ClassLoader parent, WatchService watcher) {
+        this.directory = directory;
+        this.parent = parent;
+        this.watcher = watcher;
+    }
+
+    /**
+     * Creates a lookup of the providers of a service type.
+     *
+     * @param type the service type
+     * @return a non-null lookup
+     */
+    public @NonNull Lookup lookup(@NonNull Class<?> type) {
+        return new Lookup(type);
+    }
+
+    /**
+     * Applies the changes of the directory that occurred since the previous refresh.
+     *
+     * @return true if at least one jar has been added, modified or removed
+     * @throws UncheckedIOException if the directory cannot be read
+     */
+    public synchronized boolean refresh() throws UncheckedIOException {
+        try {
+            Set<Path> changes = pollChanges();
+            if (changes == null) {
+                return synchronize();
+            }
+            boolean result = false;
+            for (Path file : changes) {
+                result |= replace(file);
+            }
+            return result;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Gets the jars that are currently loaded.
+     *
+     * @return a non-null sorted list of jars
+     */
+    public synchronized @NonNull List<Path> getJars() {
+        return Collections.unmodifiableList(new ArrayList<>(plugins.keySet()));
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            watcher.close();
+        } finally {
+            for (Plugin plugin : plugins.values()) {
+                plugin.close();
+            }
+            plugins.clear();
+        }
+    }
+
+    /**
+     * The providers of a service type, in the order of the jar names.
+     */
+    public final class Lookup implements Iterable<Object> {
+
+        private final Class<?> type;
+
+        private Lookup(Class<?> type) {
+            this.type = type;
+        }
+
+        @Override
+        public @NonNull Iterator<Object> iterator() {
+            return getProviders(type).iterator();
+        }
+
+        /**
+         * Applies the changes of the directory.
+         *
+         * @see PluginDirectory#refresh()
+         */
+        public void reload() {
+            refresh();
+        }
+    }
+
+    private synchronized List<Object> getProviders(Class<?> type) {
+        List<Object> result = new ArrayList<>();
+        for (Plugin plugin : plugins.values()) {
+            result.addAll(plugin.getProviders(type));
+        }
+        return result;
+    }
+
+    // null means that some events have been lost
+    private Set<Path> pollChanges() {
+        Set<Path> result = new LinkedHashSet<>();
+        WatchKey key;
+        while ((key = watcher.poll()) != null) {
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == OVERFLOW) {
+                    result = null;
+                } else if (result != null) {
+                    result.add(directory.resolve((Path) event.context()));
+                }
+            }
+            key.reset();
+        }
+        return result;
+    }
+
+    private boolean synchronize() throws IOException {
+        Set<Path> files = new LinkedHashSet<>(plugins.keySet());
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PluginDirectory::isJar)) {
+            stream.forEach(files::add);
+        }
+        boolean result = false;
+        for (Path file : files) {
+            Plugin old = plugins.get(file);
+            if (old == null || !old.isUpToDate(file)) {
+                result |= replace(file);
+            }
+        }
+        return result;
+    }
+
+    private boolean replace(Path file) throws IOException {
+        Plugin old = plugins.remove(file);
+        if (old != null) {
+            old.close();
+        }
+        if (isJar(file) && Files.isRegularFile(file)) {
+            plugins.put(file, Plugin.open(file, parent));
+            return true;
+        }
+        return old != null;
+    }
+
+    private static boolean isJar(Path file) {
+        return file.getFileName().toString().endsWith(".jar");
+    }
+
+    private static final class Plugin implements Closeable {
+
+        static Plugin open(Path file, ClassLoader parent) throws IOException {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            URLClassLoader classLoader = new URLClassLoader(new URL[]{file.toUri().toURL()}, parent);
+            return new Plugin(classLoader, attributes.lastModifiedTime(), attributes.size());
+        }
+
+        private final URLClassLoader classLoader;
+        private final FileTime lastModified;
+        private final long size;
+        private final Map<Class<?>, List<Object>> providers = new HashMap<>();
+
+        private Plugin(URLClassLoader classLoader, FileTime lastModified, long size) {
+            this.classLoader = classLoader;
+            this.lastModified = lastModified;
+            this.size = size;
+        }
+
+        boolean isUpToDate(Path file) throws IOException {
+            if (!Files.isRegularFile(file)) {
+                return false;
+            }
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            return lastModified.equals(attributes.lastModifiedTime()) && size == attributes.size();
+        }
+
+        List<Object> getProviders(Class<?> type) {
+            return providers.computeIfAbsent(type, this::loadProviders);
+        }
+
+        private List<Object> loadProviders(Class<?> type) {
+            List<Object> result = new ArrayList<>();
+            for (String className : readClassNames(type)) {
+                result.add(newInstance(type, className));
+            }
+            return Collections.unmodifiableList(result);
+        }
+
+        private List<String> readClassNames(Class<?> type) {
+            List<String> result = new ArrayList<>();
+            try {
+                // own entries only, the ones of the parent are not loaded from this jar
+                Enumeration<URL> resources = classLoader.findResources(FOLDER + type.getName());
+                while (resources.hasMoreElements()) {
+                    URLConnection connection = resources.nextElement().openConnection();
+                    // cached jar files would keep the content of a modified jar
+                    connection.setUseCaches(false);
+                    try (InputStream stream = connection.getInputStream()) {
+                        readLines(stream, result);
+                    }
+                }
+            } catch (IOException ex) {
+                throw new ServiceConfigurationError(type.getName() + ": Failed to read provider configuration", ex);
+            }
+            return result;
+        }
+
+        private Object newInstance(Class<?> type, String className) {
+            try {
+                Class<?> result = Class.forName(className, true, classLoader);
+                if (!type.isAssignableFrom(result)) {
+                    throw new ServiceConfigurationError(type.getName() + ": Provider " + className + " not a subtype");
+                }
+                return result.getConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError ex) {
+                throw new ServiceConfigurationError(type.getName() + ": Provider " + className + " could not be instantiated", ex);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            classLoader.close();
+        }
+
+        private static void readLines(InputStream stream, List<String> result) throws IOException {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int comment = line.indexOf('#');
+                String className = (comment >= 0 ? line.substring(0, comment) : line).trim();
+                if (!className.isEmpty() && !result.contains(className)) {
+                    result.add(className);
+                }
+            }
+        }
+    }
+}
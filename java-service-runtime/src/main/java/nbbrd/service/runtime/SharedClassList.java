@@ -0,0 +1,148 @@
+package nbbrd.service.runtime;
+
+import lombok.NonNull;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Aggregates the class lists generated by the annotation processors into a class list for class data sharing.
+ * <p>
+ * The processors generate these lists in {@code META-INF/service-classes/} when the {@code nbbrd.service.classList}
+ * compiler option is set to {@code true}. They cover services, providers, generated delegates, generated batch providers
+ * and generated loaders.
+ * <p>
+ * The result can be passed to {@code -XX:SharedClassListFile} in order to dump an AppCDS archive:
+ * <pre>
+ * java -cp app.jar nbbrd.service.runtime.SharedClassList services.classlist
+ * java -Xshare:dump -XX:SharedClassListFile=services.classlist -XX:SharedArchiveFile=app.jsa -cp app.jar
+ * java -XX:SharedArchiveFile=app.jsa -cp app.jar ...
+ * </pre>
+ *
+ * @author Philippe Charles
+ */
+public final class SharedClassList {
+
+    private SharedClassList() {
+        throw new UnsupportedOperationException("This is a utility class and cannot be instantiated");
+    }
+
+    public static final String FOLDER = "META-INF/service-classes/";
+
+    /**
+     * Collects the binary names of the classes listed by the entries of a class path.
+     * Missing entries are ignored.
+     *
+     * @param classPath a list of jars and directories
+     * @return a non-null sorted set of binary names
+     * @throws IOException if an entry cannot be read
+     */
+    public static @NonNull SortedSet<String> collect(@NonNull Iterable<? extends Path> classPath) throws IOException {
+        SortedSet<String> result = new TreeSet<>();
+        for (Path entry : classPath) {
+            if (Files.isDirectory(entry)) {
+                collectFromDirectory(entry, result);
+            } else if (Files.isRegularFile(entry)) {
+                collectFromJar(entry, result);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Writes a list of binary names in the class list format expected by {@code -XX:SharedClassListFile}.
+     *
+     * @param binaryNames a non-null list of binary names
+     * @param file        the target file
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(@NonNull Collection<String> binaryNames, @NonNull Path file) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (String binaryName : binaryNames) {
+                writer.write(toInternalName(binaryName));
+                writer.newLine();
+            }
+        }
+    }
+
+    /**
+     * Aggregates the class lists of the current class path into a file.
+     *
+     * @param args the target file, optionally followed by a class path that overrides the current one
+     * @throws IOException if the class path cannot be read or the file cannot be written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: SharedClassList <classlist> [<classpath>]");
+            System.exit(1);
+        }
+        String classPath = args.length == 2 ? args[1] : System.getProperty("java.class.path", "");
+        write(collect(parseClassPath(classPath)), Paths.get(args[0]));
+    }
+
+    static List<Path> parseClassPath(String classPath) {
+        return Stream.of(classPath.split(File.pathSeparator))
+                .filter(entry -> !entry.isEmpty())
+                .map(Paths::get)
+                .collect(Collectors.toList());
+    }
+
+    static String toInternalName(String binaryName) {
+        return binaryName.replace('.', '/');
+    }
+
+    private static void collectFromDirectory(Path directory, SortedSet<String> result) throws IOException {
+        Path folder = directory.resolve(FOLDER);
+        if (!Files.isDirectory(folder)) {
+            return;
+        }
+        try (Stream<Path> files = Files.list(folder)) {
+            for (Path file : files.filter(Files::isRegularFile).collect(Collectors.toList())) {
+                try (InputStream stream = Files.newInputStream(file)) {
+                    readLines(stream, result);
+                }
+            }
+        }
+    }
+
+    private static void collectFromJar(Path jar, SortedSet<String> result) throws IOException {
+        try (JarFile file = new JarFile(jar.toFile())) {
+            Enumeration<JarEntry> entries = file.entries();
+            while (entries.hasMoreElements()) {
+                JarEntry entry = entries.nextElement();
+                if (!entry.isDirectory() && entry.getName().startsWith(FOLDER)) {
+                    try (InputStream stream = file.getInputStream(entry)) {
+                        readLines(stream, result);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void readLines(InputStream stream, SortedSet<String> result) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (!line.trim().isEmpty()) {
+                result.add(line.trim());
+            }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package nbbrd.service.runtime;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ServiceConfigurationError;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class PluginDirectoryTest {
+
+    public interface Greeter {
+    }
+
+    public static final class Hello implements Greeter {
+    }
+
+    public static final class Bonjour implements Greeter {
+    }
+
+    @Test
+    public void testLookup(@TempDir Path temp) throws IOException {
+        Path dir = Files.createDirectory(temp.resolve("plugins"));
+        writeJar(dir.resolve("a.jar"), Greeter.class, "# comment", Hello.class.getName(), Hello.class.getName() + " # duplicate");
+        Files.createFile(dir.resolve("readme.txt"));
+
+        assertThatNullPointerException()
+                .isThrownBy(() -> PluginDirectory.open(null));
+
+        try (PluginDirectory plugins = PluginDirectory.open(dir)) {
+            assertThatNullPointerException()
+                    .isThrownBy(() -> plugins.lookup(null));
+
+            assertThat(plugins.getJars())
+                    .containsExactly(dir.resolve("a.jar"));
+
+            PluginDirectory.Lookup lookup = plugins.lookup(Greeter.class);
+            assertThat(lookup)
+                    .singleElement()
+                    .isInstanceOf(Hello.class);
+
+            assertThat(lookup.iterator().next())
+                    .isSameAs(lookup.iterator().next());
+
+            assertThat(plugins.lookup(Runnable.class))
+                    .isEmpty();
+
+            assertThat(plugins.refresh())
+                    .isFalse();
+        }
+    }
+
+    @Test
+    public void testRefresh(@TempDir Path temp) throws Exception {
+        Path dir = Files.createDirectory(temp.resolve("plugins"));
+        writeJar(dir.resolve("a.jar"), Greeter.class, Hello.class.getName());
+
+        try (PluginDirectory plugins = PluginDirectory.open(dir)) {
+            PluginDirectory.Lookup lookup = plugins.lookup(Greeter.class);
+            Object hello = lookup.iterator().next();
+
+            deploy(temp, dir.resolve("b.jar"), Bonjour.class.getName());
+            awaitRefresh(plugins);
+
+            assertThat(plugins.getJars())
+                    .containsExactly(dir.resolve("a.jar"), dir.resolve("b.jar"));
+            assertThat(lookup)
+                    .hasSize(2)
+                    .first()
+                    .isSameAs(hello);
+            assertThat(lookup)
+                    .element(1)
+                    .isInstanceOf(Bonjour.class);
+
+            Files.delete(dir.resolve("a.jar"));
+            awaitRefresh(plugins);
+
+            assertThat(plugins.getJars())
+                    .containsExactly(dir.resolve("b.jar"));
+            assertThat(lookup)
+                    .singleElement()
+                    .isInstanceOf(Bonjour.class);
+
+            deploy(temp, dir.resolve("b.jar"), Hello.class.getName());
+            awaitRefresh(plugins);
+
+            assertThat(lookup)
+                    .singleElement()
+                    .isInstanceOf(Hello.class)
+                    .isNotSameAs(hello);
+        }
+    }
+
+    @Test
+    public void testInvalidProvider(@TempDir Path temp) throws IOException {
+        Path dir = Files.createDirectory(temp.resolve("plugins"));
+        writeJar(dir.resolve("a.jar"), Greeter.class, "java.lang.String");
+        writeJar(dir.resolve("b.jar"), Runnable.class, "missing.Provider");
+
+        try (PluginDirectory plugins = PluginDirectory.open(dir)) {
+            assertThatExceptionOfType(ServiceConfigurationError.class)
+                    .isThrownBy(() -> plugins.lookup(Greeter.class).iterator())
+                    .withMessageContaining("not a subtype");
+
+            assertThatExceptionOfType(ServiceConfigurationError.class)
+                    .isThrownBy(() -> plugins.lookup(Runnable.class).iterator())
+                    .withMessageContaining("could not be instantiated");
+        }
+    }
+
+    @Test
+    public void testClose(@TempDir Path temp) throws IOException {
+        Path dir = Files.createDirectory(temp.resolve("plugins"));
+        writeJar(dir.resolve("a.jar"), Greeter.class, Hello.class.getName());
+
+        PluginDirectory plugins = PluginDirectory.open(dir);
+        plugins.close();
+
+        assertThat(plugins.getJars())
+                .isEmpty();
+        assertThat(plugins.lookup(Greeter.class))
+                .isEmpty();
+    }
+
+    private static void deploy(Path temp, Path target, String... lines) throws IOException {
+        Path file = Files.createTempFile(temp, "plugin", ".tmp");
+        writeJar(file, Greeter.class, lines);
+        Files.move(file, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void awaitRefresh(PluginDirectory plugins) throws InterruptedException {
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (!plugins.refresh()) {
+            if (System.nanoTime() - end > 0) {
+                fail("No change detected");
+            }
+            Thread.sleep(50);
+        }
+    }
+
+    private static void writeJar(Path file, Class<?> service, String... lines) throws IOException {
+        try (JarOutputStream stream = new JarOutputStream(Files.newOutputStream(file))) {
+            stream.putNextEntry(new JarEntry("META-INF/services/" + service.getName()));
+            stream.write(String.join("\n", lines).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
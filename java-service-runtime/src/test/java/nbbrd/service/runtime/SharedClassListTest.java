@@ -0,0 +1,89 @@
+package nbbrd.service.runtime;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatNullPointerException;
+
+public class SharedClassListTest {
+
+    @Test
+    public void testCollect(@TempDir Path temp) throws IOException {
+        Path dir = temp.resolve("classes");
+        Files.createDirectories(dir.resolve(SharedClassList.FOLDER));
+        Files.write(dir.resolve(SharedClassList.FOLDER + "demo.Codec"), asList("demo.Codec", "demo.Codec$Plain", ""), StandardCharsets.UTF_8);
+
+        Path jar = temp.resolve("lib.jar");
+        try (JarOutputStream stream = new JarOutputStream(Files.newOutputStream(jar))) {
+            stream.putNextEntry(new JarEntry(SharedClassList.FOLDER));
+            stream.putNextEntry(new JarEntry(SharedClassList.FOLDER + "demo.CodecLoader"));
+            writeUtf8(stream, "demo.Codec\ndemo.CodecLoader\ndemo.CodecLoader$Builder\n");
+            stream.putNextEntry(new JarEntry("META-INF/services/demo.Codec"));
+            writeUtf8(stream, "other.Provider\n");
+        }
+
+        assertThatNullPointerException()
+                .isThrownBy(() -> SharedClassList.collect(null));
+
+        assertThat(SharedClassList.collect(emptyList()))
+                .isEmpty();
+
+        assertThat(SharedClassList.collect(asList(dir, jar, temp.resolve("missing.jar"))))
+                .containsExactly("demo.Codec", "demo.Codec$Plain", "demo.CodecLoader", "demo.CodecLoader$Builder");
+    }
+
+    @Test
+    public void testWrite(@TempDir Path temp) throws IOException {
+        Path file = temp.resolve("services.classlist");
+
+        SharedClassList.write(asList("demo.Codec", "demo.Codec$Plain"), file);
+
+        assertThat(file)
+                .hasContent("demo/Codec\ndemo/Codec$Plain");
+    }
+
+    @Test
+    public void testMain(@TempDir Path temp) throws IOException {
+        Path dir = temp.resolve("classes");
+        Files.createDirectories(dir.resolve(SharedClassList.FOLDER));
+        Files.write(dir.resolve(SharedClassList.FOLDER + "demo.Codec"), asList("demo.Codec"), StandardCharsets.UTF_8);
+        Path file = temp.resolve("services.classlist");
+
+        SharedClassList.main(new String[]{file.toString(), dir.toString()});
+
+        assertThat(file)
+                .hasContent("demo/Codec");
+    }
+
+    @Test
+    public void testParseClassPath() {
+        assertThat(SharedClassList.parseClassPath(""))
+                .isEmpty();
+
+        assertThat(SharedClassList.parseClassPath("a.jar" + File.pathSeparator + File.pathSeparator + "b"))
+                .extracting(Path::toString)
+                .containsExactly("a.jar", "b");
+    }
+
+    @Test
+    public void testToInternalName() {
+        assertThat(SharedClassList.toInternalName("Codec")).isEqualTo("Codec");
+        assertThat(SharedClassList.toInternalName("demo.Codec$Plain")).isEqualTo("demo/Codec$Plain");
+    }
+
+    private static void writeUtf8(OutputStream stream, String text) throws IOException {
+        stream.write(text.getBytes(StandardCharsets.UTF_8));
+    }
+}